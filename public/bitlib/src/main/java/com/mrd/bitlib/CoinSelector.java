@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mrd.bitlib;
+
+import com.mrd.bitlib.StandardTransactionBuilder.InsufficientFundsException;
+import com.mrd.bitlib.model.UnspentTransactionOutput;
+
+import java.util.List;
+
+/**
+ * Selects the unspent outputs that fund a transaction. See {@link CoinSelectors} for the available strategies.
+ */
+public interface CoinSelector {
+
+   /**
+    * Select the outputs to fund a transaction.
+    *
+    * @param unspent       the outputs to choose from
+    * @param outputSum     the sum of the outputs of the transaction
+    * @param outputCount   the number of outputs of the transaction, not counting change
+    * @param minerFeeToUse the miner fee to pay for every 1000 bytes of transaction size
+    * @return the selected outputs, which pay for the outputs and the fee of a transaction with a change output
+    * @throws InsufficientFundsException if the outputs are not enough to fund the transaction
+    */
+   List<UnspentTransactionOutput> select(UnspentOutputIndex unspent, long outputSum, int outputCount,
+                                         long minerFeeToUse) throws InsufficientFundsException;
+
+}
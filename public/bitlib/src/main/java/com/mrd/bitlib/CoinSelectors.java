@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mrd.bitlib;
+
+import com.mrd.bitlib.StandardTransactionBuilder.InsufficientFundsException;
+import com.mrd.bitlib.model.UnspentTransactionOutput;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The coin selection strategies for {@link StandardTransactionBuilder}.
+ * <p/>
+ * All strategies assume that the transaction gets a change output when estimating the fee, just like the builder
+ * does. A change smaller than {@link TransactionUtils#MINIMUM_OUTPUT_VALUE} is left to the miners.
+ */
+public class CoinSelectors {
+
+   /**
+    * The number of steps after which the branch and bound search gives up
+    */
+   private static final int MAX_BRANCH_AND_BOUND_TRIES = 100000;
+
+   private static final CoinSelector OLDEST_FIRST = new CoinSelector() {
+      @Override
+      public List<UnspentTransactionOutput> select(UnspentOutputIndex unspent, long outputSum, int outputCount,
+                                                   long minerFeeToUse) throws InsufficientFundsException {
+         List<UnspentTransactionOutput> oldest = unspent.getOldestFirst();
+         int count = countUntilFunded(oldest, outputSum, outputCount, minerFeeToUse);
+         long fee = StandardTransactionBuilder.estimateFee(count, outputCount + 1, minerFeeToUse);
+
+         // Leave out the outputs that are not needed when using the largest ones first
+         UnspentTransactionOutput[] largestToSmallest = oldest.subList(0, count).toArray(new UnspentTransactionOutput[count]);
+         Arrays.sort(largestToSmallest, UnspentOutputIndex.LARGEST_FIRST);
+         long found = 0;
+         for (int i = 0; i < largestToSmallest.length; i++) {
+            found += largestToSmallest[i].value;
+            if (found >= fee + outputSum) {
+               return new ArrayList<UnspentTransactionOutput>(Arrays.asList(largestToSmallest).subList(0, i + 1));
+            }
+         }
+         return new ArrayList<UnspentTransactionOutput>(Arrays.asList(largestToSmallest));
+      }
+   };
+
+   private static final CoinSelector LARGEST_FIRST = new CoinSelector() {
+      @Override
+      public List<UnspentTransactionOutput> select(UnspentOutputIndex unspent, long outputSum, int outputCount,
+                                                   long minerFeeToUse) throws InsufficientFundsException {
+         List<UnspentTransactionOutput> largest = unspent.getLargestFirst();
+         int count = countUntilFunded(largest, outputSum, outputCount, minerFeeToUse);
+         return new ArrayList<UnspentTransactionOutput>(largest.subList(0, count));
+      }
+   };
+
+   private CoinSelectors() {
+   }
+
+   /**
+    * Use the oldest outputs until the transaction is funded, then leave out the ones that are not needed when using
+    * the largest of them first. Unconfirmed outputs are used last. This is the default of the builder.
+    */
+   public static CoinSelector oldestFirst() {
+      return OLDEST_FIRST;
+   }
+
+   /**
+    * Use the largest outputs until the transaction is funded, which gives the fewest inputs.
+    */
+   public static CoinSelector largestFirst() {
+      return LARGEST_FIRST;
+   }
+
+   /**
+    * Search for a set of outputs that funds the transaction without leaving a change output, using a depth first
+    * branch and bound search over the outputs ordered by value. If no such set is found within a limited number of
+    * steps the fallback strategy is used.
+    *
+    * @param fallback the strategy to use when there is no match
+    */
+   public static CoinSelector branchAndBound(final CoinSelector fallback) {
+      return new CoinSelector() {
+         @Override
+         public List<UnspentTransactionOutput> select(UnspentOutputIndex unspent, long outputSum, int outputCount,
+                                                      long minerFeeToUse) throws InsufficientFundsException {
+            List<UnspentTransactionOutput> match = findExactMatch(unspent.getLargestFirst(), outputSum, outputCount,
+                  minerFeeToUse);
+            if (match != null) {
+               return match;
+            }
+            return fallback.select(unspent, outputSum, outputCount, minerFeeToUse);
+         }
+      };
+   }
+
+   /**
+    * Count how many outputs from the start of a list fund the transaction
+    */
+   private static int countUntilFunded(List<UnspentTransactionOutput> outputs, long outputSum, int outputCount,
+                                       long minerFeeToUse) throws InsufficientFundsException {
+      long fee = minerFeeToUse;
+      long found = 0;
+      int count = 0;
+      while (found < fee + outputSum) {
+         if (count == outputs.size()) {
+            // We do not have enough funds
+            throw new InsufficientFundsException(outputSum, fee);
+         }
+         found += outputs.get(count).value;
+         count++;
+         // When we estimate the fee we automatically add an extra output for an eventual change output.
+         fee = StandardTransactionBuilder.estimateFee(count, outputCount + 1, minerFeeToUse);
+      }
+      return count;
+   }
+
+   /**
+    * Find outputs whose sum exceeds the outputs and fee by less than the minimum output value, or return null
+    */
+   private static List<UnspentTransactionOutput> findExactMatch(List<UnspentTransactionOutput> largestFirst,
+                                                               long outputSum, int outputCount, long minerFeeToUse) {
+      int n = largestFirst.size();
+      long[] values = new long[n];
+      // remaining[i] is the sum of the values from i onwards
+      long[] remaining = new long[n + 1];
+      for (int i = n - 1; i >= 0; i--) {
+         values[i] = largestFirst.get(i).value;
+         remaining[i] = remaining[i + 1] + values[i];
+      }
+
+      boolean[] selected = new boolean[n];
+      int depth = 0;
+      int count = 0;
+      long sum = 0;
+      for (int tries = 0; tries < MAX_BRANCH_AND_BOUND_TRIES; tries++) {
+         long required = outputSum + StandardTransactionBuilder.estimateFee(count, outputCount + 1, minerFeeToUse);
+         boolean backtrack;
+         if (sum + remaining[depth] < required) {
+            // Even with all remaining outputs this branch falls short
+            backtrack = true;
+         } else if (count > 0 && sum >= required) {
+            if (sum - required < TransactionUtils.MINIMUM_OUTPUT_VALUE) {
+               List<UnspentTransactionOutput> match = new ArrayList<UnspentTransactionOutput>(count);
+               for (int i = 0; i < depth; i++) {
+                  if (selected[i]) {
+                     match.add(largestFirst.get(i));
+                  }
+               }
+               return match;
+            }
+            // Adding more outputs only makes the excess larger
+            backtrack = true;
+         } else {
+            // Nothing left to add
+            backtrack = depth == n;
+         }
+
+         if (backtrack) {
+            // Go back to the last selected output and try the branch without it
+            while (depth > 0 && !selected[depth - 1]) {
+               depth--;
+            }
+            if (depth == 0) {
+               // The whole tree has been searched
+               return null;
+            }
+            depth--;
+            selected[depth] = false;
+            sum -= values[depth];
+            count--;
+            depth++;
+         } else if (depth > 0 && !selected[depth - 1] && values[depth] == values[depth - 1]) {
+            // Including an output of the same value as the one just left out gives the same sums as before
+            depth++;
+         } else {
+            selected[depth] = true;
+            sum += values[depth];
+            count++;
+            depth++;
+         }
+      }
+      return null;
+   }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mrd.bitlib;
+
+import com.mrd.bitlib.model.ScriptInput;
+import com.mrd.bitlib.model.ScriptOutput;
+import com.mrd.bitlib.model.Transaction;
+import com.mrd.bitlib.model.TransactionInput;
+import com.mrd.bitlib.model.TransactionOutput;
+import com.mrd.bitlib.util.ByteWriter;
+import com.mrd.bitlib.util.Sha256Hash;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Calculates the SIGHASH_ALL signature hashes of all inputs of a transaction.
+ * <p>
+ * The hashed data of the inputs only differ in the script of the input being
+ * signed. The transaction is serialized once with all input scripts empty, and
+ * the SHA-256 state of everything before the current input is carried over
+ * from one input to the next, so each hash only processes the data from its
+ * input onwards.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class SignatureHashCalculator {
+
+   // The length of an input with an empty script: out point, script length, sequence
+   private static final int EMPTY_INPUT_LENGTH = 32 + 4 + 1 + 4;
+   private static final int OUT_POINT_LENGTH = 32 + 4;
+
+   private final byte[] _data;
+   private final int[] _inputOffsets;
+   private final int _inputCount;
+   private MessageDigest _prefixDigest;
+   private int _prefixIndex;
+
+   public SignatureHashCalculator(Transaction tx) {
+      _inputCount = tx.inputs.length;
+      _inputOffsets = new int[_inputCount];
+      ByteWriter writer = new ByteWriter(64 + EMPTY_INPUT_LENGTH * _inputCount + 34 * tx.outputs.length);
+      writer.putIntLE(tx.version);
+      writer.putCompactInt(_inputCount);
+      for (int i = 0; i < _inputCount; i++) {
+         TransactionInput in = tx.inputs[i];
+         _inputOffsets[i] = writer.length();
+         new TransactionInput(in.outPoint, ScriptInput.EMPTY, in.sequence).toByteWriter(writer);
+      }
+      writer.putCompactInt(tx.outputs.length);
+      for (TransactionOutput output : tx.outputs) {
+         output.toByteWriter(writer);
+      }
+      writer.putIntLE(tx.lockTime);
+      writer.putIntLE(TransactionUtils.SIGHASH_ALL);
+      _data = writer.toBytes();
+      resetPrefix();
+   }
+
+   /**
+    * Calculate the hash to sign for an input. Calculating the hashes in input
+    * order is the fastest.
+    *
+    * @param inputIndex
+    *           the index of the input
+    * @param connectedScript
+    *           the output script of the output funding the input
+    * @return the hash to sign
+    */
+   public Sha256Hash getHash(int inputIndex, ScriptOutput connectedScript) {
+      if (inputIndex < 0 || inputIndex >= _inputCount) {
+         throw new IndexOutOfBoundsException("Input index out of range: " + inputIndex);
+      }
+      if (inputIndex < _prefixIndex) {
+         resetPrefix();
+      }
+      // Extend the state to everything before this input
+      int prefixEnd = _inputOffsets[inputIndex];
+      int prefixStart = _inputOffsets[_prefixIndex];
+      _prefixDigest.update(_data, prefixStart, prefixEnd - prefixStart);
+      _prefixIndex = inputIndex;
+
+      MessageDigest digest = cloneDigest(_prefixDigest);
+      byte[] script = connectedScript.getScriptBytes();
+      ByteWriter writer = new ByteWriter(OUT_POINT_LENGTH + 9 + script.length);
+      writer.putBytes(_data, prefixEnd, OUT_POINT_LENGTH);
+      writer.putCompactInt(script.length);
+      writer.putBytes(script);
+      byte[] input = writer.toBytes();
+      digest.update(input, 0, input.length);
+      // Skip the out point and the empty script length
+      int restStart = prefixEnd + OUT_POINT_LENGTH + 1;
+      digest.update(_data, restStart, _data.length - restStart);
+      return new Sha256Hash(digest.digest(digest.digest()));
+   }
+
+   private void resetPrefix() {
+      _prefixDigest = getSha256Digest();
+      _prefixIndex = 0;
+      if (_inputCount > 0) {
+         _prefixDigest.update(_data, 0, _inputOffsets[0]);
+      }
+   }
+
+   private static MessageDigest cloneDigest(MessageDigest digest) {
+      try {
+         return (MessageDigest) digest.clone();
+      } catch (CloneNotSupportedException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   private static MessageDigest getSha256Digest() {
+      try {
+         return MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+         throw new RuntimeException(e); //cannot happen
+      }
+   }
+
+}
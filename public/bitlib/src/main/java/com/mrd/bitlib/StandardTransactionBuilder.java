@@ -21,7 +21,6 @@ import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
-import com.google.common.collect.Ordering;
 import com.mrd.bitlib.crypto.BitcoinSigner;
 import com.mrd.bitlib.crypto.IPrivateKeyRing;
 import com.mrd.bitlib.crypto.IPublicKeyRing;
@@ -31,6 +30,10 @@ import com.mrd.bitlib.util.*;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 public class StandardTransactionBuilder {
 
@@ -110,6 +113,7 @@ public class StandardTransactionBuilder {
 
          // Create transaction with valid outputs and empty inputs
          Transaction transaction = new Transaction(1, inputs, _outputs, 0);
+         SignatureHashCalculator hashCalculator = new SignatureHashCalculator(transaction);
 
          for (int i = 0; i < _funding.length; i++) {
             UnspentTransactionOutput f = _funding[i];
@@ -130,14 +134,9 @@ public class StandardTransactionBuilder {
                throw new RuntimeException("Public key not found");
             }
 
-            // Set the input script to the funding output script
-            inputs[i].script = ScriptInput.fromOutputScript(_funding[i].script);
-
-            // Calculate the transaction hash that has to be signed
-            Sha256Hash hash = hashTransaction(transaction);
-
-            // Set the input to the empty script again
-            inputs[i] = new TransactionInput(_funding[i].outPoint, ScriptInput.EMPTY);
+            // Calculate the transaction hash that has to be signed, with the
+            // input script set to the funding output script
+            Sha256Hash hash = hashCalculator.getHash(i, _funding[i].script);
 
             _signingRequests[i] = new SigningRequest(publicKey, hash);
 
@@ -239,20 +238,80 @@ public class StandardTransactionBuilder {
    }
 
    public static List<byte[]> generateSignatures(SigningRequest[] requests, IPrivateKeyRing keyRing) {
+      BitcoinSigner[] signers = findSigners(requests, keyRing);
       List<byte[]> signatures = new LinkedList<byte[]>();
-      for (SigningRequest request : requests) {
-         BitcoinSigner signer = keyRing.findSignerByPublicKey(request.publicKey);
-         if (signer == null) {
-            // This should not happen as we only work on outputs that we have
-            // keys for
-            throw new RuntimeException("Private key not found");
+      for (int i = 0; i < requests.length; i++) {
+         signatures.add(signers[i].makeStandardBitcoinSignature(requests[i].toSign));
+      }
+      return signatures;
+   }
+
+   /**
+    * Generate the signatures for a number of signing requests in parallel.
+    * <p/>
+    * The signers are looked up on the calling thread, once for every distinct public key, and the signatures are
+    * made on the executor. The signatures are returned in the order of the requests.
+    *
+    * @param requests the signing requests
+    * @param keyRing  the key ring to find the signers in
+    * @param executor the executor to make the signatures on
+    * @return the signatures, one for every request
+    */
+   public static List<byte[]> generateSignatures(SigningRequest[] requests, IPrivateKeyRing keyRing, Executor executor) {
+      BitcoinSigner[] signers = findSigners(requests, keyRing);
+      List<FutureTask<byte[]>> tasks = new ArrayList<FutureTask<byte[]>>(requests.length);
+      for (int i = 0; i < requests.length; i++) {
+         final BitcoinSigner signer = signers[i];
+         final Sha256Hash toSign = requests[i].toSign;
+         FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+               return signer.makeStandardBitcoinSignature(toSign);
+            }
+         });
+         tasks.add(task);
+         executor.execute(task);
+      }
+      List<byte[]> signatures = new ArrayList<byte[]>(requests.length);
+      try {
+         for (FutureTask<byte[]> task : tasks) {
+            signatures.add(task.get());
          }
-         byte[] signature = signer.makeStandardBitcoinSignature(request.toSign);
-         signatures.add(signature);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+         }
+         throw new RuntimeException(e.getCause());
       }
       return signatures;
    }
 
+   /**
+    * Find the signer of every request, looking up requests with the same public key only once
+    */
+   private static BitcoinSigner[] findSigners(SigningRequest[] requests, IPrivateKeyRing keyRing) {
+      BitcoinSigner[] signers = new BitcoinSigner[requests.length];
+      Map<PublicKey, BitcoinSigner> signersByKey = new HashMap<PublicKey, BitcoinSigner>();
+      for (int i = 0; i < requests.length; i++) {
+         PublicKey publicKey = requests[i].publicKey;
+         BitcoinSigner signer = signersByKey.get(publicKey);
+         if (signer == null) {
+            signer = keyRing.findSignerByPublicKey(publicKey);
+            if (signer == null) {
+               // This should not happen as we only work on outputs that we have
+               // keys for
+               throw new RuntimeException("Private key not found");
+            }
+            signersByKey.put(publicKey, signer);
+         }
+         signers[i] = signer;
+      }
+      return signers;
+   }
+
    /**
     * Create an unsigned transaction and automatically calculate the miner fee.
     * <p/>
@@ -273,14 +332,33 @@ public class StandardTransactionBuilder {
                                                         Address changeAddress, IPublicKeyRing keyRing,
                                                         NetworkParameters network, long minerFeeToUse)
          throws InsufficientFundsException {
-      // Make a copy so we can mutate the list
-      List<UnspentTransactionOutput> unspent = new LinkedList<UnspentTransactionOutput>(inventory);
-      OldOutputs oldOutputs = new OldOutputs(minerFeeToUse, unspent);
-      long fee = oldOutputs.getFee();
-      long outputSum = oldOutputs.getOutputSum();
-       //todo extract coinselector interface with 2 implementations, oldest and pruning
-      List<UnspentTransactionOutput> funding = pruneRedundantOutputs(oldOutputs.getAllFunding(), fee + outputSum);
-      fee = estimateFee(funding.size(), _outputs.size() + 1, minerFeeToUse);
+      return createUnsignedTransaction(new UnspentOutputIndex(inventory), changeAddress, keyRing, network,
+            minerFeeToUse, CoinSelectors.oldestFirst());
+   }
+
+   /**
+    * Create an unsigned transaction, choosing the funding with a specific coin selection strategy.
+    *
+    * @param inventory     The unspent transaction outputs that can be used as funding
+    * @param changeAddress The address to send any change to, can be null
+    * @param keyRing       The public key ring matching the unspent outputs
+    * @param network       The network we are working on
+    * @param minerFeeToUse The miner fee to pay for every 1000 bytes of transaction size
+    * @param coinSelector  The strategy for choosing the funding, see {@link CoinSelectors}
+    * @return An unsigned transaction
+    * @throws InsufficientFundsException
+    */
+   public UnsignedTransaction createUnsignedTransaction(UnspentOutputIndex inventory,
+                                                        Address changeAddress, IPublicKeyRing keyRing,
+                                                        NetworkParameters network, long minerFeeToUse,
+                                                        CoinSelector coinSelector)
+         throws InsufficientFundsException {
+      long outputSum = outputSum();
+      List<UnspentTransactionOutput> funding = new ArrayList<UnspentTransactionOutput>(
+            coinSelector.select(inventory, outputSum, _outputs.size(), minerFeeToUse));
+      // Shuffle the inputs so it is harder to analyze our addresses in the block chain
+      Collections.shuffle(funding);
+      long fee = estimateFee(funding.size(), _outputs.size() + 1, minerFeeToUse);
 
       long found = 0;
       for (UnspentTransactionOutput output : funding) {
@@ -334,28 +412,6 @@ public class StandardTransactionBuilder {
       return unsignedTransaction;
    }
 
-   private List<UnspentTransactionOutput> pruneRedundantOutputs(List<UnspentTransactionOutput> funding, long outputSum) {
-      List<UnspentTransactionOutput> largestToSmallest = Ordering.natural().reverse().onResultOf(new Function<UnspentTransactionOutput, Comparable>() {
-         @Override
-         public Comparable apply(UnspentTransactionOutput input) {
-            return input.value;
-         }
-      }).sortedCopy(funding);
-
-      long target = 0;
-      for (int i = 0; i < largestToSmallest.size(); i++) {
-         UnspentTransactionOutput output = largestToSmallest.get(i);
-         target += output.value;
-         if (target >= outputSum){
-
-            List<UnspentTransactionOutput> ret = largestToSmallest.subList(0, i+1);
-            Collections.shuffle(ret);
-            return ret;
-         }
-      }
-      return largestToSmallest;
-   }
-
    @VisibleForTesting
    Address extractRichest(Collection<UnspentTransactionOutput> unspent, final NetworkParameters network) {
       Preconditions.checkArgument(!unspent.isEmpty());
@@ -406,33 +462,6 @@ public class StandardTransactionBuilder {
       return transaction;
    }
 
-   private UnspentTransactionOutput extractOldest(Collection<UnspentTransactionOutput> unspent) {
-      // find the "oldest" output
-      int minHeight = Integer.MAX_VALUE;
-      UnspentTransactionOutput oldest = null;
-      for (UnspentTransactionOutput output : unspent) {
-         if (!(output.script instanceof ScriptOutputStandard)) {
-            // only look for standard scripts
-            continue;
-         }
-
-         // Unconfirmed outputs have height = -1 -> change this to Int.MAX-1, so that we
-         // choose them as the last possible option
-         int height = output.height > 0 ? output.height : Integer.MAX_VALUE-1;
-
-         if (height < minHeight) {
-            minHeight = height;
-            oldest = output;
-         }
-      }
-      if (oldest == null) {
-         // There were no outputs
-         return null;
-      }
-      unspent.remove(oldest);
-      return oldest;
-   }
-
    private long outputSum() {
       long sum = 0;
       for (TransactionOutput output : _outputs) {
@@ -441,16 +470,25 @@ public class StandardTransactionBuilder {
       return sum;
    }
 
-   private static Sha256Hash hashTransaction(Transaction t) {
-      ByteWriter writer = new ByteWriter(1024);
-      t.toByteWriter(writer);
-      // We also have to write a hash type.
-      int hashType = 1;
-      writer.putIntLE(hashType);
-      // Note that this is NOT reversed to ensure it will be signed
-      // correctly. If it were to be printed out
-      // however then we would expect that it is IS reversed.
-      return HashUtils.doubleSha256(writer.toBytes());
+   /**
+    * Calculate the largest amount that a single output funded by all the given unspent outputs can have.
+    * <p/>
+    * The fee is estimated for all inputs and two outputs, as the builder always leaves room for a change output.
+    * Sending the returned amount therefore always succeeds with any of the {@link CoinSelectors}.
+    *
+    * @param inventory     The unspent transaction outputs that can be used as funding
+    * @param minerFeeToUse The miner fee to pay for every 1000 bytes of transaction size
+    * @return The maximum amount to send, or zero if it would be less than the minimum output value
+    */
+   public static long calculateMaxSpendable(UnspentOutputIndex inventory, long minerFeeToUse) {
+      if (inventory.size() == 0) {
+         return 0;
+      }
+      long amount = inventory.getSum() - estimateFee(inventory.size(), 2, minerFeeToUse);
+      if (amount < TransactionUtils.MINIMUM_OUTPUT_VALUE) {
+         return 0;
+      }
+      return amount;
    }
 
    /**
@@ -472,50 +510,11 @@ public class StandardTransactionBuilder {
       return estimate;
    }
 
-   private static long estimateFee(int inputs, int outputs, long minerFeeToUse) {
+   static long estimateFee(int inputs, int outputs, long minerFeeToUse) {
       int txSize = estimateTransactionSize(inputs, outputs);
       // fee is based on the size of the transaction, we have to pay for
       // every 1000 bytes
       long requiredFee = (1 + (txSize / 1000)) * minerFeeToUse;
       return requiredFee;
    }
-
-   private class OldOutputs {
-      private List<UnspentTransactionOutput> allFunding;
-      private long fee;
-      private long outputSum;
-
-      public OldOutputs(long minerFeeToUse, List<UnspentTransactionOutput> unspent) throws InsufficientFundsException {
-         // Find the funding for this transaction
-         allFunding = new LinkedList<UnspentTransactionOutput>();
-         fee = minerFeeToUse;
-         outputSum = outputSum();
-         long found = 0;
-         while (found < fee + outputSum) {
-            UnspentTransactionOutput output = extractOldest(unspent);
-            if (output == null) {
-               // We do not have enough funds
-               throw new InsufficientFundsException(outputSum, fee);
-            }
-            found += output.value;
-            allFunding.add(output);
-            // When we estimate the fee we automatically add an extra output for an eventual change output.
-            // This slightly increases the change for paying a little extra, but adding change is the norm
-            fee = estimateFee(allFunding.size(), _outputs.size() + 1, minerFeeToUse);
-         }
-      }
-
-      public List<UnspentTransactionOutput> getAllFunding() {
-         return allFunding;
-      }
-
-      public long getFee() {
-         return fee;
-      }
-
-      public long getOutputSum() {
-         return outputSum;
-      }
-
-   }
 }
@@ -16,9 +16,11 @@
 
 package com.mrd.bitlib;
 
+import com.mrd.bitlib.model.ScriptOutput;
 import com.mrd.bitlib.model.Transaction;
 import com.mrd.bitlib.model.TransactionOutput;
 import com.mrd.bitlib.model.UnspentTransactionOutput;
+import com.mrd.bitlib.util.Sha256Hash;
 
 public class TransactionUtils {
 
@@ -47,6 +49,11 @@ public class TransactionUtils {
     */
    public static final long MINIMUM_OUTPUT_VALUE = 5460;
 
+   /**
+    * The hash type for signatures that commit to all inputs and outputs
+    */
+   public static final int SIGHASH_ALL = 1;
+
    /**
     * The priority threshold at which a transaction is considered to be high
     * priority
@@ -138,4 +145,21 @@ public class TransactionUtils {
       return result;
    }
 
+   /**
+    * Calculate the hash that the signature of an input with hash type
+    * SIGHASH_ALL commits to. Use a {@link SignatureHashCalculator} to get the
+    * hashes of several inputs of the same transaction.
+    *
+    * @param tx
+    *           the transaction containing the input
+    * @param inputIndex
+    *           the index of the input
+    * @param connectedScript
+    *           the output script of the output funding the input
+    * @return the hash to verify the signature of the input against
+    */
+   public static Sha256Hash calculateSignatureHashAll(Transaction tx, int inputIndex, ScriptOutput connectedScript) {
+      return new SignatureHashCalculator(tx).getHash(inputIndex, connectedScript);
+   }
+
 }
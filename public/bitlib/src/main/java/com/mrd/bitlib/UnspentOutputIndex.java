@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mrd.bitlib;
+
+import com.mrd.bitlib.model.ScriptOutputStandard;
+import com.mrd.bitlib.model.UnspentTransactionOutput;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The unspent outputs that can fund a transaction, sorted by age and by value for coin selection.
+ * <p/>
+ * Only outputs with standard scripts are included. The index is immutable and can be reused for several selections
+ * as long as the set of unspent outputs does not change.
+ */
+public class UnspentOutputIndex {
+
+   private static final Comparator<UnspentTransactionOutput> OLDEST_FIRST = new Comparator<UnspentTransactionOutput>() {
+      @Override
+      public int compare(UnspentTransactionOutput o1, UnspentTransactionOutput o2) {
+         int h1 = sortHeight(o1);
+         int h2 = sortHeight(o2);
+         return h1 < h2 ? -1 : (h1 == h2 ? 0 : 1);
+      }
+   };
+
+   static final Comparator<UnspentTransactionOutput> LARGEST_FIRST = new Comparator<UnspentTransactionOutput>() {
+      @Override
+      public int compare(UnspentTransactionOutput o1, UnspentTransactionOutput o2) {
+         return o1.value > o2.value ? -1 : (o1.value == o2.value ? 0 : 1);
+      }
+   };
+
+   private final List<UnspentTransactionOutput> _oldestFirst;
+   private final List<UnspentTransactionOutput> _largestFirst;
+   private final long _sum;
+
+   public UnspentOutputIndex(Collection<UnspentTransactionOutput> unspent) {
+      List<UnspentTransactionOutput> standard = new ArrayList<UnspentTransactionOutput>(unspent.size());
+      long sum = 0;
+      for (UnspentTransactionOutput output : unspent) {
+         // only use standard scripts
+         if (output.script instanceof ScriptOutputStandard) {
+            standard.add(output);
+            sum += output.value;
+         }
+      }
+      _sum = sum;
+      // The sorts are stable, outputs that compare equal keep the order they were given in
+      UnspentTransactionOutput[] byAge = standard.toArray(new UnspentTransactionOutput[standard.size()]);
+      Arrays.sort(byAge, OLDEST_FIRST);
+      _oldestFirst = Collections.unmodifiableList(Arrays.asList(byAge));
+      UnspentTransactionOutput[] byValue = standard.toArray(new UnspentTransactionOutput[standard.size()]);
+      Arrays.sort(byValue, LARGEST_FIRST);
+      _largestFirst = Collections.unmodifiableList(Arrays.asList(byValue));
+   }
+
+   /**
+    * Unconfirmed outputs have height -1. They sort as Integer.MAX_VALUE - 1, so that they are chosen as the last
+    * possible option.
+    */
+   private static int sortHeight(UnspentTransactionOutput output) {
+      return output.height > 0 ? output.height : Integer.MAX_VALUE - 1;
+   }
+
+   /**
+    * Get the outputs ordered by block height, with unconfirmed outputs last
+    */
+   public List<UnspentTransactionOutput> getOldestFirst() {
+      return _oldestFirst;
+   }
+
+   /**
+    * Get the outputs ordered by value, largest first
+    */
+   public List<UnspentTransactionOutput> getLargestFirst() {
+      return _largestFirst;
+   }
+
+   /**
+    * Get the sum of the values of all outputs
+    */
+   public long getSum() {
+      return _sum;
+   }
+
+   public int size() {
+      return _oldestFirst.size();
+   }
+
+}
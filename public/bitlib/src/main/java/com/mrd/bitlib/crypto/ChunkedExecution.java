@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mrd.bitlib.crypto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Splits the indexes 0..count-1 into chunks, runs each chunk as a separate
+ * task on an executor and waits for all of them to finish.
+ */
+final class ChunkedExecution {
+
+   interface Chunk {
+      /**
+       * Process the indexes from (inclusive) to to (exclusive)
+       */
+      void run(int from, int to);
+   }
+
+   private ChunkedExecution() {
+   }
+
+   /**
+    * Run all chunks and block until they are done. Everything written by the
+    * chunks is visible to the caller afterwards. If a chunk throws a runtime
+    * exception, it is rethrown here.
+    */
+   static void run(int count, int chunkSize, Executor executor, final Chunk chunk) {
+      List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>();
+      for (int i = 0; i < count; i += chunkSize) {
+         final int from = i;
+         final int to = Math.min(count, i + chunkSize);
+         FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+               chunk.run(from, to);
+            }
+         }, null);
+         tasks.add(task);
+         executor.execute(task);
+      }
+      try {
+         for (FutureTask<Void> task : tasks) {
+            task.get();
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+         }
+         throw new RuntimeException(e.getCause());
+      }
+   }
+
+}
@@ -19,11 +19,14 @@ package com.mrd.bitlib.crypto;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
 import com.google.bitcoinj.Base58;
 import com.google.common.base.Preconditions;
+import com.mrd.bitlib.crypto.ec.EcTools;
 import com.mrd.bitlib.crypto.ec.Parameters;
 import com.mrd.bitlib.crypto.ec.Point;
 import com.mrd.bitlib.model.hdpath.HdKeyPath;
@@ -52,6 +55,10 @@ public class HdKeyNode implements Serializable {
 
    private static final String BITCOIN_SEED = "Bitcoin seed";
    private static final int CHAIN_CODE_SIZE = 32;
+   // The number of child keys derived by one task of a parallel range
+   // derivation
+   private static final int DERIVATION_CHUNK_SIZE = 16;
+   private static final long NON_HARDENED_INDEX_COUNT = 1L << 31;
 
    private final InMemoryPrivateKey _privateKey;
    private final PublicKey _publicKey;
@@ -179,6 +186,19 @@ public class HdKeyNode implements Serializable {
       return _privateKey != null;
    }
 
+   /**
+    * Overwrite the chain code of this node with zeros.
+    * <p>
+    * The node must not be used afterwards. Public nodes obtained from this node
+    * through {@link #getPublicNode()} share its chain code and are wiped too.
+    * The private key itself cannot be wiped, {@link InMemoryPrivateKey} keeps
+    * it in an immutable {@link BigInteger} which stays in memory until it is
+    * garbage collected.
+    */
+   public void wipe() {
+      Arrays.fill(_chainCode, (byte) 0);
+   }
+
    /**
     * If this is a private key node, return the corresponding public key node of
     * this node, otherwise return a copy of this node.
@@ -219,6 +239,95 @@ public class HdKeyNode implements Serializable {
    }
 
 
+   /**
+    * Create the child public keys of this node for a range of non-hardened
+    * indexes.
+    * <p>
+    * This gives the same keys as calling {@link #createChildPublicKey(int)}
+    * for every index, but decodes the public key of this node only once and
+    * converts all child keys to affine coordinates with a single field
+    * inversion.
+    *
+    * @param fromIndex
+    *           the first index to use
+    * @param count
+    *           the number of keys to create
+    * @return the public keys for the indexes fromIndex to fromIndex + count - 1
+    * @throws KeyGenerationException
+    *            if no key can be created for one of the indexes (extremely
+    *            unlikely)
+    */
+   public List<PublicKey> createChildPublicKeys(int fromIndex, int count) throws KeyGenerationException {
+      checkNonHardenedRange(fromIndex, count);
+      PublicKey[] keys = new PublicKey[count];
+      createChildPublicKeys(fromIndex, 0, count, keys);
+      return Arrays.asList(keys);
+   }
+
+   /**
+    * Create the child public keys of this node for a range of non-hardened
+    * indexes, spreading the work across an executor. Blocks until all keys
+    * have been created.
+    *
+    * @param fromIndex
+    *           the first index to use
+    * @param count
+    *           the number of keys to create
+    * @param executor
+    *           the executor to run the derivation on
+    * @return the public keys for the indexes fromIndex to fromIndex + count - 1
+    * @throws KeyGenerationException
+    *            if no key can be created for one of the indexes (extremely
+    *            unlikely)
+    */
+   public List<PublicKey> createChildPublicKeys(final int fromIndex, int count, Executor executor)
+         throws KeyGenerationException {
+      checkNonHardenedRange(fromIndex, count);
+      final PublicKey[] keys = new PublicKey[count];
+      ChunkedExecution.run(count, DERIVATION_CHUNK_SIZE, executor, new ChunkedExecution.Chunk() {
+         @Override
+         public void run(int from, int to) {
+            createChildPublicKeys(fromIndex, from, to, keys);
+         }
+      });
+      return Arrays.asList(keys);
+   }
+
+   private static void checkNonHardenedRange(int fromIndex, int count) {
+      Preconditions.checkArgument(fromIndex >= 0 && count >= 0, "Invalid index range");
+      Preconditions.checkArgument((long) fromIndex + count <= NON_HARDENED_INDEX_COUNT,
+            "Range contains hardened indexes");
+   }
+
+   /**
+    * Create the keys for the indexes fromIndex + from to fromIndex + to - 1
+    * and store them in keys[from..to-1]
+    */
+   private void createChildPublicKeys(int fromIndex, int from, int to, PublicKey[] keys) {
+      byte[] publicKeyBytes = _publicKey.getPublicKeyBytes();
+      BigInteger[] m = new BigInteger[to - from];
+      for (int i = 0; i < m.length; i++) {
+         ByteWriter writer = new ByteWriter(publicKeyBytes.length + 4);
+         writer.putBytes(publicKeyBytes);
+         writer.putIntBE(fromIndex + from + i);
+         byte[] l = Hmac.hmacSha512(_chainCode, writer.toBytes());
+         m[i] = new BigInteger(1, BitUtils.copyOfRange(l, 0, 32));
+         if (m[i].compareTo(Parameters.n) >= 0) {
+            throw new KeyGenerationException(
+                  "An unlikely thing happened: A key derivation parameter is larger than the N modulus of the curve");
+         }
+      }
+      Point[] points = EcTools.addMultiplesOfG(_publicKey.getQ(), m);
+      for (int i = 0; i < points.length; i++) {
+         Point q = points[i];
+         if (q.isInfinity()) {
+            throw new KeyGenerationException("An unlikely thing happened: Invalid key point at infinity");
+         }
+         keys[from + i] = new PublicKey(new Point(Parameters.curve, q.getX(), q.getY(), true).getEncoded());
+      }
+   }
+
+
    /**
     * Create the Bip32 derived child from this KeyNode, according to the keyPath.
     *
@@ -300,9 +409,14 @@ public class HdKeyNode implements Serializable {
          // Make a 32 byte result where k is copied to the end
          byte[] privateKeyBytes = bigIntegerTo32Bytes(k);
          InMemoryPrivateKey key = new InMemoryPrivateKey(privateKeyBytes, true);
+         // The key has its own copy, do not leave the key material lying around
+         Arrays.fill(privateKeyBytes, (byte) 0);
+         Arrays.fill(data, (byte) 0);
+         Arrays.fill(l, (byte) 0);
+         Arrays.fill(lL, (byte) 0);
          return new HdKeyNode(key, lR, _depth + 1, getFingerprint(), index);
       } else {
-         Point q = Parameters.G.multiply(m).add(Parameters.curve.decodePoint(_publicKey.getPublicKeyBytes()));
+         Point q = Parameters.G.multiply(m).add(_publicKey.getQ());
          if (q.isInfinity()) {
             throw new KeyGenerationException("An unlikely thing happened: Invalid key point at infinity");
          }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mrd.bitlib.crypto;
+
+import java.util.Arrays;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.mrd.bitlib.crypto.ec.Parameters;
+import com.mrd.bitlib.crypto.ec.Point;
+
+/**
+ * A bounded cache of decoded public key points, keyed by their 33 or 65 byte
+ * encoding.
+ * <p>
+ * Decoding a compressed public key requires a modular square root, and the
+ * same keys, such as the account roots of HD wallets, get decoded over and
+ * over. The cache is safe to use from several threads and evicts the least
+ * recently used points when it is full.
+ */
+public final class PointCache {
+
+   private static final int MAX_SIZE = 4096;
+
+   private static final Cache<Key, Point> CACHE = CacheBuilder.newBuilder().maximumSize(MAX_SIZE).recordStats()
+         .build();
+
+   private PointCache() {
+   }
+
+   /**
+    * Decode a public key point, using a cached point if the same encoding has
+    * been decoded before.
+    *
+    * @param encoded
+    *           the encoded point
+    * @return the decoded point
+    * @throws RuntimeException
+    *            if the encoding is not valid, in which case nothing is cached
+    */
+   public static Point decode(byte[] encoded) {
+      Point point = CACHE.getIfPresent(new Key(encoded));
+      if (point == null) {
+         point = Parameters.curve.decodePoint(encoded);
+         // The cached key keeps its own copy, the caller may modify the array
+         // later on. Lookups only use the caller's array for the moment
+         CACHE.put(new Key(encoded.clone()), point);
+      }
+      return point;
+   }
+
+   /**
+    * Get the number of lookups that found a decoded point
+    */
+   public static long getHitCount() {
+      return getStats().hitCount();
+   }
+
+   /**
+    * Get the number of lookups that had to decode the point
+    */
+   public static long getMissCount() {
+      return getStats().missCount();
+   }
+
+   /**
+    * Get the full statistics of the cache, including evictions
+    */
+   public static CacheStats getStats() {
+      return CACHE.stats();
+   }
+
+   /**
+    * Remove all cached points
+    */
+   public static void clear() {
+      CACHE.invalidateAll();
+   }
+
+   private static final class Key {
+      private final byte[] _encoded;
+      private final int _hashCode;
+
+      private Key(byte[] encoded) {
+         _encoded = encoded;
+         _hashCode = Arrays.hashCode(encoded);
+      }
+
+      @Override
+      public int hashCode() {
+         return _hashCode;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (!(obj instanceof Key)) {
+            return false;
+         }
+         return Arrays.equals(_encoded, ((Key) obj)._encoded);
+      }
+   }
+
+}
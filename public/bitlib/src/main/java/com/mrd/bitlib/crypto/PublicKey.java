@@ -16,7 +16,6 @@
 
 package com.mrd.bitlib.crypto;
 
-import com.mrd.bitlib.crypto.ec.Parameters;
 import com.mrd.bitlib.crypto.ec.Point;
 import com.mrd.bitlib.model.Address;
 import com.mrd.bitlib.model.NetworkParameters;
@@ -111,7 +110,7 @@ public class PublicKey implements Serializable {
 
   public Point getQ() {
       if (_Q == null) {
-         _Q = Parameters.curve.decodePoint(_pubKeyBytes);
+         _Q = PointCache.decode(_pubKeyBytes);
       }
       return _Q;
    }
@@ -20,6 +20,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.mrd.bitlib.crypto.ec.EcTools;
@@ -31,6 +38,8 @@ import com.mrd.bitlib.util.ByteWriter;
 public class Signatures {
 
    private static final byte[] HEADER;
+   // The number of signatures verified by one task of a batch verification
+   private static final int BATCH_CHUNK_SIZE = 64;
    private static final byte[] SIGNING_HEADER;
 
    static{
@@ -139,6 +148,171 @@ public class Signatures {
       return v.equals(r);
    }
 
+   /**
+    * Verify a number of signatures on the calling thread.
+    * <p>
+    * This is faster than verifying them one by one, as the modular inversions
+    * are shared using Montgomery's trick and the decoding and precomputation
+    * of public keys that occur several times is only done once.
+    *
+    * @param requests the signatures to verify
+    * @return the result for each request, in the same order as the requests
+    */
+   public static boolean[] verifyBatch(List<VerificationRequest> requests) {
+      boolean[] result = new boolean[requests.size()];
+      int[] order = orderByPublicKey(requests);
+      verifyChunk(requests, order, 0, order.length, new ConcurrentHashMap<PublicKey, Point>(), result);
+      return result;
+   }
+
+   /**
+    * Verify a number of signatures, spreading the work across an executor.
+    * <p>
+    * The requests are split into chunks which are verified as separate tasks
+    * on the executor. This method blocks until all tasks have finished.
+    *
+    * @param requests the signatures to verify
+    * @param executor the executor to run the verification tasks on
+    * @return the result for each request, in the same order as the requests
+    */
+   public static boolean[] verifyBatch(final List<VerificationRequest> requests, Executor executor) {
+      final boolean[] result = new boolean[requests.size()];
+      final int[] order = orderByPublicKey(requests);
+      final ConcurrentMap<PublicKey, Point> decoded = new ConcurrentHashMap<PublicKey, Point>();
+      ChunkedExecution.run(order.length, BATCH_CHUNK_SIZE, executor, new ChunkedExecution.Chunk() {
+         @Override
+         public void run(int from, int to) {
+            verifyChunk(requests, order, from, to, decoded, result);
+         }
+      });
+      return result;
+   }
+
+   /**
+    * Get the indexes of the requests with requests for the same public key
+    * next to each other, so that they end up in the same chunk
+    */
+   private static int[] orderByPublicKey(List<VerificationRequest> requests) {
+      Map<PublicKey, List<Integer>> groups = new LinkedHashMap<PublicKey, List<Integer>>();
+      for (int i = 0; i < requests.size(); i++) {
+         PublicKey key = requests.get(i).publicKey;
+         List<Integer> group = groups.get(key);
+         if (group == null) {
+            group = new ArrayList<Integer>();
+            groups.put(key, group);
+         }
+         group.add(i);
+      }
+      int[] order = new int[requests.size()];
+      int index = 0;
+      for (List<Integer> group : groups.values()) {
+         for (Integer i : group) {
+            order[index++] = i;
+         }
+      }
+      return order;
+   }
+
+   private static void verifyChunk(List<VerificationRequest> requests, int[] order, int from, int to,
+                                   ConcurrentMap<PublicKey, Point> decoded, boolean[] result) {
+      BigInteger n = Parameters.n;
+      int count = to - from;
+      int[] indexes = new int[count];
+      BigInteger[] e = new BigInteger[count];
+      BigInteger[] r = new BigInteger[count];
+      BigInteger[] s = new BigInteger[count];
+      Point[] Q = new Point[count];
+
+      // Decode and range check everything, only the valid candidates go on
+      int valid = 0;
+      for (int i = from; i < to; i++) {
+         VerificationRequest request = requests.get(order[i]);
+         Signature signature = decodeSignatureParameters(new ByteReader(request.signature));
+         if (signature == null) {
+            continue;
+         }
+         if (signature.r.compareTo(BigInteger.ONE) < 0 || signature.r.compareTo(n) >= 0) {
+            continue;
+         }
+         if (signature.s.compareTo(BigInteger.ONE) < 0 || signature.s.compareTo(n) >= 0) {
+            continue;
+         }
+         Point point = decodePublicKey(request.publicKey, decoded);
+         if (point == null) {
+            continue;
+         }
+         indexes[valid] = order[i];
+         e[valid] = calculateE(n, request.hash.getBytes());
+         r[valid] = signature.r;
+         s[valid] = signature.s;
+         Q[valid] = point;
+         valid++;
+      }
+      if (valid == 0) {
+         return;
+      }
+
+      BigInteger[] c = invertAll(s, valid, n);
+      BigInteger[] u1 = new BigInteger[valid];
+      BigInteger[] u2 = new BigInteger[valid];
+      Point[] points = new Point[valid];
+      for (int i = 0; i < valid; i++) {
+         u1[i] = e[i].multiply(c[i]).mod(n);
+         u2[i] = r[i].multiply(c[i]).mod(n);
+         points[i] = Q[i];
+      }
+
+      Point[] sums = EcTools.sumOfTwoMultipliesWithG(u1, points, u2);
+      for (int i = 0; i < valid; i++) {
+         if (sums[i].isInfinity()) {
+            continue;
+         }
+         BigInteger v = sums[i].getX().toBigInteger().mod(n);
+         result[indexes[i]] = v.equals(r[i]);
+      }
+   }
+
+   private static Point decodePublicKey(PublicKey key, ConcurrentMap<PublicKey, Point> decoded) {
+      Point point = decoded.get(key);
+      if (point != null) {
+         return point;
+      }
+      try {
+         point = key.getQ();
+      } catch (RuntimeException e) {
+         // Not a valid public key
+         return null;
+      }
+      if (point == null || point.isInfinity()) {
+         return null;
+      }
+      Point existing = decoded.putIfAbsent(key, point);
+      return existing == null ? point : existing;
+   }
+
+   /**
+    * Calculate the inverses modulo n of the first count values with a single
+    * modular inversion using Montgomery's trick. All values must be
+    * invertible.
+    */
+   private static BigInteger[] invertAll(BigInteger[] values, int count, BigInteger n) {
+      // products[i] holds the product of values[0..i]
+      BigInteger[] products = new BigInteger[count];
+      BigInteger acc = BigInteger.ONE;
+      for (int i = 0; i < count; i++) {
+         acc = acc.multiply(values[i]).mod(n);
+         products[i] = acc;
+      }
+      BigInteger inv = acc.modInverse(n);
+      BigInteger[] result = new BigInteger[count];
+      for (int i = count - 1; i > 0; i--) {
+         result[i] = inv.multiply(products[i - 1]).mod(n);
+         inv = inv.multiply(values[i]).mod(n);
+      }
+      result[0] = inv;
+      return result;
+   }
+
    private static BigInteger calculateE(BigInteger n, byte[] message) {
       if (n.bitLength() > message.length * 8) {
          return new BigInteger(1, message);
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mrd.bitlib.crypto;
+
+import com.mrd.bitlib.util.Sha256Hash;
+
+/**
+ * A signature to check with {@link Signatures#verifyBatch(java.util.List)}
+ */
+public class VerificationRequest {
+
+   // The hash that was signed
+   public final Sha256Hash hash;
+
+   // The DER encoded signature. Trailing bytes such as the hash type of a
+   // standard bitcoin signature are ignored
+   public final byte[] signature;
+
+   // The public key that made the signature
+   public final PublicKey publicKey;
+
+   public VerificationRequest(Sha256Hash hash, byte[] signature, PublicKey publicKey) {
+      this.hash = hash;
+      this.signature = signature;
+      this.publicKey = publicKey;
+   }
+
+}
@@ -21,6 +21,8 @@
 package com.mrd.bitlib.crypto.ec;
 
 import java.math.BigInteger;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 /**
  * Various tools for elliptic curves
@@ -58,8 +60,161 @@ public class EcTools {
 
    /**
     * Multiply a point with a big integer
+    * <p>
+    * On secp256k1 the intermediate points are kept in Jacobian coordinates
+    * using fixed width field arithmetic, so only a single field inversion is
+    * needed for the whole multiplication. Multiplications of the generator G
+    * use a precomputed table.
     */
    public static Point multiply(Point p, BigInteger k) {
+      if (!JacobianPoint.isSupported(p.getCurve())) {
+         return multiplyAffine(p, k);
+      }
+      if (p == Parameters.G || p.equals(Parameters.G)) {
+         return FixedBaseTable.forGenerator().multiply(k);
+      }
+      if (p.isInfinity() || k.signum() == 0) {
+         return p.getCurve().getInfinity();
+      }
+      if (k.signum() < 0) {
+         return multiply(p.negate(), k.negate());
+      }
+
+      BigInteger e = k;
+      BigInteger h = e.multiply(BigInteger.valueOf(3));
+
+      int[] x = Secp256k1Field.fromBigInteger(p.getX().toBigInteger());
+      int[] y = Secp256k1Field.fromBigInteger(p.getY().toBigInteger());
+      int[] negY = Secp256k1Field.create();
+      Secp256k1Field.negate(y, negY);
+      JacobianPoint R = new JacobianPoint();
+      R.setAffine(x, y);
+
+      for (int i = h.bitLength() - 2; i > 0; --i) {
+         R.twice();
+
+         boolean hBit = h.testBit(i);
+         boolean eBit = e.testBit(i);
+
+         if (hBit != eBit) {
+            R.addAffine(x, hBit ? y : negY);
+         }
+      }
+
+      return R.toAffine();
+   }
+
+   /**
+    * Calculate k * P + l * Q using Shamir's trick
+    * <p>
+    * When P is the generator G, as in signature verification, the GLV
+    * endomorphism of secp256k1 and width-w NAF are used instead.
+    */
+   public static Point sumOfTwoMultiplies(Point P, BigInteger k, Point Q, BigInteger l) {
+      if (!JacobianPoint.isSupported(P.getCurve())) {
+         return sumOfTwoMultipliesAffine(P, k, Q, l);
+      }
+      if (P == Parameters.G || P.equals(Parameters.G)) {
+         Point result = GlvMultiplier.sumOfTwoMultipliesWithG(k, Q, l);
+         if (result != null) {
+            return result;
+         }
+      }
+      int m = Math.max(k.bitLength(), l.bitLength());
+      JacobianPoint Z = JacobianPoint.fromAffine(P);
+      Z.add(Q);
+      Z.normalize();
+      JacobianPoint Pj = JacobianPoint.fromAffine(P);
+      JacobianPoint Qj = JacobianPoint.fromAffine(Q);
+      JacobianPoint R = new JacobianPoint();
+
+      for (int i = m - 1; i >= 0; --i) {
+         R.twice();
+
+         if (k.testBit(i)) {
+            if (l.testBit(i)) {
+               R.add(Z);
+            } else {
+               R.add(Pj);
+            }
+         } else {
+            if (l.testBit(i)) {
+               R.add(Qj);
+            }
+         }
+      }
+
+      return R.toAffine();
+   }
+
+   /**
+    * Calculate k[i] * G + l[i] * Q[i] for a number of points at once, as in
+    * the verification of many signatures.
+    * <p>
+    * Points that are passed several times as the same instance share their
+    * precomputation, and all results are converted to affine coordinates
+    * with a single field inversion.
+    */
+   public static Point[] sumOfTwoMultipliesWithG(BigInteger[] k, Point[] Q, BigInteger[] l) {
+      int count = Q.length;
+      Point[] result = new Point[count];
+      Map<Point, GlvMultiplier.OddMultiples[]> tables = new IdentityHashMap<Point, GlvMultiplier.OddMultiples[]>();
+      JacobianPoint[] points = new JacobianPoint[count];
+      int[] indexes = new int[count];
+      int batched = 0;
+      for (int i = 0; i < count; i++) {
+         GlvMultiplier.OddMultiples[] qTables = tables.get(Q[i]);
+         if (qTables == null && !tables.containsKey(Q[i])) {
+            qTables = GlvMultiplier.precompute(Q[i]);
+            tables.put(Q[i], qTables);
+         }
+         JacobianPoint r = qTables == null ? null : GlvMultiplier.sumOfTwoMultipliesWithG(k[i], qTables, l[i]);
+         if (r == null) {
+            // Not suitable for the batch, use the generic algorithm
+            result[i] = sumOfTwoMultiplies(Parameters.G, k[i], Q[i], l[i]);
+         } else {
+            points[batched] = r;
+            indexes[batched] = i;
+            batched++;
+         }
+      }
+
+      JacobianPoint[] toNormalize = new JacobianPoint[batched];
+      System.arraycopy(points, 0, toNormalize, 0, batched);
+      Point[] affine = JacobianPoint.toAffine(toNormalize);
+      for (int i = 0; i < batched; i++) {
+         result[indexes[i]] = affine[i];
+      }
+      return result;
+   }
+
+   /**
+    * Calculate k[i] * G + P for a number of scalars, as in the public
+    * derivation of a range of HD child keys.
+    * <p>
+    * The multiplications use the precomputed table of G and all results are
+    * converted to affine coordinates with a single field inversion.
+    */
+   public static Point[] addMultiplesOfG(Point P, BigInteger[] k) {
+      JacobianPoint[] points = new JacobianPoint[k.length];
+      int[] x = null;
+      int[] y = null;
+      if (!P.isInfinity()) {
+         x = Secp256k1Field.fromBigInteger(P.getX().toBigInteger());
+         y = Secp256k1Field.fromBigInteger(P.getY().toBigInteger());
+      }
+      FixedBaseTable table = FixedBaseTable.forGenerator();
+      for (int i = 0; i < k.length; i++) {
+         points[i] = new JacobianPoint();
+         table.multiply(k[i], points[i]);
+         if (x != null) {
+            points[i].addAffine(x, y);
+         }
+      }
+      return JacobianPoint.toAffine(points);
+   }
+
+   private static Point multiplyAffine(Point p, BigInteger k) {
       BigInteger e = k;
       BigInteger h = e.multiply(BigInteger.valueOf(3));
 
@@ -80,7 +235,7 @@ public class EcTools {
       return R;
    }
 
-   public static Point sumOfTwoMultiplies(Point P, BigInteger k, Point Q, BigInteger l) {
+   private static Point sumOfTwoMultipliesAffine(Point P, BigInteger k, Point Q, BigInteger l) {
       int m = Math.max(k.bitLength(), l.bitLength());
       Point Z = P.add(Q);
       Point R = P.getCurve().getInfinity();
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mrd.bitlib.crypto.ec;
+
+import java.math.BigInteger;
+
+/**
+ * Precomputed table for multiplying a fixed base point with a scalar using the
+ * fixed-base windowed method.
+ * <p>
+ * The scalar is split into 4-bit windows. For every window position i the
+ * table holds the affine points j * 16^i * B for j = 1..15, so a
+ * multiplication is one mixed addition per non-zero window and no doublings.
+ * The table is immutable once built and can be shared between threads.
+ */
+final class FixedBaseTable {
+
+   private static final int WINDOW_BITS = 4;
+   private static final int WINDOW_SIZE = 1 << WINDOW_BITS;
+
+   /**
+    * Lazily built table for the generator G. The JVM guarantees that the
+    * holder is initialized exactly once, on first use.
+    */
+   private static class GeneratorHolder {
+      private static final FixedBaseTable INSTANCE = new FixedBaseTable(Parameters.G, Parameters.n);
+   }
+
+   private final BigInteger _order;
+   // Affine coordinates of the multiples as Secp256k1Field limbs, indexed by
+   // window position and digit - 1
+   private final int[][][] _x;
+   private final int[][][] _y;
+
+   static FixedBaseTable forGenerator() {
+      return GeneratorHolder.INSTANCE;
+   }
+
+   FixedBaseTable(Point base, BigInteger order) {
+      _order = order;
+      int windows = (order.bitLength() + WINDOW_BITS - 1) / WINDOW_BITS;
+
+      // Calculate all multiples in Jacobian coordinates and convert them to
+      // affine coordinates in one go
+      JacobianPoint[] all = new JacobianPoint[windows * (WINDOW_SIZE - 1)];
+      JacobianPoint windowBase = JacobianPoint.fromAffine(base);
+      for (int i = 0; i < windows; i++) {
+         JacobianPoint multiple = windowBase.copy();
+         for (int j = 0; j < WINDOW_SIZE - 1; j++) {
+            all[i * (WINDOW_SIZE - 1) + j] = multiple.copy();
+            multiple.add(windowBase);
+         }
+         // multiple is now 16 * windowBase, which is the base of the next
+         // window
+         windowBase = multiple;
+      }
+      JacobianPoint.normalizeAll(all);
+
+      _x = new int[windows][WINDOW_SIZE - 1][];
+      _y = new int[windows][WINDOW_SIZE - 1][];
+      for (int i = 0; i < windows; i++) {
+         for (int j = 0; j < WINDOW_SIZE - 1; j++) {
+            JacobianPoint p = all[i * (WINDOW_SIZE - 1) + j];
+            _x[i][j] = p._x;
+            _y[i][j] = p._y;
+         }
+      }
+   }
+
+   /**
+    * Multiply the base point of this table with a scalar
+    */
+   Point multiply(BigInteger k) {
+      JacobianPoint r = new JacobianPoint();
+      multiply(k, r);
+      return r.toAffine();
+   }
+
+   /**
+    * Multiply the base point of this table with a scalar and store the result
+    * in r
+    */
+   void multiply(BigInteger k, JacobianPoint r) {
+      if (k.signum() < 0 || k.compareTo(_order) >= 0) {
+         k = k.mod(_order);
+      }
+      r.setInfinity();
+      for (int i = 0; i < _x.length; i++) {
+         int digit = 0;
+         for (int b = WINDOW_BITS - 1; b >= 0; b--) {
+            digit = (digit << 1) | (k.testBit(i * WINDOW_BITS + b) ? 1 : 0);
+         }
+         if (digit != 0) {
+            r.addAffine(_x[i][digit - 1], _y[i][digit - 1]);
+         }
+      }
+   }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mrd.bitlib.crypto.ec;
+
+import java.math.BigInteger;
+
+/**
+ * Calculates u1 * G + u2 * Q on secp256k1 using the GLV endomorphism and
+ * interleaved width-w NAF.
+ * <p>
+ * secp256k1 has an efficiently computable endomorphism phi(x, y) = (beta * x,
+ * y) which equals multiplication by lambda. Every scalar u is split into
+ * roughly 128 bit halves u = a + b * lambda mod n, so the sum turns into four
+ * half-length multiplications a1 * G + b1 * phi(G) + a2 * Q + b2 * phi(Q)
+ * which share one chain of 128 doublings. The odd multiples of G and phi(G)
+ * are precomputed once, the odd multiples of Q and phi(Q) are calculated per
+ * call and normalized with a single inversion.
+ */
+final class GlvMultiplier {
+
+   // Cube roots of unity in the field and modulo the group order with
+   // lambda * (x, y) = (beta * x, y)
+   private static final BigInteger BETA = new BigInteger(
+         "7ae96a2b657c07106e64479eac3434e99cf0497512f58995c1396c28719501ee", 16);
+   static final BigInteger LAMBDA = new BigInteger(
+         "5363ad4cc05c30e0a5261c028812645a122e22ea20816678df02967c1b23bd72", 16);
+
+   // Short basis of the lattice {(a, b) : a + b * lambda = 0 mod n} and the
+   // precomputed rounding constants g1 = round(2^384 * v2[1] / n), g2 =
+   // round(2^384 * -v1[1] / n)
+   private static final BigInteger V1_0 = new BigInteger("3086d221a7d46bcde86c90e49284eb15", 16);
+   private static final BigInteger V1_1 = new BigInteger("-e4437ed6010e88286f547fa90abfe4c3", 16);
+   private static final BigInteger V2_0 = new BigInteger("114ca50f7a8e2f3f657c1108d9d44cfd8", 16);
+   private static final BigInteger V2_1 = new BigInteger("3086d221a7d46bcde86c90e49284eb15", 16);
+   private static final BigInteger G1 = new BigInteger(
+         "3086d221a7d46bcde86c90e49284eb153daa8a1471e8ca7fe893209a45dbb031", 16);
+   private static final BigInteger G2 = new BigInteger(
+         "e4437ed6010e88286f547fa90abfe4c4221208ac9df506c61571b4ae8ac47f71", 16);
+   private static final int G_SHIFT = 384;
+
+   private static final int[] BETA_LIMBS = Secp256k1Field.fromBigInteger(BETA);
+   private static final int[] CURVE_B = Secp256k1Field.fromBigInteger(BigInteger.valueOf(7));
+
+   // Window widths for the fixed point G and for the variable point Q
+   private static final int G_WINDOW = 8;
+   private static final int Q_WINDOW = 5;
+
+   /**
+    * Odd multiples 1, 3, 5, ... of G and phi(G), built on first use
+    */
+   private static class GeneratorHolder {
+      private static final OddMultiples G_TABLE = new OddMultiples(JacobianPoint.fromAffine(Parameters.G), G_WINDOW);
+      private static final OddMultiples PHI_G_TABLE = G_TABLE.endomorphism();
+   }
+
+   private GlvMultiplier() {
+   }
+
+   /**
+    * Calculate u1 * G + u2 * Q. Returns null if the arguments are not
+    * suitable for this method, in which case the caller must use the generic
+    * algorithm. This is the case for scalars outside [0, n) and for points
+    * that are not on the curve.
+    */
+   static Point sumOfTwoMultipliesWithG(BigInteger u1, Point Q, BigInteger u2) {
+      OddMultiples[] qTables = precompute(Q);
+      if (qTables == null) {
+         return null;
+      }
+      JacobianPoint r = sumOfTwoMultipliesWithG(u1, qTables, u2);
+      return r == null ? null : r.toAffine();
+   }
+
+   /**
+    * Calculate the odd multiples of Q and phi(Q). The result can be used for
+    * several multiplications of the same point. Returns null if Q is not
+    * suitable for this method.
+    */
+   static OddMultiples[] precompute(Point Q) {
+      if (Q.isInfinity() || !Parameters.curve.equals(Q.getCurve())) {
+         return null;
+      }
+      JacobianPoint q = JacobianPoint.fromAffine(Q);
+      if (!isOnCurve(q)) {
+         return null;
+      }
+      OddMultiples qTable = new OddMultiples(q, Q_WINDOW);
+      return new OddMultiples[] { qTable, qTable.endomorphism() };
+   }
+
+   /**
+    * Calculate u1 * G + u2 * Q in Jacobian coordinates using the tables of a
+    * point returned by {@link #precompute(Point)}. Returns null for scalars
+    * outside [0, n).
+    */
+   static JacobianPoint sumOfTwoMultipliesWithG(BigInteger u1, OddMultiples[] qTables, BigInteger u2) {
+      BigInteger n = Parameters.n;
+      if (u1.signum() < 0 || u1.compareTo(n) >= 0 || u2.signum() < 0 || u2.compareTo(n) >= 0) {
+         return null;
+      }
+
+      BigInteger[] split1 = decomposeScalar(u1);
+      BigInteger[] split2 = decomposeScalar(u2);
+
+      OddMultiples[] tables = new OddMultiples[] { GeneratorHolder.G_TABLE, GeneratorHolder.PHI_G_TABLE, qTables[0],
+            qTables[1] };
+      BigInteger[] scalars = new BigInteger[] { split1[0], split1[1], split2[0], split2[1] };
+      int[] windows = new int[] { G_WINDOW, G_WINDOW, Q_WINDOW, Q_WINDOW };
+
+      int[][] nafs = new int[4][];
+      int length = 0;
+      for (int i = 0; i < 4; i++) {
+         nafs[i] = wnaf(scalars[i], windows[i]);
+         length = Math.max(length, nafs[i].length);
+      }
+
+      JacobianPoint r = new JacobianPoint();
+      for (int bit = length - 1; bit >= 0; bit--) {
+         r.twice();
+         for (int i = 0; i < 4; i++) {
+            int[] naf = nafs[i];
+            if (bit >= naf.length) {
+               continue;
+            }
+            int digit = naf[bit];
+            if (digit > 0) {
+               int index = digit >>> 1;
+               r.addAffine(tables[i]._x[index], tables[i]._y[index]);
+            } else if (digit < 0) {
+               int index = (-digit) >>> 1;
+               r.addAffine(tables[i]._x[index], tables[i]._negY[index]);
+            }
+         }
+      }
+      return r;
+   }
+
+   /**
+    * Split k into a and b with k = a + b * lambda mod n where a and b are
+    * about half the length of n. a and b may be negative.
+    */
+   static BigInteger[] decomposeScalar(BigInteger k) {
+      BigInteger b1 = roundedShift(k.multiply(G1));
+      BigInteger b2 = roundedShift(k.multiply(G2));
+      BigInteger a = k.subtract(b1.multiply(V1_0).add(b2.multiply(V2_0)));
+      BigInteger b = b1.multiply(V1_1).add(b2.multiply(V2_1)).negate();
+      return new BigInteger[] { a, b };
+   }
+
+   private static BigInteger roundedShift(BigInteger x) {
+      boolean roundUp = x.testBit(G_SHIFT - 1);
+      BigInteger result = x.shiftRight(G_SHIFT);
+      return roundUp ? result.add(BigInteger.ONE) : result;
+   }
+
+   /**
+    * Compute the width-w non-adjacent form of k, least significant digit
+    * first. Every non-zero digit is odd and has an absolute value below
+    * 2^(w-1). Negative k gives the negated digits of -k.
+    */
+   static int[] wnaf(BigInteger k, int w) {
+      boolean negative = k.signum() < 0;
+      k = k.abs();
+      int[] digits = new int[k.bitLength() + 1];
+      int full = 1 << w;
+      int half = 1 << (w - 1);
+      BigInteger mask = BigInteger.valueOf(full - 1);
+      int length = 0;
+      int i = 0;
+      while (k.signum() > 0) {
+         if (k.testBit(0)) {
+            int digit = k.and(mask).intValue();
+            if (digit >= half) {
+               digit -= full;
+            }
+            k = k.subtract(BigInteger.valueOf(digit));
+            digits[i] = negative ? -digit : digit;
+            length = i + 1;
+         }
+         k = k.shiftRight(1);
+         i++;
+      }
+      if (length == digits.length) {
+         return digits;
+      }
+      int[] result = new int[length];
+      System.arraycopy(digits, 0, result, 0, length);
+      return result;
+   }
+
+   private static boolean isOnCurve(JacobianPoint p) {
+      // y^2 = x^3 + 7 for a point with Z = 1
+      int[] tt = Secp256k1Field.createWide();
+      int[] lhs = Secp256k1Field.create();
+      int[] rhs = Secp256k1Field.create();
+      Secp256k1Field.square(p._y, lhs, tt);
+      Secp256k1Field.square(p._x, rhs, tt);
+      Secp256k1Field.multiply(rhs, p._x, rhs, tt);
+      Secp256k1Field.add(rhs, CURVE_B, rhs);
+      return Secp256k1Field.areEqual(lhs, rhs);
+   }
+
+   /**
+    * The affine odd multiples P, 3P, 5P, ..., (2^(w-1) - 1) * P of a point
+    * together with their negated Y coordinates
+    */
+   static final class OddMultiples {
+      final int[][] _x;
+      final int[][] _y;
+      final int[][] _negY;
+
+      OddMultiples(JacobianPoint p, int w) {
+         int count = 1 << (w - 2);
+         JacobianPoint twiceP = p.copy();
+         twiceP.twice();
+         JacobianPoint[] multiples = new JacobianPoint[count];
+         multiples[0] = p.copy();
+         for (int i = 1; i < count; i++) {
+            multiples[i] = multiples[i - 1].copy();
+            multiples[i].add(twiceP);
+         }
+         JacobianPoint.normalizeAll(multiples);
+         _x = new int[count][];
+         _y = new int[count][];
+         _negY = new int[count][];
+         for (int i = 0; i < count; i++) {
+            _x[i] = multiples[i]._x;
+            _y[i] = multiples[i]._y;
+            _negY[i] = Secp256k1Field.create();
+            Secp256k1Field.negate(_y[i], _negY[i]);
+         }
+      }
+
+      private OddMultiples(int[][] x, int[][] y, int[][] negY) {
+         _x = x;
+         _y = y;
+         _negY = negY;
+      }
+
+      /**
+       * Apply phi to all the multiples, giving the odd multiples of phi(P)
+       */
+      OddMultiples endomorphism() {
+         int count = _x.length;
+         int[][] x = new int[count][];
+         int[] tt = Secp256k1Field.createWide();
+         for (int i = 0; i < count; i++) {
+            x[i] = Secp256k1Field.create();
+            Secp256k1Field.multiply(_x[i], BETA_LIMBS, x[i], tt);
+         }
+         return new OddMultiples(x, _y, _negY);
+      }
+   }
+
+}
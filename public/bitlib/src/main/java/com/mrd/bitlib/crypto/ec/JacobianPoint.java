@@ -0,0 +1,371 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mrd.bitlib.crypto.ec;
+
+/**
+ * A mutable secp256k1 point in Jacobian projective coordinates (X, Y, Z), which
+ * represents the affine point (X / Z^2, Y / Z^3).
+ * <p>
+ * Unlike {@link Point} additions and doublings require no field inversion. A
+ * single inversion is done when the result is converted back to affine
+ * coordinates using {@link #toAffine()}. The point at infinity is represented
+ * by Z = 0.
+ * <p>
+ * The coordinates are kept as {@link Secp256k1Field} limbs and all operations
+ * update the point in place using scratch registers owned by the instance, so
+ * a scalar multiplication only allocates when it starts and when it converts
+ * the result. Instances are not thread safe.
+ */
+final class JacobianPoint {
+
+   final int[] _x;
+   final int[] _y;
+   final int[] _z;
+
+   // Scratch registers
+   private final int[] _t1 = Secp256k1Field.create();
+   private final int[] _t2 = Secp256k1Field.create();
+   private final int[] _t3 = Secp256k1Field.create();
+   private final int[] _t4 = Secp256k1Field.create();
+   private final int[] _t5 = Secp256k1Field.create();
+   private final int[] _t6 = Secp256k1Field.create();
+   private final int[] _tt = Secp256k1Field.createWide();
+
+   /**
+    * Create the point at infinity
+    */
+   JacobianPoint() {
+      _x = Secp256k1Field.create();
+      _y = Secp256k1Field.create();
+      _z = Secp256k1Field.create();
+      setInfinity();
+   }
+
+   /**
+    * Lift an affine point into Jacobian coordinates by setting Z = 1
+    */
+   static JacobianPoint fromAffine(Point p) {
+      JacobianPoint result = new JacobianPoint();
+      if (!p.isInfinity()) {
+         result.setAffine(Secp256k1Field.fromBigInteger(p.getX().toBigInteger()),
+               Secp256k1Field.fromBigInteger(p.getY().toBigInteger()));
+      }
+      return result;
+   }
+
+   /**
+    * Can points on the given curve be represented by this class?
+    */
+   static boolean isSupported(Curve curve) {
+      return Secp256k1Field.isSecp256k1(curve.getQ()) && curve.getA().toBigInteger().signum() == 0;
+   }
+
+   JacobianPoint copy() {
+      JacobianPoint result = new JacobianPoint();
+      result.set(this);
+      return result;
+   }
+
+   void set(JacobianPoint p) {
+      Secp256k1Field.copy(p._x, _x);
+      Secp256k1Field.copy(p._y, _y);
+      Secp256k1Field.copy(p._z, _z);
+   }
+
+   void setAffine(int[] x, int[] y) {
+      Secp256k1Field.copy(x, _x);
+      Secp256k1Field.copy(y, _y);
+      Secp256k1Field.setOne(_z);
+   }
+
+   void setInfinity() {
+      Secp256k1Field.setOne(_x);
+      Secp256k1Field.setOne(_y);
+      Secp256k1Field.setZero(_z);
+   }
+
+   boolean isInfinity() {
+      return Secp256k1Field.isZero(_z);
+   }
+
+   /**
+    * Convert this point into affine coordinates. This costs one field
+    * inversion. The point is normalized in place.
+    */
+   Point toAffine() {
+      if (isInfinity()) {
+         return Parameters.curve.getInfinity();
+      }
+      normalize();
+      return toPoint();
+   }
+
+   /**
+    * Scale the coordinates in place so that Z = 1
+    */
+   void normalize() {
+      if (isInfinity()) {
+         return;
+      }
+      Secp256k1Field.invert(_z, _t1);
+      Secp256k1Field.square(_t1, _t2, _tt);
+      Secp256k1Field.multiply(_x, _t2, _x, _tt);
+      Secp256k1Field.multiply(_t2, _t1, _t2, _tt);
+      Secp256k1Field.multiply(_y, _t2, _y, _tt);
+      Secp256k1Field.setOne(_z);
+   }
+
+   /**
+    * Normalize a number of points in place using a single field inversion
+    * (Montgomery's trick). Points at infinity are allowed.
+    */
+   static void normalizeAll(JacobianPoint[] points) {
+      int count = points.length;
+      if (count == 0) {
+         return;
+      }
+      int[] tt = Secp256k1Field.createWide();
+
+      // products[i] holds the product of the Z coordinates of points[0..i]
+      int[][] products = new int[count][];
+      int[] acc = Secp256k1Field.create();
+      Secp256k1Field.setOne(acc);
+      for (int i = 0; i < count; i++) {
+         if (!points[i].isInfinity()) {
+            Secp256k1Field.multiply(acc, points[i]._z, acc, tt);
+         }
+         products[i] = acc.clone();
+      }
+
+      int[] inv = Secp256k1Field.create();
+      Secp256k1Field.invert(acc, inv);
+      int[] zInv = Secp256k1Field.create();
+      int[] zInv2 = Secp256k1Field.create();
+      for (int i = count - 1; i >= 0; i--) {
+         JacobianPoint p = points[i];
+         if (p.isInfinity()) {
+            continue;
+         }
+         if (i == 0) {
+            Secp256k1Field.copy(inv, zInv);
+         } else {
+            Secp256k1Field.multiply(inv, products[i - 1], zInv, tt);
+         }
+         Secp256k1Field.multiply(inv, p._z, inv, tt);
+         Secp256k1Field.square(zInv, zInv2, tt);
+         Secp256k1Field.multiply(p._x, zInv2, p._x, tt);
+         Secp256k1Field.multiply(zInv2, zInv, zInv2, tt);
+         Secp256k1Field.multiply(p._y, zInv2, p._y, tt);
+         Secp256k1Field.setOne(p._z);
+      }
+   }
+
+   /**
+    * Convert a number of points into affine coordinates using a single field
+    * inversion. The points are normalized in place.
+    */
+   static Point[] toAffine(JacobianPoint[] points) {
+      normalizeAll(points);
+      Point[] result = new Point[points.length];
+      for (int i = 0; i < points.length; i++) {
+         result[i] = points[i].isInfinity() ? Parameters.curve.getInfinity() : points[i].toPoint();
+      }
+      return result;
+   }
+
+   private Point toPoint() {
+      Curve curve = Parameters.curve;
+      return new Point(curve, curve.fromBigInteger(Secp256k1Field.toBigInteger(_x)),
+            curve.fromBigInteger(Secp256k1Field.toBigInteger(_y)));
+   }
+
+   void negate() {
+      if (!isInfinity()) {
+         Secp256k1Field.negate(_y, _y);
+      }
+   }
+
+   // dbl-2009-l, for curves where a = 0
+   void twice() {
+      if (isInfinity()) {
+         return;
+      }
+      if (Secp256k1Field.isZero(_y)) {
+         setInfinity();
+         return;
+      }
+
+      // A = X^2, B = Y^2, C = B^2
+      Secp256k1Field.square(_x, _t1, _tt);
+      Secp256k1Field.square(_y, _t2, _tt);
+      Secp256k1Field.square(_t2, _t3, _tt);
+
+      // D = 2 * ((X + B)^2 - A - C)
+      Secp256k1Field.add(_x, _t2, _t4);
+      Secp256k1Field.square(_t4, _t4, _tt);
+      Secp256k1Field.subtract(_t4, _t1, _t4);
+      Secp256k1Field.subtract(_t4, _t3, _t4);
+      Secp256k1Field.twice(_t4, _t4);
+
+      // E = 3 * A, F = E^2
+      Secp256k1Field.twice(_t1, _t5);
+      Secp256k1Field.add(_t5, _t1, _t5);
+      Secp256k1Field.square(_t5, _t6, _tt);
+
+      // Z3 = 2 * Y * Z
+      Secp256k1Field.multiply(_y, _z, _z, _tt);
+      Secp256k1Field.twice(_z, _z);
+
+      // X3 = F - 2 * D
+      Secp256k1Field.subtract(_t6, _t4, _x);
+      Secp256k1Field.subtract(_x, _t4, _x);
+
+      // Y3 = E * (D - X3) - 8 * C
+      Secp256k1Field.subtract(_t4, _x, _y);
+      Secp256k1Field.multiply(_t5, _y, _y, _tt);
+      Secp256k1Field.twice(_t3, _t3);
+      Secp256k1Field.twice(_t3, _t3);
+      Secp256k1Field.twice(_t3, _t3);
+      Secp256k1Field.subtract(_y, _t3, _y);
+   }
+
+   /**
+    * Add an affine point given as field limbs to this point (mixed addition,
+    * madd-2007-bl). This is cheaper than adding two Jacobian points since Z2 =
+    * 1.
+    */
+   void addAffine(int[] bx, int[] by) {
+      if (isInfinity()) {
+         setAffine(bx, by);
+         return;
+      }
+
+      // U2 = X2 * Z1^2, S2 = Y2 * Z1^3
+      Secp256k1Field.square(_z, _t1, _tt);
+      Secp256k1Field.multiply(bx, _t1, _t2, _tt);
+      Secp256k1Field.multiply(by, _z, _t3, _tt);
+      Secp256k1Field.multiply(_t3, _t1, _t3, _tt);
+
+      // H = U2 - X1, r = S2 - Y1
+      Secp256k1Field.subtract(_t2, _x, _t2);
+      Secp256k1Field.subtract(_t3, _y, _t3);
+
+      if (Secp256k1Field.isZero(_t2)) {
+         if (Secp256k1Field.isZero(_t3)) {
+            // this = b, i.e. this must be doubled
+            setAffine(bx, by);
+            twice();
+         } else {
+            // this = -b, i.e. the result is the point at infinity
+            setInfinity();
+         }
+         return;
+      }
+
+      // HH = H^2, HHH = H^3, V = X1 * HH
+      Secp256k1Field.square(_t2, _t4, _tt);
+      Secp256k1Field.multiply(_t4, _t2, _t5, _tt);
+      Secp256k1Field.multiply(_x, _t4, _t6, _tt);
+
+      // Z3 = Z1 * H
+      Secp256k1Field.multiply(_z, _t2, _z, _tt);
+
+      // X3 = r^2 - HHH - 2 * V
+      Secp256k1Field.square(_t3, _x, _tt);
+      Secp256k1Field.subtract(_x, _t5, _x);
+      Secp256k1Field.subtract(_x, _t6, _x);
+      Secp256k1Field.subtract(_x, _t6, _x);
+
+      // Y3 = r * (V - X3) - Y1 * HHH
+      Secp256k1Field.subtract(_t6, _x, _t6);
+      Secp256k1Field.multiply(_t3, _t6, _t6, _tt);
+      Secp256k1Field.multiply(_y, _t5, _t5, _tt);
+      Secp256k1Field.subtract(_t6, _t5, _y);
+   }
+
+   /**
+    * Add an affine point to this point
+    */
+   void add(Point b) {
+      if (b.isInfinity()) {
+         return;
+      }
+      addAffine(Secp256k1Field.fromBigInteger(b.getX().toBigInteger()),
+            Secp256k1Field.fromBigInteger(b.getY().toBigInteger()));
+   }
+
+   /**
+    * Add two Jacobian points (add-2007-bl without the Z1 = Z2 shortcut). b is
+    * not modified.
+    */
+   void add(JacobianPoint b) {
+      if (b.isInfinity()) {
+         return;
+      }
+      if (isInfinity()) {
+         set(b);
+         return;
+      }
+
+      // U1 = X1 * Z2^2, U2 = X2 * Z1^2
+      Secp256k1Field.square(_z, _t1, _tt);
+      Secp256k1Field.square(b._z, _t2, _tt);
+      Secp256k1Field.multiply(_x, _t2, _t3, _tt);
+      Secp256k1Field.multiply(b._x, _t1, _t4, _tt);
+
+      // S1 = Y1 * Z2^3, S2 = Y2 * Z1^3
+      Secp256k1Field.multiply(_y, b._z, _t5, _tt);
+      Secp256k1Field.multiply(_t5, _t2, _t5, _tt);
+      Secp256k1Field.multiply(b._y, _z, _t6, _tt);
+      Secp256k1Field.multiply(_t6, _t1, _t6, _tt);
+
+      // H = U2 - U1, r = S2 - S1
+      Secp256k1Field.subtract(_t4, _t3, _t4);
+      Secp256k1Field.subtract(_t6, _t5, _t6);
+
+      if (Secp256k1Field.isZero(_t4)) {
+         if (Secp256k1Field.isZero(_t6)) {
+            twice();
+         } else {
+            setInfinity();
+         }
+         return;
+      }
+
+      // HH = H^2, HHH = H^3, V = U1 * HH
+      Secp256k1Field.square(_t4, _t1, _tt);
+      Secp256k1Field.multiply(_t1, _t4, _t2, _tt);
+      Secp256k1Field.multiply(_t3, _t1, _t3, _tt);
+
+      // Z3 = Z1 * Z2 * H
+      Secp256k1Field.multiply(_z, b._z, _z, _tt);
+      Secp256k1Field.multiply(_z, _t4, _z, _tt);
+
+      // X3 = r^2 - HHH - 2 * V
+      Secp256k1Field.square(_t6, _x, _tt);
+      Secp256k1Field.subtract(_x, _t2, _x);
+      Secp256k1Field.subtract(_x, _t3, _x);
+      Secp256k1Field.subtract(_x, _t3, _x);
+
+      // Y3 = r * (V - X3) - S1 * HHH
+      Secp256k1Field.subtract(_t3, _x, _t3);
+      Secp256k1Field.multiply(_t6, _t3, _t3, _tt);
+      Secp256k1Field.multiply(_t5, _t2, _t5, _tt);
+      Secp256k1Field.subtract(_t3, _t5, _y);
+   }
+
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mrd.bitlib.crypto.ec;
+
+import java.math.BigInteger;
+
+/**
+ * Arithmetic in the secp256k1 prime field p = 2^256 - 2^32 - 977.
+ * <p>
+ * Field elements are represented as eight unsigned 32-bit limbs in an int[],
+ * least significant limb first, and are always fully reduced. All operations
+ * write their result into a caller supplied array, which may be one of the
+ * inputs, so that no objects are allocated. Multiplications need a 16 limb
+ * scratch array for the double width product.
+ * <p>
+ * Reduction uses the special form of p: 2^256 is congruent to 2^32 + 977, so
+ * the upper half of a product is folded into the lower half by multiplying it
+ * with 0x1000003D1.
+ */
+final class Secp256k1Field {
+
+   static final BigInteger P = new BigInteger(1, new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+         (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+         (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+         (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFE,
+         (byte) 0xFF, (byte) 0xFF, (byte) 0xFC, (byte) 0x2F });
+
+   static final int LIMBS = 8;
+
+   private static final long M = 0xFFFFFFFFL;
+   private static final int P0 = 0xFFFFFC2F;
+   private static final int P1 = 0xFFFFFFFE;
+   // 2^256 - p = 2^32 + 977
+   private static final long PINV_LOW = 977L;
+
+   private Secp256k1Field() {
+   }
+
+   static boolean isSecp256k1(BigInteger q) {
+      return P.equals(q);
+   }
+
+   static int[] create() {
+      return new int[LIMBS];
+   }
+
+   static int[] createWide() {
+      return new int[2 * LIMBS];
+   }
+
+   static int[] fromBigInteger(BigInteger x) {
+      int[] z = create();
+      fromBigInteger(x, z);
+      return z;
+   }
+
+   static void fromBigInteger(BigInteger x, int[] z) {
+      if (x.signum() < 0 || x.bitLength() > 256) {
+         throw new IllegalArgumentException("Value out of range for field element");
+      }
+      byte[] bytes = x.toByteArray();
+      for (int i = 0; i < LIMBS; i++) {
+         int limb = 0;
+         for (int b = 3; b >= 0; b--) {
+            int index = bytes.length - 1 - (i * 4 + b);
+            limb <<= 8;
+            if (index >= 0) {
+               limb |= bytes[index] & 0xFF;
+            }
+         }
+         z[i] = limb;
+      }
+      if (!lessThanP(z)) {
+         throw new IllegalArgumentException("x value too large in field element");
+      }
+   }
+
+   static BigInteger toBigInteger(int[] x) {
+      byte[] bytes = new byte[LIMBS * 4];
+      for (int i = 0; i < LIMBS; i++) {
+         int limb = x[LIMBS - 1 - i];
+         bytes[i * 4] = (byte) (limb >>> 24);
+         bytes[i * 4 + 1] = (byte) (limb >>> 16);
+         bytes[i * 4 + 2] = (byte) (limb >>> 8);
+         bytes[i * 4 + 3] = (byte) limb;
+      }
+      return new BigInteger(1, bytes);
+   }
+
+   static void copy(int[] x, int[] z) {
+      System.arraycopy(x, 0, z, 0, LIMBS);
+   }
+
+   static void setOne(int[] z) {
+      z[0] = 1;
+      for (int i = 1; i < LIMBS; i++) {
+         z[i] = 0;
+      }
+   }
+
+   static void setZero(int[] z) {
+      for (int i = 0; i < LIMBS; i++) {
+         z[i] = 0;
+      }
+   }
+
+   static boolean isZero(int[] x) {
+      int bits = 0;
+      for (int i = 0; i < LIMBS; i++) {
+         bits |= x[i];
+      }
+      return bits == 0;
+   }
+
+   static boolean areEqual(int[] x, int[] y) {
+      for (int i = 0; i < LIMBS; i++) {
+         if (x[i] != y[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * z = x + y mod p
+    */
+   static void add(int[] x, int[] y, int[] z) {
+      long c = 0;
+      for (int i = 0; i < LIMBS; i++) {
+         c += (x[i] & M) + (y[i] & M);
+         z[i] = (int) c;
+         c >>>= 32;
+      }
+      if (c != 0 || !lessThanP(z)) {
+         addPInv(z);
+      }
+   }
+
+   /**
+    * z = 2 * x mod p
+    */
+   static void twice(int[] x, int[] z) {
+      add(x, x, z);
+   }
+
+   /**
+    * z = x - y mod p
+    */
+   static void subtract(int[] x, int[] y, int[] z) {
+      long c = 0;
+      for (int i = 0; i < LIMBS; i++) {
+         c += (x[i] & M) - (y[i] & M);
+         z[i] = (int) c;
+         c >>= 32;
+      }
+      if (c != 0) {
+         // We borrowed, add p which is the same as subtracting 2^256 - p
+         subtractPInv(z);
+      }
+   }
+
+   /**
+    * z = -x mod p
+    */
+   static void negate(int[] x, int[] z) {
+      if (isZero(x)) {
+         setZero(z);
+         return;
+      }
+      long c = 0;
+      for (int i = 0; i < LIMBS; i++) {
+         c += pLimb(i) - (x[i] & M);
+         z[i] = (int) c;
+         c >>= 32;
+      }
+   }
+
+   /**
+    * z = x * y mod p, using tt as scratch space for the 512 bit product
+    */
+   static void multiply(int[] x, int[] y, int[] z, int[] tt) {
+      for (int i = 0; i < 2 * LIMBS; i++) {
+         tt[i] = 0;
+      }
+      for (int i = 0; i < LIMBS; i++) {
+         long xi = x[i] & M;
+         long c = 0;
+         for (int j = 0; j < LIMBS; j++) {
+            c += xi * (y[j] & M) + (tt[i + j] & M);
+            tt[i + j] = (int) c;
+            c >>>= 32;
+         }
+         tt[i + LIMBS] = (int) c;
+      }
+      reduce(tt, z);
+   }
+
+   /**
+    * z = x^2 mod p, using tt as scratch space for the 512 bit product
+    */
+   static void square(int[] x, int[] z, int[] tt) {
+      multiply(x, x, z, tt);
+   }
+
+   /**
+    * z = 1 / x mod p. x must not be zero.
+    * <p>
+    * BigInteger's binary extended Euclid is about three times faster than
+    * the 256 squarings and multiplications of x^(p-2) with these limbs, and
+    * it is only used once per scalar multiplication.
+    */
+   static void invert(int[] x, int[] z) {
+      fromBigInteger(toBigInteger(x).modInverse(P), z);
+   }
+
+   /**
+    * Reduce the 512 bit number in tt modulo p into z
+    */
+   static void reduce(int[] tt, int[] z) {
+      // tt = H * 2^256 + L is congruent to L + H * 977 + H * 2^32
+      long c = 0;
+      for (int i = 0; i < LIMBS; i++) {
+         c += (tt[i] & M) + (tt[i + LIMBS] & M) * PINV_LOW;
+         if (i > 0) {
+            c += tt[i + LIMBS - 1] & M;
+         }
+         z[i] = (int) c;
+         c >>>= 32;
+      }
+      // What is left is at most 34 bits and gets folded once more
+      long top = c + (tt[2 * LIMBS - 1] & M);
+      c = (z[0] & M) + top * PINV_LOW;
+      z[0] = (int) c;
+      c >>>= 32;
+      c += (z[1] & M) + top;
+      z[1] = (int) c;
+      c >>>= 32;
+      for (int i = 2; i < LIMBS && c != 0; i++) {
+         c += z[i] & M;
+         z[i] = (int) c;
+         c >>>= 32;
+      }
+      if (c != 0 || !lessThanP(z)) {
+         addPInv(z);
+      }
+   }
+
+   private static long pLimb(int i) {
+      switch (i) {
+      case 0:
+         return P0 & M;
+      case 1:
+         return P1 & M;
+      default:
+         return M;
+      }
+   }
+
+   private static boolean lessThanP(int[] x) {
+      for (int i = LIMBS - 1; i >= 2; i--) {
+         if (x[i] != -1) {
+            return true;
+         }
+      }
+      if ((x[1] & M) != (P1 & M)) {
+         return (x[1] & M) < (P1 & M);
+      }
+      return (x[0] & M) < (P0 & M);
+   }
+
+   /**
+    * z = z + 2^256 - p mod 2^256
+    */
+   private static void addPInv(int[] z) {
+      long c = (z[0] & M) + PINV_LOW;
+      z[0] = (int) c;
+      c >>>= 32;
+      c += (z[1] & M) + 1;
+      z[1] = (int) c;
+      c >>>= 32;
+      for (int i = 2; i < LIMBS && c != 0; i++) {
+         c += z[i] & M;
+         z[i] = (int) c;
+         c >>>= 32;
+      }
+   }
+
+   /**
+    * z = z - (2^256 - p) mod 2^256
+    */
+   private static void subtractPInv(int[] z) {
+      long c = (z[0] & M) - PINV_LOW;
+      z[0] = (int) c;
+      c >>= 32;
+      c += (z[1] & M) - 1;
+      z[1] = (int) c;
+      c >>= 32;
+      for (int i = 2; i < LIMBS && c != 0; i++) {
+         c += z[i] & M;
+         z[i] = (int) c;
+         c >>= 32;
+      }
+   }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mrd.bitlib.model;
+
+import com.mrd.bitlib.model.Transaction.TransactionParsingException;
+import com.mrd.bitlib.model.TransactionInput.TransactionInputParsingException;
+import com.mrd.bitlib.model.TransactionOutput.TransactionOutputParsingException;
+import com.mrd.bitlib.util.BitUtils;
+import com.mrd.bitlib.util.ByteReader;
+import com.mrd.bitlib.util.ByteReader.InsufficientBytesException;
+import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.Sha256Hash;
+
+/**
+ * A read-only view of a serialized transaction.
+ * <p/>
+ * Parsing only records where the inputs and outputs start. They are decoded when asked for, and the hash and size
+ * are taken from the original bytes instead of serializing the transaction again. The bytes are not copied, so they
+ * must not be modified while the view is in use.
+ */
+public class TransactionView {
+
+   // outpoint hash and index, script length of at least one byte, sequence
+   private static final int MIN_INPUT_SIZE = 32 + 4 + 1 + 4;
+   // value, script length of at least one byte
+   private static final int MIN_OUTPUT_SIZE = 8 + 1;
+
+   private final byte[] _buf;
+   private final int _size;
+   private final int _version;
+   private final int[] _inputOffsets;
+   private final int[] _outputOffsets;
+   private final int _lockTime;
+   private Sha256Hash _hash;
+
+   public static TransactionView fromBytes(byte[] transaction) throws TransactionParsingException {
+      ByteReader reader = new ByteReader(transaction);
+      try {
+         int version = reader.getIntLE();
+         int[] inputOffsets = new int[readCount(reader, MIN_INPUT_SIZE)];
+         for (int i = 0; i < inputOffsets.length; i++) {
+            inputOffsets[i] = reader.getPosition();
+            reader.skip(32 + 4);
+            skipScript(reader);
+            reader.skip(4);
+         }
+         int[] outputOffsets = new int[readCount(reader, MIN_OUTPUT_SIZE)];
+         for (int i = 0; i < outputOffsets.length; i++) {
+            outputOffsets[i] = reader.getPosition();
+            reader.skip(8);
+            skipScript(reader);
+         }
+         int lockTime = reader.getIntLE();
+         return new TransactionView(transaction, reader.getPosition(), version, inputOffsets, outputOffsets, lockTime);
+      } catch (InsufficientBytesException e) {
+         throw new TransactionParsingException("Unable to parse transaction: " + e.getMessage());
+      }
+   }
+
+   /**
+    * Read the number of inputs or outputs, and reject counts that the remaining bytes cannot hold before allocating
+    * anything for them
+    */
+   private static int readCount(ByteReader reader, int minItemSize) throws InsufficientBytesException,
+         TransactionParsingException {
+      long count = reader.getCompactInt();
+      if (count < 0 || count > reader.available() / minItemSize) {
+         throw new TransactionParsingException("Invalid number of inputs or outputs: " + count);
+      }
+      return (int) count;
+   }
+
+   private static void skipScript(ByteReader reader) throws InsufficientBytesException {
+      long scriptSize = reader.getCompactInt();
+      if (scriptSize < 0 || scriptSize > reader.available()) {
+         throw new InsufficientBytesException();
+      }
+      reader.skip((int) scriptSize);
+   }
+
+   private TransactionView(byte[] buf, int size, int version, int[] inputOffsets, int[] outputOffsets, int lockTime) {
+      _buf = buf;
+      _size = size;
+      _version = version;
+      _inputOffsets = inputOffsets;
+      _outputOffsets = outputOffsets;
+      _lockTime = lockTime;
+   }
+
+   public int getVersion() {
+      return _version;
+   }
+
+   public int getLockTime() {
+      return _lockTime;
+   }
+
+   public int getInputCount() {
+      return _inputOffsets.length;
+   }
+
+   public int getOutputCount() {
+      return _outputOffsets.length;
+   }
+
+   /**
+    * Get the outpoint spent by an input without decoding its script
+    */
+   public OutPoint getOutPoint(int index) {
+      int offset = _inputOffsets[index];
+      Sha256Hash hash = Sha256Hash.copyOf(_buf, offset).reverse();
+      return new OutPoint(hash, (int) BitUtils.uint32ToLong(_buf, offset + 32));
+   }
+
+   /**
+    * Decode an input. Unlike the outpoints, input scripts are not checked when the view is created, so this may
+    * fail.
+    */
+   public TransactionInput getInput(int index) throws TransactionParsingException {
+      try {
+         return TransactionInput.fromByteReader(new ByteReader(_buf, _inputOffsets[index]));
+      } catch (TransactionInputParsingException e) {
+         throw new TransactionParsingException("Unable to parse transaction input at index " + index + ": "
+               + e.getMessage(), e);
+      }
+   }
+
+   /**
+    * Get the value of an output without decoding its script
+    */
+   public long getOutputValue(int index) {
+      return BitUtils.uint64ToLong(_buf, _outputOffsets[index]);
+   }
+
+   public TransactionOutput getOutput(int index) {
+      try {
+         return TransactionOutput.fromByteReader(new ByteReader(_buf, _outputOffsets[index]));
+      } catch (TransactionOutputParsingException e) {
+         // This should never happen, the output has been measured when the view was created
+         throw new RuntimeException(e);
+      }
+   }
+
+   public boolean isCoinbase() {
+      for (int offset : _inputOffsets) {
+         if (isZeroHash(offset)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private boolean isZeroHash(int offset) {
+      for (int i = offset; i < offset + Sha256Hash.HASH_LENGTH; i++) {
+         if (_buf[i] != 0) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   public Sha256Hash getHash() {
+      if (_hash == null) {
+         _hash = HashUtils.doubleSha256(_buf, 0, _size).reverse();
+      }
+      return _hash;
+   }
+
+   public int getTxRawSize() {
+      return _size;
+   }
+
+   /**
+    * Get a copy of the bytes of this transaction
+    */
+   public byte[] toBytes() {
+      return BitUtils.copyOfRange(_buf, 0, _size);
+   }
+
+   /**
+    * Decode all inputs and outputs into a transaction
+    */
+   public Transaction toTransaction() throws TransactionParsingException {
+      return Transaction.fromBytes(toBytes());
+   }
+
+   @Override
+   public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(getHash()).append(" in: ").append(getInputCount()).append(" out: ").append(getOutputCount());
+      return sb.toString();
+   }
+
+}
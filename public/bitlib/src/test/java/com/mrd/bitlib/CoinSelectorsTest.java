@@ -0,0 +1,175 @@
+package com.mrd.bitlib;
+
+import com.mrd.bitlib.StandardTransactionBuilder.InsufficientFundsException;
+import com.mrd.bitlib.crypto.InMemoryPrivateKey;
+import com.mrd.bitlib.crypto.PublicKeyRing;
+import com.mrd.bitlib.model.Address;
+import com.mrd.bitlib.model.NetworkParameters;
+import com.mrd.bitlib.model.OutPoint;
+import com.mrd.bitlib.model.ScriptOutputP2SH;
+import com.mrd.bitlib.model.ScriptOutputStandard;
+import com.mrd.bitlib.model.UnspentTransactionOutput;
+import com.mrd.bitlib.util.HashUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CoinSelectorsTest {
+
+   private static final long FEE = TransactionUtils.DEFAULT_KB_FEE;
+
+   private static UnspentTransactionOutput output(int i, int height, long value) {
+      OutPoint outPoint = new OutPoint(HashUtils.sha256(new byte[]{(byte) i, (byte) (i >> 8), (byte) (i >> 16)}), 0);
+      return new UnspentTransactionOutput(outPoint, height, value, new ScriptOutputStandard(new byte[20]));
+   }
+
+   private static long sum(List<UnspentTransactionOutput> outputs) {
+      long sum = 0;
+      for (UnspentTransactionOutput output : outputs) {
+         sum += output.value;
+      }
+      return sum;
+   }
+
+   @Test
+   public void indexSkipsNonStandardAndOrdersOutputs() {
+      List<UnspentTransactionOutput> unspent = new ArrayList<UnspentTransactionOutput>();
+      unspent.add(output(1, -1, 500000));
+      unspent.add(output(2, 300, 100000));
+      unspent.add(output(3, 100, 200000));
+      unspent.add(new UnspentTransactionOutput(new OutPoint(HashUtils.sha256(new byte[]{4}), 0), 50, 900000,
+            new ScriptOutputP2SH(new byte[20])));
+      UnspentOutputIndex index = new UnspentOutputIndex(unspent);
+      assertEquals(3, index.size());
+      assertEquals(800000, index.getSum());
+      assertEquals(100, index.getOldestFirst().get(0).height);
+      assertEquals(-1, index.getOldestFirst().get(2).height);
+      assertEquals(500000, index.getLargestFirst().get(0).value);
+   }
+
+   @Test
+   public void oldestFirstPrunesRedundantOutputs() throws Exception {
+      List<UnspentTransactionOutput> unspent = new ArrayList<UnspentTransactionOutput>();
+      unspent.add(output(1, 10, 10000));
+      unspent.add(output(2, 20, 1000000));
+      unspent.add(output(3, 30, 5000000));
+      List<UnspentTransactionOutput> funding = CoinSelectors.oldestFirst().select(new UnspentOutputIndex(unspent),
+            500000, 1, FEE);
+      // The two oldest are enough, and the large one alone covers the amount
+      assertEquals(1, funding.size());
+      assertEquals(1000000, funding.get(0).value);
+   }
+
+   @Test
+   public void largestFirstUsesFewestOutputs() throws Exception {
+      List<UnspentTransactionOutput> unspent = new ArrayList<UnspentTransactionOutput>();
+      for (int i = 0; i < 10; i++) {
+         unspent.add(output(i, 10 + i, 100000));
+      }
+      unspent.add(output(10, 1000, 900000));
+      List<UnspentTransactionOutput> funding = CoinSelectors.largestFirst().select(new UnspentOutputIndex(unspent),
+            950000, 1, FEE);
+      assertEquals(2, funding.size());
+      assertEquals(900000, funding.get(0).value);
+   }
+
+   @Test
+   public void branchAndBoundAvoidsChange() throws Exception {
+      List<UnspentTransactionOutput> unspent = new ArrayList<UnspentTransactionOutput>();
+      unspent.add(output(1, 10, 700000));
+      unspent.add(output(2, 20, 400000));
+      unspent.add(output(3, 30, 330000));
+      unspent.add(output(4, 40, 250000));
+      long outputSum = 400000 + 250000 - StandardTransactionBuilder.estimateFee(2, 2, FEE);
+      List<UnspentTransactionOutput> funding = CoinSelectors.branchAndBound(CoinSelectors.largestFirst())
+            .select(new UnspentOutputIndex(unspent), outputSum, 1, FEE);
+      long excess = sum(funding) - outputSum - StandardTransactionBuilder.estimateFee(funding.size(), 2, FEE);
+      assertTrue(excess >= 0 && excess < TransactionUtils.MINIMUM_OUTPUT_VALUE);
+
+      // Without an exact match the fallback is used
+      funding = CoinSelectors.branchAndBound(CoinSelectors.largestFirst())
+            .select(new UnspentOutputIndex(unspent), 100000, 1, FEE);
+      assertEquals(1, funding.size());
+      assertEquals(700000, funding.get(0).value);
+   }
+
+   @Test
+   public void insufficientFunds() {
+      List<UnspentTransactionOutput> unspent = new ArrayList<UnspentTransactionOutput>();
+      unspent.add(output(1, 10, 100000));
+      CoinSelector[] selectors = new CoinSelector[]{CoinSelectors.oldestFirst(), CoinSelectors.largestFirst(),
+            CoinSelectors.branchAndBound(CoinSelectors.oldestFirst())};
+      for (CoinSelector selector : selectors) {
+         try {
+            selector.select(new UnspentOutputIndex(unspent), 100000, 1, FEE);
+            fail("Expected insufficient funds");
+         } catch (InsufficientFundsException e) {
+            // expected
+         }
+      }
+   }
+
+   @Test
+   public void manyOutputs() throws Exception {
+      Random random = new Random(42);
+      List<UnspentTransactionOutput> unspent = new ArrayList<UnspentTransactionOutput>();
+      for (int i = 0; i < 100000; i++) {
+         unspent.add(output(i, random.nextInt(300000) + 1, 10000 + random.nextInt(1000000)));
+      }
+      UnspentOutputIndex index = new UnspentOutputIndex(unspent);
+      long outputSum = 5000000;
+      CoinSelector[] selectors = new CoinSelector[]{CoinSelectors.oldestFirst(), CoinSelectors.largestFirst(),
+            CoinSelectors.branchAndBound(CoinSelectors.oldestFirst())};
+      for (CoinSelector selector : selectors) {
+         List<UnspentTransactionOutput> funding = selector.select(index, outputSum, 1, FEE);
+         assertTrue(sum(funding) >= outputSum + StandardTransactionBuilder.estimateFee(funding.size(), 2, FEE));
+      }
+   }
+
+   @Test
+   public void maxSpendableAgreesWithBuilder() throws Exception {
+      List<UnspentTransactionOutput> unspent = new ArrayList<UnspentTransactionOutput>();
+      Random random = new Random(7);
+      for (int i = 0; i < 40; i++) {
+         unspent.add(output(i, 10 + i, 10000 + random.nextInt(1000000)));
+      }
+      UnspentOutputIndex index = new UnspentOutputIndex(unspent);
+      long max = StandardTransactionBuilder.calculateMaxSpendable(index, FEE);
+      assertTrue(max > 0);
+      // All test outputs pay to the same address
+      PublicKeyRing keyRing = new PublicKeyRing();
+      keyRing.addPublicKey(new InMemoryPrivateKey(HashUtils.sha256(new byte[]{1}), true).getPublicKey(),
+            unspent.get(0).script.getAddress(NetworkParameters.testNetwork));
+
+      StandardTransactionBuilder builder = new StandardTransactionBuilder(NetworkParameters.testNetwork);
+      builder.addOutput(Address.getNullAddress(NetworkParameters.testNetwork), max);
+      builder.createUnsignedTransaction(index, null, keyRing, NetworkParameters.testNetwork, FEE,
+            CoinSelectors.oldestFirst());
+
+      StandardTransactionBuilder tooMuch = new StandardTransactionBuilder(NetworkParameters.testNetwork);
+      tooMuch.addOutput(Address.getNullAddress(NetworkParameters.testNetwork), max + 1);
+      try {
+         tooMuch.createUnsignedTransaction(index, null, keyRing, NetworkParameters.testNetwork, FEE,
+               CoinSelectors.oldestFirst());
+         fail();
+      } catch (InsufficientFundsException e) {
+         // expected
+      }
+   }
+
+   @Test
+   public void maxSpendableOfDustIsZero() {
+      List<UnspentTransactionOutput> unspent = new ArrayList<UnspentTransactionOutput>();
+      unspent.add(output(1, 10, FEE));
+      assertEquals(0, StandardTransactionBuilder.calculateMaxSpendable(new UnspentOutputIndex(unspent), FEE));
+      assertEquals(0, StandardTransactionBuilder.calculateMaxSpendable(
+            new UnspentOutputIndex(new ArrayList<UnspentTransactionOutput>()), FEE));
+   }
+
+}
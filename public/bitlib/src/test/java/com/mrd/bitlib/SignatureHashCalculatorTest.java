@@ -0,0 +1,74 @@
+package com.mrd.bitlib;
+
+import com.mrd.bitlib.model.OutPoint;
+import com.mrd.bitlib.model.ScriptInput;
+import com.mrd.bitlib.model.ScriptOutput;
+import com.mrd.bitlib.model.ScriptOutputStandard;
+import com.mrd.bitlib.model.Transaction;
+import com.mrd.bitlib.model.TransactionInput;
+import com.mrd.bitlib.model.TransactionOutput;
+import com.mrd.bitlib.util.ByteWriter;
+import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.Sha256Hash;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SignatureHashCalculatorTest {
+
+   private static ScriptOutput script(int i) {
+      return new ScriptOutputStandard(HashUtils.addressHash(new byte[]{(byte) i}));
+   }
+
+   private static Transaction createTransaction(int inputCount) {
+      TransactionInput[] inputs = new TransactionInput[inputCount];
+      for (int i = 0; i < inputCount; i++) {
+         OutPoint outPoint = new OutPoint(HashUtils.sha256(new byte[]{(byte) i}), i % 3);
+         inputs[i] = new TransactionInput(outPoint, ScriptInput.EMPTY, i % 2 == 0 ? -1 : i);
+      }
+      TransactionOutput[] outputs = new TransactionOutput[]{
+            new TransactionOutput(100000, script(1)), new TransactionOutput(5460, script(2))};
+      return new Transaction(1, inputs, outputs, 0);
+   }
+
+   /**
+    * Calculate the hash by serializing the whole transaction with the input
+    * script set to the funding script
+    */
+   private static Sha256Hash referenceHash(Transaction tx, int inputIndex, ScriptOutput connectedScript) {
+      TransactionInput[] inputs = new TransactionInput[tx.inputs.length];
+      for (int i = 0; i < inputs.length; i++) {
+         ScriptInput script = i == inputIndex ? ScriptInput.fromOutputScript(connectedScript) : ScriptInput.EMPTY;
+         inputs[i] = new TransactionInput(tx.inputs[i].outPoint, script, tx.inputs[i].sequence);
+      }
+      ByteWriter writer = new ByteWriter(1024);
+      new Transaction(tx.version, inputs, tx.outputs, tx.lockTime).toByteWriter(writer);
+      writer.putIntLE(TransactionUtils.SIGHASH_ALL);
+      return HashUtils.doubleSha256(writer.toBytes());
+   }
+
+   @Test
+   public void hashesMatchFullSerialization() {
+      Transaction tx = createTransaction(7);
+      SignatureHashCalculator calculator = new SignatureHashCalculator(tx);
+      for (int i = 0; i < tx.inputs.length; i++) {
+         assertEquals(referenceHash(tx, i, script(i)), calculator.getHash(i, script(i)));
+      }
+   }
+
+   @Test
+   public void hashesInAnyOrder() {
+      Transaction tx = createTransaction(300);
+      SignatureHashCalculator calculator = new SignatureHashCalculator(tx);
+      int[] order = new int[]{299, 0, 150, 150, 3, 2, 298};
+      for (int i : order) {
+         assertEquals(referenceHash(tx, i, script(i)), calculator.getHash(i, script(i)));
+      }
+   }
+
+   @Test(expected = IndexOutOfBoundsException.class)
+   public void rejectsInvalidInputIndex() {
+      new SignatureHashCalculator(createTransaction(2)).getHash(2, script(0));
+   }
+
+}
@@ -35,16 +35,36 @@
 package com.mrd.bitlib;
 
 import com.google.common.collect.ImmutableList;
+import com.mrd.bitlib.StandardTransactionBuilder.UnsignedTransaction;
+import com.mrd.bitlib.crypto.BitcoinSigner;
+import com.mrd.bitlib.crypto.IPrivateKeyRing;
+import com.mrd.bitlib.crypto.InMemoryPrivateKey;
+import com.mrd.bitlib.crypto.PrivateKeyRing;
+import com.mrd.bitlib.crypto.PublicKey;
+import com.mrd.bitlib.crypto.PublicKeyRing;
+import com.mrd.bitlib.crypto.Signatures;
+import com.mrd.bitlib.crypto.VerificationRequest;
 import com.mrd.bitlib.model.Address;
 import com.mrd.bitlib.model.NetworkParameters;
 import com.mrd.bitlib.model.OutPoint;
+import com.mrd.bitlib.model.ScriptInputStandard;
 import com.mrd.bitlib.model.ScriptOutputStandard;
+import com.mrd.bitlib.model.Transaction;
 import com.mrd.bitlib.model.UnspentTransactionOutput;
+import com.mrd.bitlib.util.HashUtils;
 import com.mrd.bitlib.util.Sha256Hash;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * a programmer
@@ -84,5 +104,73 @@ public class StandardTransactionBuilderTest {
       assertEquals(addr2,address);
    }
 
+   @Test
+   public void testSignatureHashOfSignedTransaction() throws Exception {
+      InMemoryPrivateKey key = new InMemoryPrivateKey(HashUtils.sha256(new byte[]{1}), true);
+      Address addr = key.getPublicKey().toAddress(network);
+      PublicKeyRing publicKeyRing = new PublicKeyRing();
+      publicKeyRing.addPublicKey(key.getPublicKey(), network);
+      PrivateKeyRing privateKeyRing = new PrivateKeyRing();
+      privateKeyRing.addPrivateKey(key, network);
+      ScriptOutputStandard script = new ScriptOutputStandard(addr.getTypeSpecificBytes());
+      List<UnspentTransactionOutput> inventory = ImmutableList.of(
+            new UnspentTransactionOutput(new OutPoint(HashUtils.sha256(new byte[]{2}), 0), 10, 100000, script),
+            new UnspentTransactionOutput(new OutPoint(HashUtils.sha256(new byte[]{3}), 1), 11, 100000, script));
+      testme.addOutput(Address.fromString("mnZj5DJuSNbc3wppJnbihnsyq6mfWfnTrT"), 150000);
+      UnsignedTransaction unsigned = testme.createUnsignedTransaction(inventory, addr, publicKeyRing, network,
+            TransactionUtils.DEFAULT_KB_FEE);
+      Transaction tx = StandardTransactionBuilder.finalizeTransaction(unsigned,
+            StandardTransactionBuilder.generateSignatures(unsigned.getSignatureInfo(), privateKeyRing));
+
+      List<VerificationRequest> requests = new ArrayList<VerificationRequest>();
+      for (int i = 0; i < tx.inputs.length; i++) {
+         Sha256Hash hash = TransactionUtils.calculateSignatureHashAll(tx, i, unsigned.getFundingOutputs()[i].script);
+         assertEquals(unsigned.getSignatureInfo()[i].toSign, hash);
+         ScriptInputStandard input = (ScriptInputStandard) tx.inputs[i].script;
+         requests.add(new VerificationRequest(hash, input.getSignature(), key.getPublicKey()));
+      }
+      boolean[] results = Signatures.verifyBatch(requests);
+      assertEquals(2, results.length);
+      assertTrue(results[0] && results[1]);
+   }
+
+   @Test
+   public void testParallelSignatureGeneration() throws Exception {
+      InMemoryPrivateKey key1 = new InMemoryPrivateKey(HashUtils.sha256(new byte[]{1}), true);
+      InMemoryPrivateKey key2 = new InMemoryPrivateKey(HashUtils.sha256(new byte[]{2}), false);
+      final PrivateKeyRing privateKeyRing = new PrivateKeyRing();
+      privateKeyRing.addPrivateKey(key1, network);
+      privateKeyRing.addPrivateKey(key2, network);
+      final List<PublicKey> lookups = new ArrayList<PublicKey>();
+      IPrivateKeyRing countingKeyRing = new IPrivateKeyRing() {
+         @Override
+         public BitcoinSigner findSignerByPublicKey(PublicKey publicKey) {
+            lookups.add(publicKey);
+            return privateKeyRing.findSignerByPublicKey(publicKey);
+         }
+      };
+
+      StandardTransactionBuilder.SigningRequest[] requests = new StandardTransactionBuilder.SigningRequest[20];
+      for (int i = 0; i < requests.length; i++) {
+         PublicKey publicKey = i % 3 == 0 ? key2.getPublicKey() : key1.getPublicKey();
+         requests[i] = new StandardTransactionBuilder.SigningRequest(publicKey, HashUtils.sha256(new byte[]{(byte) i}));
+      }
+
+      List<byte[]> expected = StandardTransactionBuilder.generateSignatures(requests, privateKeyRing);
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      List<byte[]> signatures;
+      try {
+         signatures = StandardTransactionBuilder.generateSignatures(requests, countingKeyRing, executor);
+      } finally {
+         executor.shutdown();
+      }
+      assertEquals(requests.length, signatures.size());
+      for (int i = 0; i < requests.length; i++) {
+         assertTrue(Arrays.equals(expected.get(i), signatures.get(i)));
+      }
+      // One lookup for each distinct key
+      assertEquals(2, lookups.size());
+      assertFalse(lookups.get(0).equals(lookups.get(1)));
+   }
 
 }
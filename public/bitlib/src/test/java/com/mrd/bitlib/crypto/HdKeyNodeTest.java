@@ -1,5 +1,9 @@
 package com.mrd.bitlib.crypto;
 
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import junit.framework.Assert;
 
 import org.junit.Test;
@@ -294,4 +298,34 @@ public class HdKeyNodeTest {
       }
    }
 
+   @Test
+   public void childPublicKeyRangeTest() throws KeyGenerationException {
+      HdKeyNode root = HdKeyNode.fromSeed(TV1_MASTER_SEED);
+      HdKeyNode account = root.createHardenedChildNode(0).createChildNode(1);
+      HdKeyNode publicAccount = account.getPublicNode();
+
+      List<PublicKey> keys = publicAccount.createChildPublicKeys(5, 40);
+      Assert.assertEquals(40, keys.size());
+      for (int i = 0; i < keys.size(); i++) {
+         Assert.assertEquals(account.createChildPublicKey(5 + i), keys.get(i));
+         Assert.assertEquals(HexUtils.toHex(publicAccount.createChildPublicKey(5 + i).getPublicKeyBytes()),
+               HexUtils.toHex(keys.get(i).getPublicKeyBytes()));
+      }
+      // A private node derives the same public keys
+      Assert.assertEquals(keys, account.createChildPublicKeys(5, 40));
+
+      ExecutorService executor = Executors.newFixedThreadPool(3);
+      try {
+         Assert.assertEquals(keys, publicAccount.createChildPublicKeys(5, 40, executor));
+      } finally {
+         executor.shutdown();
+      }
+      Assert.assertTrue(publicAccount.createChildPublicKeys(7, 0).isEmpty());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void childPublicKeyRangeRejectsHardenedIndexes() throws KeyGenerationException {
+      HdKeyNode.fromSeed(TV1_MASTER_SEED).getPublicNode().createChildPublicKeys(Integer.MAX_VALUE - 1, 3);
+   }
+
 }
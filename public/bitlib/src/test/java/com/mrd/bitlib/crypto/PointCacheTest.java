@@ -0,0 +1,64 @@
+package com.mrd.bitlib.crypto;
+
+import com.mrd.bitlib.crypto.ec.Parameters;
+import com.mrd.bitlib.crypto.ec.Point;
+import com.mrd.bitlib.util.HashUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class PointCacheTest {
+
+   @Test
+   public void decodeIsCachedByEncoding() {
+      byte[] encoded = new InMemoryPrivateKey(HashUtils.sha256(new byte[]{42}), true).getPublicKey()
+            .getPublicKeyBytes();
+      PointCache.clear();
+      long hits = PointCache.getHitCount();
+      long misses = PointCache.getMissCount();
+
+      Point first = PointCache.decode(encoded);
+      assertEquals(Parameters.curve.decodePoint(encoded), first);
+      assertEquals(misses + 1, PointCache.getMissCount());
+
+      // An equal encoding in a different array finds the same point
+      Point second = PointCache.decode(encoded.clone());
+      assertSame(first, second);
+      assertEquals(hits + 1, PointCache.getHitCount());
+
+      // Public keys go through the cache as well
+      assertSame(first, new PublicKey(encoded.clone()).getQ());
+      assertEquals(hits + 2, PointCache.getHitCount());
+   }
+
+   @Test
+   public void modifyingTheDecodedArrayDoesNotAffectTheCache() {
+      byte[] encoded = new InMemoryPrivateKey(HashUtils.sha256(new byte[]{43}), true).getPublicKey()
+            .getPublicKeyBytes();
+      byte[] original = encoded.clone();
+      PointCache.clear();
+      Point point = PointCache.decode(encoded);
+
+      // Once the caller reuses its array, the cached entry is still found by the original encoding
+      encoded[1] ^= 0x01;
+      long hits = PointCache.getHitCount();
+      assertSame(point, PointCache.decode(original));
+      assertEquals(hits + 1, PointCache.getHitCount());
+   }
+
+   @Test
+   public void invalidEncodingIsNotCached() {
+      byte[] encoded = new byte[]{0x05, 0x01};
+      for (int i = 0; i < 2; i++) {
+         try {
+            PointCache.decode(encoded);
+            fail("invalid encoding was decoded");
+         } catch (RuntimeException e) {
+            // expected
+         }
+      }
+   }
+
+}
@@ -0,0 +1,81 @@
+package com.mrd.bitlib.crypto;
+
+import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.Sha256Hash;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+
+public class SignaturesTest {
+
+   private static InMemoryPrivateKey key(int i, boolean compressed) {
+      return new InMemoryPrivateKey(HashUtils.sha256(new byte[]{(byte) i}), compressed);
+   }
+
+   private static Sha256Hash hash(int i) {
+      return HashUtils.sha256(new byte[]{(byte) i, 1});
+   }
+
+   /**
+    * Create requests from a few keys with every third signature made over the
+    * wrong hash
+    */
+   private static List<VerificationRequest> createRequests(int count, boolean[] expected) {
+      InMemoryPrivateKey[] keys = new InMemoryPrivateKey[]{key(1, true), key(2, false), key(3, true)};
+      List<VerificationRequest> requests = new ArrayList<VerificationRequest>();
+      for (int i = 0; i < count; i++) {
+         InMemoryPrivateKey key = keys[i % keys.length];
+         byte[] signature = key.makeStandardBitcoinSignature(hash(i));
+         boolean valid = i % 3 != 2;
+         Sha256Hash signed = valid ? hash(i) : hash(i + 1);
+         requests.add(new VerificationRequest(signed, signature, key.getPublicKey()));
+         expected[i] = valid;
+      }
+      return requests;
+   }
+
+   @Test
+   public void verifyBatchMatchesSingleVerification() {
+      boolean[] expected = new boolean[20];
+      List<VerificationRequest> requests = createRequests(20, expected);
+      boolean[] result = Signatures.verifyBatch(requests);
+      assertEquals(Arrays.toString(expected), Arrays.toString(result));
+      for (int i = 0; i < requests.size(); i++) {
+         VerificationRequest request = requests.get(i);
+         assertEquals(expected[i], request.publicKey.verifyDerEncodedSignature(request.hash, request.signature));
+      }
+   }
+
+   @Test
+   public void verifyBatchWithExecutor() {
+      boolean[] expected = new boolean[150];
+      List<VerificationRequest> requests = createRequests(150, expected);
+      ExecutorService executor = Executors.newFixedThreadPool(3);
+      try {
+         assertEquals(Arrays.toString(expected), Arrays.toString(Signatures.verifyBatch(requests, executor)));
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   @Test
+   public void verifyBatchRejectsMalformedInput() {
+      InMemoryPrivateKey key = key(4, true);
+      byte[] signature = key.makeStandardBitcoinSignature(hash(0));
+      List<VerificationRequest> requests = new ArrayList<VerificationRequest>();
+      requests.add(new VerificationRequest(hash(0), signature, key.getPublicKey()));
+      requests.add(new VerificationRequest(hash(0), new byte[]{0x30, 0x00}, key.getPublicKey()));
+      requests.add(new VerificationRequest(hash(0), signature, new PublicKey(new byte[]{0x02, 0x01})));
+      requests.add(new VerificationRequest(hash(0), signature, key(5, true).getPublicKey()));
+      boolean[] result = Signatures.verifyBatch(requests);
+      assertEquals(Arrays.toString(new boolean[]{true, false, false, false}), Arrays.toString(result));
+      assertEquals(0, Signatures.verifyBatch(new ArrayList<VerificationRequest>()).length);
+   }
+
+}
@@ -0,0 +1,77 @@
+package com.mrd.bitlib.crypto.ec;
+
+import com.mrd.bitlib.util.HexUtils;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EcToolsTest {
+
+   private static final String G2 = "04"
+         + "C6047F9441ED7D6D3045406E95C07CD85C778E4B8CEF3CA7ABAC09B95C709EE5"
+         + "1AE168FEA63DC339A3C58419466CEAEEF7F632653266D0E1236431A950CFE52A";
+   private static final String G3 = "04"
+         + "F9308A019258C31049344F85F89D5229B531C845836F99B08601F113BCE036F9"
+         + "388F7B0F632DE8140FE337E62A37F3566500A99934C2231B6CB9FD7584B8E672";
+
+   @Test
+   public void multiplySmallScalars() {
+      assertEquals(Parameters.G, EcTools.multiply(Parameters.G, BigInteger.ONE));
+      assertEquals(Parameters.curve.decodePoint(HexUtils.toBytes(G2)), EcTools.multiply(Parameters.G, BigInteger.valueOf(2)));
+      assertEquals(Parameters.curve.decodePoint(HexUtils.toBytes(G3)), EcTools.multiply(Parameters.G, BigInteger.valueOf(3)));
+   }
+
+   @Test
+   public void multiplyByOrderIsInfinity() {
+      assertTrue(EcTools.multiply(Parameters.G, Parameters.n).isInfinity());
+      assertTrue(EcTools.multiply(Parameters.G, BigInteger.ZERO).isInfinity());
+      assertEquals(Parameters.G.negate(), EcTools.multiply(Parameters.G, Parameters.n.subtract(BigInteger.ONE)));
+   }
+
+   @Test
+   public void multiplyMatchesRepeatedAffineAddition() {
+      Point expected = Parameters.G;
+      for (int i = 2; i < 40; i++) {
+         expected = expected.add(Parameters.G);
+         assertEquals(expected, EcTools.multiply(Parameters.G, BigInteger.valueOf(i)));
+      }
+   }
+
+   @Test
+   public void generatorTableMatchesGenericMultiply() {
+      Random random = new Random(7);
+      for (int i = 0; i < 20; i++) {
+         BigInteger k = new BigInteger(256, random).mod(Parameters.n);
+         // sumOfTwoMultiplies does not use the generator table
+         Point expected = EcTools.sumOfTwoMultiplies(Parameters.G, k, Parameters.G, BigInteger.ZERO);
+         assertEquals(expected, EcTools.multiply(Parameters.G, k));
+      }
+      // Scalars outside [0, n) are reduced modulo n
+      assertEquals(Parameters.G, EcTools.multiply(Parameters.G, Parameters.n.add(BigInteger.ONE)));
+      assertEquals(Parameters.G.negate(), EcTools.multiply(Parameters.G, BigInteger.ONE.negate()));
+   }
+
+   @Test
+   public void sumOfTwoMultipliesMatchesSeparateMultiplies() {
+      Random random = new Random(42);
+      Point q = EcTools.multiply(Parameters.G, new BigInteger(256, random).mod(Parameters.n));
+      for (int i = 0; i < 20; i++) {
+         BigInteger k = new BigInteger(256, random).mod(Parameters.n);
+         BigInteger l = new BigInteger(256, random).mod(Parameters.n);
+         Point expected = EcTools.multiply(Parameters.G, k).add(EcTools.multiply(q, l));
+         assertEquals(expected, EcTools.sumOfTwoMultiplies(Parameters.G, k, q, l));
+      }
+   }
+
+   @Test
+   public void sumOfTwoMultipliesCancellingToInfinity() {
+      BigInteger k = BigInteger.valueOf(123456789);
+      Point q = EcTools.multiply(Parameters.G, k);
+      assertTrue(EcTools.sumOfTwoMultiplies(Parameters.G, Parameters.n.subtract(k), q, BigInteger.ONE).isInfinity());
+   }
+
+}
@@ -0,0 +1,66 @@
+package com.mrd.bitlib.crypto.ec;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GlvMultiplierTest {
+
+   @Test
+   public void decomposedScalarsAreShortAndRecombine() {
+      Random random = new Random(3);
+      for (int i = 0; i < 100; i++) {
+         BigInteger k = new BigInteger(256, random).mod(Parameters.n);
+         BigInteger[] split = GlvMultiplier.decomposeScalar(k);
+         assertTrue(split[0].bitLength() <= 129);
+         assertTrue(split[1].bitLength() <= 129);
+         assertEquals(k, split[0].add(split[1].multiply(GlvMultiplier.LAMBDA)).mod(Parameters.n));
+      }
+   }
+
+   @Test
+   public void wnafRecombines() {
+      Random random = new Random(4);
+      for (int i = 0; i < 100; i++) {
+         BigInteger k = new BigInteger(130, random);
+         if (i % 2 == 1) {
+            k = k.negate();
+         }
+         int[] naf = GlvMultiplier.wnaf(k, 5);
+         BigInteger sum = BigInteger.ZERO;
+         for (int j = naf.length - 1; j >= 0; j--) {
+            assertTrue(naf[j] == 0 || (Math.abs(naf[j]) % 2 == 1 && Math.abs(naf[j]) < 16));
+            sum = sum.shiftLeft(1).add(BigInteger.valueOf(naf[j]));
+         }
+         assertEquals(k, sum);
+      }
+   }
+
+   @Test
+   public void matchesShamirsTrick() {
+      Random random = new Random(5);
+      for (int i = 0; i < 20; i++) {
+         Point q = EcTools.multiply(Parameters.G, new BigInteger(256, random).mod(Parameters.n));
+         BigInteger u1 = new BigInteger(256, random).mod(Parameters.n);
+         BigInteger u2 = new BigInteger(256, random).mod(Parameters.n);
+         // With G as second argument EcTools uses the generic algorithm
+         Point expected = EcTools.sumOfTwoMultiplies(q, u2, Parameters.G, u1);
+         assertEquals(expected, GlvMultiplier.sumOfTwoMultipliesWithG(u1, q, u2));
+      }
+   }
+
+   @Test
+   public void rejectsUnsuitableArguments() {
+      Point q = EcTools.multiply(Parameters.G, BigInteger.valueOf(5));
+      assertNull(GlvMultiplier.sumOfTwoMultipliesWithG(Parameters.n, q, BigInteger.ONE));
+      assertNull(GlvMultiplier.sumOfTwoMultipliesWithG(BigInteger.ONE, q, BigInteger.ONE.negate()));
+      Point offCurve = Parameters.curve.createPoint(q.getX().toBigInteger(), BigInteger.ONE, false);
+      assertNull(GlvMultiplier.sumOfTwoMultipliesWithG(BigInteger.ONE, offCurve, BigInteger.ONE));
+   }
+
+}
@@ -0,0 +1,80 @@
+package com.mrd.bitlib.crypto.ec;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class Secp256k1FieldTest {
+
+   private static final BigInteger P = Secp256k1Field.P;
+
+   private static List<BigInteger> testValues() {
+      List<BigInteger> values = new ArrayList<BigInteger>();
+      values.add(BigInteger.ZERO);
+      values.add(BigInteger.ONE);
+      values.add(BigInteger.valueOf(2));
+      values.add(P.subtract(BigInteger.ONE));
+      values.add(P.subtract(BigInteger.valueOf(2)));
+      values.add(BigInteger.ONE.shiftLeft(255));
+      values.add(BigInteger.ONE.shiftLeft(32).add(BigInteger.valueOf(977)));
+      values.add(P.shiftRight(1));
+      Random random = new Random(1);
+      for (int i = 0; i < 40; i++) {
+         values.add(new BigInteger(256, random).mod(P));
+      }
+      return values;
+   }
+
+   @Test
+   public void roundTrip() {
+      for (BigInteger x : testValues()) {
+         assertEquals(x, Secp256k1Field.toBigInteger(Secp256k1Field.fromBigInteger(x)));
+      }
+   }
+
+   @Test
+   public void arithmeticMatchesBigInteger() {
+      List<BigInteger> values = testValues();
+      int[] z = Secp256k1Field.create();
+      int[] tt = Secp256k1Field.createWide();
+      for (BigInteger a : values) {
+         int[] x = Secp256k1Field.fromBigInteger(a);
+         Secp256k1Field.negate(x, z);
+         assertEquals(a.negate().mod(P), Secp256k1Field.toBigInteger(z));
+         Secp256k1Field.square(x, z, tt);
+         assertEquals(a.multiply(a).mod(P), Secp256k1Field.toBigInteger(z));
+         for (BigInteger b : values) {
+            int[] y = Secp256k1Field.fromBigInteger(b);
+            Secp256k1Field.add(x, y, z);
+            assertEquals(a.add(b).mod(P), Secp256k1Field.toBigInteger(z));
+            Secp256k1Field.subtract(x, y, z);
+            assertEquals(a.subtract(b).mod(P), Secp256k1Field.toBigInteger(z));
+            Secp256k1Field.multiply(x, y, z, tt);
+            assertEquals(a.multiply(b).mod(P), Secp256k1Field.toBigInteger(z));
+         }
+      }
+   }
+
+   @Test
+   public void invert() {
+      int[] z = Secp256k1Field.create();
+      for (BigInteger a : testValues()) {
+         if (a.signum() == 0) {
+            continue;
+         }
+         Secp256k1Field.invert(Secp256k1Field.fromBigInteger(a), z);
+         assertEquals(a.modInverse(P), Secp256k1Field.toBigInteger(z));
+      }
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsUnreducedValues() {
+      Secp256k1Field.fromBigInteger(P);
+   }
+
+}
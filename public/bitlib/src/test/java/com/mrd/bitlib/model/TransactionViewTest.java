@@ -0,0 +1,68 @@
+package com.mrd.bitlib.model;
+
+import com.mrd.bitlib.model.Transaction.TransactionParsingException;
+import com.mrd.bitlib.util.HexUtils;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class TransactionViewTest {
+
+   private static final String FUNDING = "0100000001990d1b71e3b572926982fa2419144aaccbc14ba2e918496052d26a4da3777132000000006a4730440220387b5e2d0005ff13f9a02df718fb85a67133484adc8e2571379aed1fccc0692b02204cc4555d33244e2abffcf362dcd4b71b5f373578c3a39da90bf120c2d3d80f9601210254df56fd5663610ce8370a8af0aa9e3e8bc1befd176554f35575769aec249d16ffffffff0280380100000000001976a914f679b8239ffdf39987d7c5ca8e5fd44475a795e188aca08601000000000017a9147e76c2468a8d453bfbc130e0ca86b6821b24c7b38700000000";
+
+   @Test
+   public void matchesFullyParsedTransaction() throws TransactionParsingException {
+      byte[] bytes = HexUtils.toBytes(FUNDING);
+      Transaction transaction = Transaction.fromBytes(bytes);
+      TransactionView view = TransactionView.fromBytes(bytes);
+
+      assertEquals(transaction.getHash(), view.getHash());
+      assertEquals(transaction.getTxRawSize(), view.getTxRawSize());
+      assertEquals(transaction.version, view.getVersion());
+      assertEquals(transaction.lockTime, view.getLockTime());
+      assertFalse(view.isCoinbase());
+      assertEquals(transaction.inputs.length, view.getInputCount());
+      for (int i = 0; i < view.getInputCount(); i++) {
+         assertEquals(transaction.inputs[i].outPoint, view.getOutPoint(i));
+         assertEquals(transaction.inputs[i].sequence, view.getInput(i).sequence);
+         assertArrayEquals(transaction.inputs[i].script.getScriptBytes(), view.getInput(i).script.getScriptBytes());
+      }
+      assertEquals(transaction.outputs.length, view.getOutputCount());
+      for (int i = 0; i < view.getOutputCount(); i++) {
+         assertEquals(transaction.outputs[i].value, view.getOutputValue(i));
+         assertEquals(transaction.outputs[i].value, view.getOutput(i).value);
+         assertArrayEquals(transaction.outputs[i].script.getScriptBytes(), view.getOutput(i).script.getScriptBytes());
+      }
+      assertArrayEquals(transaction.toBytes(), view.toBytes());
+      assertEquals(transaction, view.toTransaction());
+   }
+
+   @Test
+   public void rejectsTruncatedTransaction() {
+      byte[] bytes = HexUtils.toBytes(FUNDING);
+      try {
+         TransactionView.fromBytes(Arrays.copyOf(bytes, bytes.length - 1));
+         fail();
+      } catch (TransactionParsingException e) {
+         // expected
+      }
+   }
+
+   @Test
+   public void rejectsImpossibleInputCount() {
+      // version followed by a 32 bit input count
+      byte[] bytes = HexUtils.toBytes("01000000feffffff7f00000000");
+      try {
+         TransactionView.fromBytes(bytes);
+         fail();
+      } catch (TransactionParsingException e) {
+         // expected
+      }
+   }
+
+}
@@ -42,14 +42,20 @@ import com.google.common.base.Optional;
 import com.mrd.bitlib.crypto.HdKeyNode;
 import com.mrd.bitlib.model.NetworkParameters;
 import com.mycelium.wapi.wallet.AccountScanManager;
+import com.mycelium.wapi.wallet.ConcurrentAccountScanner;
 import com.mycelium.wapi.wallet.WalletManager;
 import com.squareup.otto.Bus;
 
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 
 public abstract class AbstractAccountScanManager implements AccountScanManager {
+   private static final int DEFAULT_SCAN_PARALLELISM = 4;
+   private static final int DEFAULT_ACCOUNT_GAP_LIMIT = 1;
+
    protected final Context context;
    final private NetworkParameters network;
    private AsyncTask<Void, ScanStatus, Integer> scanAsyncTask = null;
@@ -57,6 +63,8 @@ public abstract class AbstractAccountScanManager implements AccountScanManager {
    protected final Bus eventBus;
    protected final LinkedBlockingQueue<Optional<String>> passphraseSyncQueue = new LinkedBlockingQueue<Optional<String>>(1);
    protected final Handler mainThreadHandler;
+   private volatile int scanParallelism = DEFAULT_SCAN_PARALLELISM;
+   private volatile int accountGapLimit = DEFAULT_ACCOUNT_GAP_LIMIT;
 
    public volatile AccountStatus currentAccountState = AccountStatus.unknown;
    public volatile Status currentState = Status.unableToScan;
@@ -91,6 +99,20 @@ public abstract class AbstractAccountScanManager implements AccountScanManager {
 
    protected abstract boolean onBeforeScan();
 
+   /**
+    * Set how many accounts get checked for transactions at the same time, applies to the next scan
+    */
+   public void setScanParallelism(int scanParallelism) {
+      this.scanParallelism = scanParallelism;
+   }
+
+   /**
+    * Set after how many unused accounts in a row the scan stops, applies to the next scan
+    */
+   public void setAccountGapLimit(int accountGapLimit) {
+      this.accountGapLimit = accountGapLimit;
+   }
+
    @Override
    public void startBackgroundAccountScan(final AccountCallback scanningCallback) {
       if (currentAccountState == AccountStatus.scanning || currentAccountState == AccountStatus.done) {
@@ -111,30 +133,25 @@ public abstract class AbstractAccountScanManager implements AccountScanManager {
                   return 0;
                }
 
-               // scan through the accounts, to find the first unused one
-               int accountIndex = 0;
-               do {
-                  HdKeyNode rootNode;
-                  Optional<HdKeyNode> accountPubKeyNode = AbstractAccountScanManager.this.getAccountPubKeyNode(accountIndex);
-                  if (!accountPubKeyNode.isPresent()) {
-                     publishProgress(new ScanStatus(AccountScanManager.Status.initializing, AccountStatus.unknown));
-                     break;
-                  }
-
-                  rootNode = accountPubKeyNode.get();
-
-                  // leave accountID empty for now - set it later if it is a already used account
-                  HdKeyNodeWrapper acc = new HdKeyNodeWrapper(accountIndex, rootNode, null);
-                  UUID newAccount = scanningCallback.checkForTransactions(acc);
-                  if (newAccount != null) {
-                     HdKeyNodeWrapper foundAccount = new HdKeyNodeWrapper(accountIndex, rootNode, newAccount);
-                     publishProgress(new FoundAccountStatus(foundAccount));
-                  } else {
-                     publishProgress(new ScanStatus(AccountScanManager.Status.initializing, AccountStatus.unknown));
-                     break;
-                  }
-                  accountIndex++;
-               } while (!isCancelled());
+               // scan through the accounts, checking a few of them at the same time, until we
+               // find as many unused ones in a row as the account gap limit
+               ExecutorService executor = Executors.newFixedThreadPool(scanParallelism);
+               int accountIndex;
+               try {
+                  accountIndex = new ConcurrentAccountScanner(executor, scanParallelism, accountGapLimit).scan(
+                        AbstractAccountScanManager.this, scanningCallback, new ConcurrentAccountScanner.Listener() {
+                           @Override
+                           public void onAccountFound(HdKeyNodeWrapper account) {
+                              publishProgress(new FoundAccountStatus(account));
+                           }
+                        });
+               } catch (InterruptedException e) {
+                  // we got cancelled
+                  return 0;
+               } finally {
+                  executor.shutdown();
+               }
+               publishProgress(new ScanStatus(AccountScanManager.Status.initializing, AccountStatus.unknown));
                publishProgress(new ScanStatus(AccountScanManager.Status.readyToScan, AccountStatus.done));
 
                return accountIndex;
@@ -51,6 +51,7 @@ import com.mycelium.wallet.persistence.SQLiteQueryWithBlobs;
 import com.mycelium.wapi.api.exception.DbCorruptedException;
 import com.mycelium.wapi.model.TransactionEx;
 import com.mycelium.wapi.model.TransactionOutputEx;
+import com.mycelium.wapi.wallet.BatchSecureKeyValueStoreBacking;
 import com.mycelium.wapi.wallet.Bip44AccountBacking;
 import com.mycelium.wapi.wallet.SingleAddressAccountBacking;
 import com.mycelium.wapi.wallet.WalletManagerBacking;
@@ -59,10 +60,12 @@ import com.mycelium.wapi.wallet.single.SingleAddressAccountContext;
 
 import java.util.*;
 
-public class SqliteWalletManagerBacking implements WalletManagerBacking {
+public class SqliteWalletManagerBacking implements WalletManagerBacking, BatchSecureKeyValueStoreBacking {
 
    private static final String LOG_TAG = "SqliteAccountBacking";
    private static final String TABLE_KV = "kv";
+   // SQLite refuses statements with more than 999 bound parameters
+   private static final int MAX_KEYS_PER_QUERY = 500;
    public static final int DEFAULT_SUB_ID = 0;
 
    private class OpenHelper extends SQLiteOpenHelper {
@@ -417,15 +420,7 @@ public class SqliteWalletManagerBacking implements WalletManagerBacking {
                null, null);
          if (cursor.moveToNext()) {
             byte[] retVal = cursor.getBlob(0);
-            byte[] checkSumDb = cursor.getBlob(1);
-
-            // checkSumDb might be null for older data, where we hadn't had a checksum
-            if (checkSumDb!=null && !Arrays.equals(checkSumDb, calcChecksum(id, retVal))){
-               // mismatch in checksum - the DB might be corrupted
-               Log.e(LOG_TAG, "Checksum failed - SqliteDB might be corrupted");
-               throw new DbCorruptedException("Checksum failed while reading from DB. Your file storage might be corrupted");
-            }
-
+            checkChecksum(id, retVal, cursor.getBlob(1));
             return retVal;
          }
          return null;
@@ -436,11 +431,72 @@ public class SqliteWalletManagerBacking implements WalletManagerBacking {
       }
    }
 
+   @Override
+   public List<byte[]> getValues(List<byte[]> ids) {
+      return getValues(ids, DEFAULT_SUB_ID);
+   }
+
+   @Override
+   public List<byte[]> getValues(List<byte[]> ids, int subId) {
+      // One query per chunk, the chunks keep us below the limit of bound parameters per statement. No transaction,
+      // it would hold the write lock and keep other users of the store waiting for the whole batch
+      Map<String, byte[]> found = new HashMap<String, byte[]>(ids.size());
+      for (int from = 0; from < ids.size(); from += MAX_KEYS_PER_QUERY) {
+         List<byte[]> chunk = ids.subList(from, Math.min(from + MAX_KEYS_PER_QUERY, ids.size()));
+         StringBuilder selection = new StringBuilder("k IN (");
+         SQLiteQueryWithBlobs blobQuery = new SQLiteQueryWithBlobs(_database);
+         for (int i = 0; i < chunk.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            blobQuery.bindBlob(i + 1, chunk.get(i));
+         }
+         selection.append(") and subId = ?");
+         blobQuery.bindLong(chunk.size() + 1, (long) subId);
+         Cursor cursor = null;
+         try {
+            cursor = blobQuery.query(false, TABLE_KV, new String[]{"k", "v", "checksum"}, selection.toString(), null,
+                  null, null, null, null);
+            while (cursor.moveToNext()) {
+               byte[] id = cursor.getBlob(0);
+               byte[] value = cursor.getBlob(1);
+               checkChecksum(id, value, cursor.getBlob(2));
+               found.put(HexUtils.toHex(id), value);
+            }
+         } finally {
+            if (cursor != null) {
+               cursor.close();
+            }
+         }
+      }
+      List<byte[]> values = new ArrayList<byte[]>(ids.size());
+      for (byte[] id : ids) {
+         values.add(found.get(HexUtils.toHex(id)));
+      }
+      return values;
+   }
+
    @Override
    public void setValue(byte[] key, byte[] value) {
       setValue(key, DEFAULT_SUB_ID, value);
    }
 
+   @Override
+   public void setValues(List<byte[]> keys, List<byte[]> values) {
+      setValues(keys, DEFAULT_SUB_ID, values);
+   }
+
+   @Override
+   public void setValues(List<byte[]> keys, int subId, List<byte[]> values) {
+      _database.beginTransaction();
+      try {
+         for (int i = 0; i < keys.size(); i++) {
+            setValue(keys.get(i), subId, values.get(i));
+         }
+         _database.setTransactionSuccessful();
+      } finally {
+         _database.endTransaction();
+      }
+   }
+
    @Override
    public int getMaxSubId() {
       return (int)_getMaxSubId.simpleQueryForLong();
@@ -458,6 +514,15 @@ public class SqliteWalletManagerBacking implements WalletManagerBacking {
 
 
 
+   private void checkChecksum(byte[] key, byte[] value, byte[] checkSumDb) {
+      // checkSumDb might be null for older data, where we hadn't had a checksum
+      if (checkSumDb!=null && !Arrays.equals(checkSumDb, calcChecksum(key, value))){
+         // mismatch in checksum - the DB might be corrupted
+         Log.e(LOG_TAG, "Checksum failed - SqliteDB might be corrupted");
+         throw new DbCorruptedException("Checksum failed while reading from DB. Your file storage might be corrupted");
+      }
+   }
+
    private byte[] calcChecksum(byte[] key, byte[] value){
       byte toHash[] = BitUtils.concatenate(key, value);
       byte[] ret = HashUtils.sha256(toHash).firstNBytes(8);
@@ -38,17 +38,45 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Random;
 
 public class ServerEndpoints {
 
+   // Weight of the latest sample in the moving averages of latency and errors
+   private static final double EWMA_WEIGHT = 0.3;
+   // How much worse than a healthy endpoint an endpoint that always fails is scored, in milliseconds of latency
+   private static final double ERROR_PENALTY_MS = 30000;
+   // Number of recent latencies that latency percentiles are taken over
+   private static final int LATENCY_SAMPLES = 100;
+
+   /**
+    * Moving averages of the latency and error rate of an endpoint
+    */
+   private static class EndpointStats {
+      private boolean measured;
+      private double latencyMs;
+      private double errorRate;
+
+      private double getScore() {
+         return latencyMs + errorRate * ERROR_PENALTY_MS;
+      }
+   }
+
    final private ArrayList<HttpEndpoint> endpoints;
+   final private EndpointStats[] stats;
+   final private long[] latencySamples = new long[LATENCY_SAMPLES];
+   private int latencySampleCount;
    private int currentEndpoint;
    private ServerEndpointType allowedEndpointTypes = ServerEndpointType.ONLY_HTTPS;
 
 
    public ServerEndpoints(HttpEndpoint endpoints[]) {
       this.endpoints = Lists.newArrayList(endpoints);
+      stats = newStats(endpoints.length);
       currentEndpoint = new Random().nextInt(this.endpoints.size());
       // ensure correct kind of endpoint
       switchToNextEndpoint();
@@ -56,11 +84,20 @@ public class ServerEndpoints {
 
    public ServerEndpoints(HttpEndpoint endpoints[], int initialEndpoint) {
       this.endpoints = Lists.newArrayList(endpoints);
+      stats = newStats(endpoints.length);
 
       Preconditions.checkElementIndex(initialEndpoint, endpoints.length);
       currentEndpoint = initialEndpoint;
    }
 
+   private static EndpointStats[] newStats(int count) {
+      EndpointStats[] stats = new EndpointStats[count];
+      for (int i = 0; i < count; i++) {
+         stats[i] = new EndpointStats();
+      }
+      return stats;
+   }
+
    public HttpEndpoint getCurrentEndpoint(){
       return endpoints.get(currentEndpoint);
    }
@@ -87,6 +124,89 @@ public class ServerEndpoints {
       return selectedEndpoint;
    }
 
+   /**
+    * Get the allowed endpoints, best first.
+    * <p/>
+    * Endpoints are ranked by their moving average latency plus a penalty for their moving average error rate.
+    * Endpoints that have not been used yet rank first, and ties keep the order starting at the current endpoint.
+    */
+   public synchronized List<HttpEndpoint> getEndpointsByScore() {
+      List<Integer> indexes = new ArrayList<Integer>(endpoints.size());
+      for (int i = 0; i < endpoints.size(); i++) {
+         int index = (currentEndpoint + i) % endpoints.size();
+         if (allowedEndpointTypes.isValid(endpoints.get(index).getClass())) {
+            indexes.add(index);
+         }
+      }
+      Collections.sort(indexes, new Comparator<Integer>() {
+         @Override
+         public int compare(Integer lhs, Integer rhs) {
+            return Double.compare(stats[lhs].getScore(), stats[rhs].getScore());
+         }
+      });
+      List<HttpEndpoint> result = new ArrayList<HttpEndpoint>(indexes.size());
+      for (Integer index : indexes) {
+         result.add(endpoints.get(index));
+      }
+      return result;
+   }
+
+   /**
+    * Record a successful call to an endpoint, which also makes it the current endpoint
+    *
+    * @param endpoint  the endpoint called
+    * @param latencyMs how long the call took
+    */
+   public synchronized void reportSuccess(HttpEndpoint endpoint, long latencyMs) {
+      int index = endpoints.indexOf(endpoint);
+      if (index == -1) {
+         return;
+      }
+      EndpointStats endpointStats = stats[index];
+      if (endpointStats.measured) {
+         endpointStats.latencyMs += EWMA_WEIGHT * (latencyMs - endpointStats.latencyMs);
+      } else {
+         endpointStats.latencyMs = latencyMs;
+         endpointStats.measured = true;
+      }
+      endpointStats.errorRate -= EWMA_WEIGHT * endpointStats.errorRate;
+      latencySamples[latencySampleCount % LATENCY_SAMPLES] = latencyMs;
+      latencySampleCount++;
+      currentEndpoint = index;
+   }
+
+   /**
+    * Record a failed call to an endpoint
+    *
+    * @param endpoint the endpoint called
+    */
+   public synchronized void reportError(HttpEndpoint endpoint) {
+      int index = endpoints.indexOf(endpoint);
+      if (index == -1) {
+         return;
+      }
+      EndpointStats endpointStats = stats[index];
+      endpointStats.errorRate += EWMA_WEIGHT * (1 - endpointStats.errorRate);
+   }
+
+   /**
+    * Get a percentile of the latencies of recent successful calls to any endpoint
+    *
+    * @param percentile   the percentile, between 0 and 1
+    * @param defaultValue the value to return if there have not been enough calls yet
+    * @return the latency in milliseconds
+    */
+   public synchronized long getLatencyPercentile(double percentile, long defaultValue) {
+      int count = Math.min(latencySampleCount, LATENCY_SAMPLES);
+      if (count < LATENCY_SAMPLES / 10) {
+         return defaultValue;
+      }
+      long[] sorted = Arrays.copyOf(latencySamples, count);
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(percentile * count) - 1;
+      return sorted[Math.max(0, Math.min(count - 1, index))];
+   }
+
    public void setAllowedEndpointTypes(ServerEndpointType types){
       allowedEndpointTypes=types;
       switchToNextEndpoint();
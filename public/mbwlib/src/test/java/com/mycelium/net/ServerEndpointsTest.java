@@ -0,0 +1,42 @@
+package com.mycelium.net;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class ServerEndpointsTest {
+
+   private static final HttpsEndpoint FIRST = new HttpsEndpoint("https://first.example.com", "");
+   private static final HttpsEndpoint SECOND = new HttpsEndpoint("https://second.example.com", "");
+   private static final HttpsEndpoint THIRD = new HttpsEndpoint("https://third.example.com", "");
+
+   @Test
+   public void ranksEndpointsByLatencyAndErrors() {
+      ServerEndpoints endpoints = new ServerEndpoints(new HttpEndpoint[]{FIRST, SECOND, THIRD}, 0);
+      // Untried endpoints keep their order
+      assertEquals(Arrays.asList(FIRST, SECOND, THIRD), endpoints.getEndpointsByScore());
+
+      endpoints.reportSuccess(FIRST, 800);
+      endpoints.reportSuccess(SECOND, 100);
+      endpoints.reportSuccess(THIRD, 300);
+      assertEquals(Arrays.asList(SECOND, THIRD, FIRST), endpoints.getEndpointsByScore());
+
+      // A fast endpoint that starts failing drops behind slower healthy ones
+      endpoints.reportError(SECOND);
+      assertEquals(Arrays.asList(THIRD, FIRST, SECOND), endpoints.getEndpointsByScore());
+   }
+
+   @Test
+   public void latencyPercentile() {
+      ServerEndpoints endpoints = new ServerEndpoints(new HttpEndpoint[]{FIRST, SECOND}, 0);
+      assertEquals(1000, endpoints.getLatencyPercentile(0.95, 1000));
+      for (int i = 1; i <= 100; i++) {
+         endpoints.reportSuccess(FIRST, i);
+      }
+      assertEquals(95, endpoints.getLatencyPercentile(0.95, 1000));
+      assertEquals(50, endpoints.getLatencyPercentile(0.5, 1000));
+   }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mycelium.wapi.api;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mycelium.wapi.api.request.*;
+import com.mycelium.wapi.api.response.*;
+
+/**
+ * The non-blocking counterpart of {@link Wapi} for the calls made while synchronizing accounts.
+ * <p/>
+ * Every call returns immediately with a future of the response, so that independent calls can be in flight at the
+ * same time. The futures complete with the same {@link WapiResponse} the corresponding {@link Wapi} call would have
+ * returned, errors included.
+ */
+public interface AsyncWapi {
+
+   /**
+    * @see Wapi#queryUnspentOutputs(QueryUnspentOutputsRequest)
+    */
+   ListenableFuture<WapiResponse<QueryUnspentOutputsResponse>> queryUnspentOutputs(QueryUnspentOutputsRequest request);
+
+   /**
+    * @see Wapi#queryTransactionInventory(QueryTransactionInventoryRequest)
+    */
+   ListenableFuture<WapiResponse<QueryTransactionInventoryResponse>> queryTransactionInventory(QueryTransactionInventoryRequest request);
+
+   /**
+    * @see Wapi#getTransactions(GetTransactionsRequest)
+    */
+   ListenableFuture<WapiResponse<GetTransactionsResponse>> getTransactions(GetTransactionsRequest request);
+
+   /**
+    * @see Wapi#broadcastTransaction(BroadcastTransactionRequest)
+    */
+   ListenableFuture<WapiResponse<BroadcastTransactionResponse>> broadcastTransaction(BroadcastTransactionRequest request);
+
+   /**
+    * @see Wapi#checkTransactions(CheckTransactionsRequest)
+    */
+   ListenableFuture<WapiResponse<CheckTransactionsResponse>> checkTransactions(CheckTransactionsRequest request);
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mycelium.wapi.api;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.mycelium.wapi.api.request.*;
+import com.mycelium.wapi.api.response.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * An {@link AsyncWapi} that makes the calls of a blocking {@link Wapi}, such as {@link WapiClient}, on an executor.
+ * <p/>
+ * With a direct executor every call completes before it returns, which behaves just like the blocking {@link Wapi}.
+ */
+public class AsyncWapiAdapter implements AsyncWapi {
+
+   private final Wapi _wapi;
+   private final ListeningExecutorService _executor;
+
+   /**
+    * @param wapi     the Wapi to make the calls on
+    * @param executor the executor to make the calls on, which limits how many calls are in flight at the same time
+    */
+   public AsyncWapiAdapter(Wapi wapi, ExecutorService executor) {
+      _wapi = wapi;
+      _executor = MoreExecutors.listeningDecorator(executor);
+   }
+
+   /**
+    * Get an adapter that makes every call on the calling thread
+    */
+   public static AsyncWapiAdapter blocking(Wapi wapi) {
+      return new AsyncWapiAdapter(wapi, MoreExecutors.newDirectExecutorService());
+   }
+
+   @Override
+   public ListenableFuture<WapiResponse<QueryUnspentOutputsResponse>> queryUnspentOutputs(final QueryUnspentOutputsRequest request) {
+      return _executor.submit(new Callable<WapiResponse<QueryUnspentOutputsResponse>>() {
+         @Override
+         public WapiResponse<QueryUnspentOutputsResponse> call() {
+            return _wapi.queryUnspentOutputs(request);
+         }
+      });
+   }
+
+   @Override
+   public ListenableFuture<WapiResponse<QueryTransactionInventoryResponse>> queryTransactionInventory(final QueryTransactionInventoryRequest request) {
+      return _executor.submit(new Callable<WapiResponse<QueryTransactionInventoryResponse>>() {
+         @Override
+         public WapiResponse<QueryTransactionInventoryResponse> call() {
+            return _wapi.queryTransactionInventory(request);
+         }
+      });
+   }
+
+   @Override
+   public ListenableFuture<WapiResponse<GetTransactionsResponse>> getTransactions(final GetTransactionsRequest request) {
+      return _executor.submit(new Callable<WapiResponse<GetTransactionsResponse>>() {
+         @Override
+         public WapiResponse<GetTransactionsResponse> call() {
+            return _wapi.getTransactions(request);
+         }
+      });
+   }
+
+   @Override
+   public ListenableFuture<WapiResponse<BroadcastTransactionResponse>> broadcastTransaction(final BroadcastTransactionRequest request) {
+      return _executor.submit(new Callable<WapiResponse<BroadcastTransactionResponse>>() {
+         @Override
+         public WapiResponse<BroadcastTransactionResponse> call() {
+            return _wapi.broadcastTransaction(request);
+         }
+      });
+   }
+
+   @Override
+   public ListenableFuture<WapiResponse<CheckTransactionsResponse>> checkTransactions(final CheckTransactionsRequest request) {
+      return _executor.submit(new Callable<WapiResponse<CheckTransactionsResponse>>() {
+         @Override
+         public WapiResponse<CheckTransactionsResponse> call() {
+            return _wapi.checkTransactions(request);
+         }
+      });
+   }
+
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mycelium.wapi.api;
+
+import com.mrd.bitlib.model.Address;
+import com.mrd.bitlib.model.NetworkParameters;
+import com.mrd.bitlib.model.ScriptOutput;
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.WapiLogger;
+import com.mycelium.wapi.api.request.*;
+import com.mycelium.wapi.api.response.*;
+import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.model.TransactionOutputEx;
+
+import java.util.*;
+
+/**
+ * A {@link Wapi} in front of another one that merges concurrent unspent output queries and transaction lookups into
+ * batched requests.
+ * <p/>
+ * While a number of requests of a kind are in flight, further requests of that kind are queued. When a request
+ * completes, one of the waiting callers sends the queued requests as few merged requests of at most the configured
+ * number of addresses or transaction IDs, with transaction IDs requested by several callers included once. The
+ * responses are split up again, so that every caller gets exactly the response to its own request. A single request
+ * is never split, and a caller that is alone is passed straight through. All other calls go to the wrapped
+ * {@link Wapi} directly.
+ */
+public class CoalescingWapi implements Wapi {
+
+   public static final int DEFAULT_MAX_ADDRESSES_PER_REQUEST = 500;
+   public static final int DEFAULT_MAX_TRANSACTIONS_PER_REQUEST = 100;
+   public static final int DEFAULT_MAX_REQUESTS_IN_FLIGHT = 2;
+
+   private final Wapi _wapi;
+   private final NetworkParameters _network;
+   private final Coalescer<QueryUnspentOutputsRequest, QueryUnspentOutputsResponse> _unspentOutputQueries;
+   private final Coalescer<GetTransactionsRequest, GetTransactionsResponse> _transactionLookups;
+
+   public CoalescingWapi(Wapi wapi, NetworkParameters network) {
+      this(wapi, network, DEFAULT_MAX_ADDRESSES_PER_REQUEST, DEFAULT_MAX_TRANSACTIONS_PER_REQUEST,
+            DEFAULT_MAX_REQUESTS_IN_FLIGHT);
+   }
+
+   /**
+    * @param wapi                       the Wapi to send the merged requests to
+    * @param network                    the network the queried addresses belong to
+    * @param maxAddressesPerRequest     the maximum number of addresses in a merged unspent output query
+    * @param maxTransactionsPerRequest  the maximum number of transaction IDs in a merged transaction lookup
+    * @param maxRequestsInFlight        how many requests of a kind may be in flight before further ones are queued
+    */
+   public CoalescingWapi(Wapi wapi, NetworkParameters network, int maxAddressesPerRequest,
+                         int maxTransactionsPerRequest, int maxRequestsInFlight) {
+      _wapi = wapi;
+      _network = network;
+      _unspentOutputQueries = new UnspentOutputQueries(maxAddressesPerRequest, maxRequestsInFlight);
+      _transactionLookups = new TransactionLookups(maxTransactionsPerRequest, maxRequestsInFlight);
+   }
+
+   /**
+    * Queues requests of one kind and sends them merged
+    *
+    * @param <Q> the request type
+    * @param <R> the response type
+    */
+   private abstract class Coalescer<Q, R> {
+
+      private class Pending {
+         private final Q request;
+         private boolean taken;
+         private WapiResponse<R> response;
+
+         private Pending(Q request) {
+            this.request = request;
+         }
+      }
+
+      private final int _maxBatchSize;
+      private final int _maxInFlight;
+      // Guarded by this
+      private final LinkedList<Pending> _queue = new LinkedList<Pending>();
+      private int _inFlight;
+
+      protected Coalescer(int maxBatchSize, int maxInFlight) {
+         _maxBatchSize = maxBatchSize;
+         _maxInFlight = maxInFlight;
+      }
+
+      /**
+       * Get the number of addresses or transaction IDs in a request
+       */
+      protected abstract int size(Q request);
+
+      protected abstract Q merge(List<Q> requests);
+
+      protected abstract WapiResponse<R> send(Q request);
+
+      /**
+       * Get the part of a merged response that answers one of the merged requests
+       */
+      protected abstract R extract(Q request, R merged);
+
+      WapiResponse<R> call(Q request) {
+         Pending pending = new Pending(request);
+         boolean interrupted = false;
+         try {
+            synchronized (this) {
+               _queue.add(pending);
+            }
+            while (true) {
+               List<Pending> batch;
+               synchronized (this) {
+                  while (pending.response == null && (pending.taken || _inFlight >= _maxInFlight)) {
+                     try {
+                        wait();
+                     } catch (InterruptedException e) {
+                        // Our request may already be part of a batch in flight, so keep waiting for its response
+                        interrupted = true;
+                     }
+                  }
+                  if (pending.response != null) {
+                     return pending.response;
+                  }
+                  batch = takeBatch();
+                  _inFlight++;
+               }
+               try {
+                  sendBatch(batch);
+               } finally {
+                  synchronized (this) {
+                     _inFlight--;
+                     notifyAll();
+                  }
+               }
+            }
+         } finally {
+            if (interrupted) {
+               Thread.currentThread().interrupt();
+            }
+         }
+      }
+
+      // Called while holding the lock
+      private List<Pending> takeBatch() {
+         List<Pending> batch = new ArrayList<Pending>();
+         int size = 0;
+         Iterator<Pending> it = _queue.iterator();
+         while (it.hasNext()) {
+            Pending pending = it.next();
+            int requestSize = size(pending.request);
+            if (!batch.isEmpty() && size + requestSize > _maxBatchSize) {
+               // Try to fill the batch up with smaller requests further down the queue
+               continue;
+            }
+            pending.taken = true;
+            batch.add(pending);
+            size += requestSize;
+            it.remove();
+            if (size >= _maxBatchSize) {
+               break;
+            }
+         }
+         return batch;
+      }
+
+      private void sendBatch(List<Pending> batch) {
+         WapiResponse<R> merged;
+         try {
+            if (batch.size() == 1) {
+               merged = send(batch.get(0).request);
+            } else {
+               List<Q> requests = new ArrayList<Q>(batch.size());
+               for (Pending pending : batch) {
+                  requests.add(pending.request);
+               }
+               merged = send(merge(requests));
+            }
+         } catch (RuntimeException e) {
+            // The batch may hold requests of other callers, which must get a response
+            getLogger().logError("Coalesced request failed", e);
+            merged = new WapiResponse<R>(ERROR_CODE_INTERNAL_CLIENT_ERROR, null);
+         }
+         List<WapiResponse<R>> responses = new ArrayList<WapiResponse<R>>(batch.size());
+         for (Pending pending : batch) {
+            responses.add(split(pending, batch.size(), merged));
+         }
+         synchronized (this) {
+            for (int i = 0; i < batch.size(); i++) {
+               batch.get(i).response = responses.get(i);
+            }
+         }
+      }
+
+      private WapiResponse<R> split(Pending pending, int batchSize, WapiResponse<R> merged) {
+         if (batchSize == 1 || merged.getErrorCode() != ERROR_CODE_SUCCESS) {
+            return merged;
+         }
+         try {
+            return new WapiResponse<R>(extract(pending.request, merged.getResult()));
+         } catch (WapiException e) {
+            // Not reached, we checked the error code
+            return new WapiResponse<R>(e.errorCode, null);
+         }
+      }
+   }
+
+   private class UnspentOutputQueries extends Coalescer<QueryUnspentOutputsRequest, QueryUnspentOutputsResponse> {
+
+      private UnspentOutputQueries(int maxBatchSize, int maxInFlight) {
+         super(maxBatchSize, maxInFlight);
+      }
+
+      @Override
+      protected int size(QueryUnspentOutputsRequest request) {
+         return request.addresses.size();
+      }
+
+      @Override
+      protected QueryUnspentOutputsRequest merge(List<QueryUnspentOutputsRequest> requests) {
+         Set<Address> addresses = new LinkedHashSet<Address>();
+         for (QueryUnspentOutputsRequest request : requests) {
+            addresses.addAll(request.addresses);
+         }
+         return new QueryUnspentOutputsRequest(Wapi.VERSION, new ArrayList<Address>(addresses));
+      }
+
+      @Override
+      protected WapiResponse<QueryUnspentOutputsResponse> send(QueryUnspentOutputsRequest request) {
+         return _wapi.queryUnspentOutputs(request);
+      }
+
+      @Override
+      protected QueryUnspentOutputsResponse extract(QueryUnspentOutputsRequest request,
+                                                    QueryUnspentOutputsResponse merged) {
+         Set<Address> addresses = new HashSet<Address>(request.addresses);
+         List<TransactionOutputEx> unspent = new ArrayList<TransactionOutputEx>();
+         for (TransactionOutputEx output : merged.unspent) {
+            Address address = ScriptOutput.fromScriptBytes(output.script).getAddress(_network);
+            if (addresses.contains(address)) {
+               unspent.add(output);
+            }
+         }
+         return new QueryUnspentOutputsResponse(merged.height, unspent);
+      }
+   }
+
+   private class TransactionLookups extends Coalescer<GetTransactionsRequest, GetTransactionsResponse> {
+
+      private TransactionLookups(int maxBatchSize, int maxInFlight) {
+         super(maxBatchSize, maxInFlight);
+      }
+
+      @Override
+      protected int size(GetTransactionsRequest request) {
+         return request.txIds.size();
+      }
+
+      @Override
+      protected GetTransactionsRequest merge(List<GetTransactionsRequest> requests) {
+         Set<Sha256Hash> txIds = new LinkedHashSet<Sha256Hash>();
+         for (GetTransactionsRequest request : requests) {
+            txIds.addAll(request.txIds);
+         }
+         return new GetTransactionsRequest(Wapi.VERSION, new ArrayList<Sha256Hash>(txIds));
+      }
+
+      @Override
+      protected WapiResponse<GetTransactionsResponse> send(GetTransactionsRequest request) {
+         return _wapi.getTransactions(request);
+      }
+
+      @Override
+      protected GetTransactionsResponse extract(GetTransactionsRequest request, GetTransactionsResponse merged) {
+         Set<Sha256Hash> txIds = new HashSet<Sha256Hash>(request.txIds);
+         List<TransactionEx> transactions = new ArrayList<TransactionEx>();
+         for (TransactionEx tex : merged.transactions) {
+            if (txIds.contains(tex.txid)) {
+               transactions.add(tex);
+            }
+         }
+         return new GetTransactionsResponse(transactions);
+      }
+   }
+
+   @Override
+   public WapiLogger getLogger() {
+      return _wapi.getLogger();
+   }
+
+   @Override
+   public WapiResponse<QueryUnspentOutputsResponse> queryUnspentOutputs(QueryUnspentOutputsRequest request) {
+      return _unspentOutputQueries.call(request);
+   }
+
+   @Override
+   public WapiResponse<QueryTransactionInventoryResponse> queryTransactionInventory(QueryTransactionInventoryRequest request) {
+      return _wapi.queryTransactionInventory(request);
+   }
+
+   @Override
+   public WapiResponse<GetTransactionsResponse> getTransactions(GetTransactionsRequest request) {
+      return _transactionLookups.call(request);
+   }
+
+   @Override
+   public WapiResponse<BroadcastTransactionResponse> broadcastTransaction(BroadcastTransactionRequest request) {
+      return _wapi.broadcastTransaction(request);
+   }
+
+   @Override
+   public WapiResponse<CheckTransactionsResponse> checkTransactions(CheckTransactionsRequest request) {
+      return _wapi.checkTransactions(request);
+   }
+
+   @Override
+   public WapiResponse<QueryExchangeRatesResponse> queryExchangeRates(QueryExchangeRatesRequest request) {
+      return _wapi.queryExchangeRates(request);
+   }
+
+   @Override
+   public WapiResponse<PingResponse> ping() {
+      return _wapi.ping();
+   }
+
+   @Override
+   public WapiResponse<ErrorCollectorResponse> collectError(ErrorCollectorRequest request) {
+      return _wapi.collectError(request);
+   }
+
+   @Override
+   @Deprecated
+   public WapiResponse<VersionInfoResponse> getVersionInfo(VersionInfoRequest request) {
+      return _wapi.getVersionInfo(request);
+   }
+
+   @Override
+   public WapiResponse<VersionInfoExResponse> getVersionInfoEx(VersionInfoExRequest request) {
+      return _wapi.getVersionInfoEx(request);
+   }
+
+   @Override
+   public WapiResponse<MinerFeeEstimationResponse> getMinerFeeEstimations() {
+      return _wapi.getMinerFeeEstimations();
+   }
+}
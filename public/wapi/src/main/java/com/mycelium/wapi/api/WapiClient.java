@@ -32,6 +32,10 @@ import com.squareup.okhttp.*;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 
@@ -41,6 +45,12 @@ public class WapiClient implements Wapi {
    private static final int LONG_TIMEOUT_MS = 60000;
    private static final int MEDIUM_TIMEOUT_MS = 20000;
    private static final int SHORT_TIMEOUT_MS = 4000;
+   private static final int MAX_IDLE_CONNECTIONS = 5;
+   private static final long KEEP_ALIVE_DURATION_MS = 5 * 60 * 1000;
+   // Idempotent requests go to a second server if the first has not answered within this percentile of our latencies
+   private static final double HEDGE_LATENCY_PERCENTILE = 0.95;
+   private static final long DEFAULT_HEDGE_DELAY_MS = 1000;
+   private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
 
 
    private ObjectMapper _objectMapper;
@@ -48,6 +58,10 @@ public class WapiClient implements Wapi {
 
    private ServerEndpoints _serverEndpoints;
    private String versionCode;
+   // Clients are set up once per endpoint and share one connection pool. Each call works on a copy with its own
+   // timeouts.
+   private final ConnectionPool _connectionPool = new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_MS);
+   private final Map<HttpEndpoint, OkHttpClient> _clients = new ConcurrentHashMap<HttpEndpoint, OkHttpClient>();
 
    public WapiClient(ServerEndpoints serverEndpoints, WapiLogger logger, String versionCode) {
       _serverEndpoints = serverEndpoints;
@@ -62,14 +76,49 @@ public class WapiClient implements Wapi {
       _logger = logger;
    }
 
+   private OkHttpClient getClient(HttpEndpoint serverEndpoint, int timeout) {
+      OkHttpClient client = _clients.get(serverEndpoint);
+      if (client == null) {
+         client = serverEndpoint.getClient();
+         client.setConnectionPool(_connectionPool);
+         _clients.put(serverEndpoint, client);
+      }
+      client = client.clone();
+      client.setConnectTimeout(timeout, TimeUnit.MILLISECONDS);
+      client.setReadTimeout(timeout, TimeUnit.MILLISECONDS);
+      client.setWriteTimeout(timeout, TimeUnit.MILLISECONDS);
+      return client;
+   }
+
    private <T> WapiResponse<T> sendRequest(String function, Object request, TypeReference<WapiResponse<T>> typeReference) {
+      return sendRequest(function, request, typeReference, false);
+   }
+
+   /**
+    * @param idempotent whether the request may be sent to two servers at the same time, see
+    *                   {@link #getHedgedConnectionAndSendRequest(String, byte[])}
+    */
+   private <T> WapiResponse<T> sendRequest(String function, Object request, TypeReference<WapiResponse<T>> typeReference,
+                                           boolean idempotent) {
       try {
-         Response response = getConnectionAndSendRequest(function, request);
+         byte[] body = getPostBody(request);
+         Response response = null;
+         if (idempotent) {
+            response = getHedgedConnectionAndSendRequest(function, body);
+         }
+         if (response == null) {
+            response = getConnectionAndSendRequest(function, body);
+         }
          if (response == null) {
             return new WapiResponse<T>(ERROR_CODE_NO_SERVER_CONNECTION, null);
          }
-         String content = response.body().string();
-         return _objectMapper.readValue(content, typeReference);
+         // Parse straight from the response stream instead of buffering it all as a string first
+         ResponseBody responseBody = response.body();
+         try {
+            return _objectMapper.readValue(responseBody.byteStream(), typeReference);
+         } finally {
+            responseBody.close();
+         }
       } catch (JsonParseException e) {
          logError("sendRequest failed with Json parsing error.", e);
          return new WapiResponse<T>(ERROR_CODE_INTERNAL_CLIENT_ERROR, null);
@@ -95,95 +144,242 @@ public class WapiClient implements Wapi {
    }
 
    /**
-    * Attempt to connect and send to a URL in our list of URLS, if it fails try
-    * the next until we have cycled through all URLs. If this fails with a short
-    * timeout, retry all servers with a medium timeout, followed by a retry with
-    * long timeout.
+    * Attempt to connect and send to the servers in our list, best first, until
+    * one answers. If this fails with a short timeout, retry all servers with a
+    * medium timeout, followed by a retry with long timeout.
     */
-   private Response getConnectionAndSendRequest(String function, Object request) {
+   private Response getConnectionAndSendRequest(String function, byte[] body) {
       Response response;
-      response = getConnectionAndSendRequestWithTimeout(request, function, SHORT_TIMEOUT_MS);
+      response = getConnectionAndSendRequestWithTimeout(body, function, SHORT_TIMEOUT_MS);
       if (response != null) {
          return response;
       }
-      response = getConnectionAndSendRequestWithTimeout(request, function, MEDIUM_TIMEOUT_MS);
+      response = getConnectionAndSendRequestWithTimeout(body, function, MEDIUM_TIMEOUT_MS);
       if (response != null) {
          return response;
       }
-      response = getConnectionAndSendRequestWithTimeout(request, function, LONG_TIMEOUT_MS);
+      response = getConnectionAndSendRequestWithTimeout(body, function, LONG_TIMEOUT_MS);
       if (response != null) {
          return response;
       }
-      return getConnectionAndSendRequestWithTimeout(request, function, VERY_LONG_TIMEOUT_MS);
+      return getConnectionAndSendRequestWithTimeout(body, function, VERY_LONG_TIMEOUT_MS);
    }
 
    /**
-    * Attempt to connect and send to a URL in our list of URLS, if it fails try
-    * the next until we have cycled through all URLs. timeout.
+    * Attempt to connect and send to the servers in our list, best first, until
+    * one answers within the timeout.
     */
-   private Response getConnectionAndSendRequestWithTimeout(Object request, String function, int timeout) {
-      int originalConnectionIndex = _serverEndpoints.getCurrentEndpointIndex();
-      while (true) {
-         // currently active server-endpoint
-         HttpEndpoint serverEndpoint = _serverEndpoints.getCurrentEndpoint();
+   private Response getConnectionAndSendRequestWithTimeout(byte[] body, String function, int timeout) {
+      for (HttpEndpoint serverEndpoint : _serverEndpoints.getEndpointsByScore()) {
          try {
-            OkHttpClient client = serverEndpoint.getClient();
-            _logger.logInfo("Connecting to " + serverEndpoint.getBaseUrl() + " (" + _serverEndpoints.getCurrentEndpointIndex() + ")");
-
-            // configure TimeOuts
-            client.setConnectTimeout(timeout, TimeUnit.MILLISECONDS);
-            client.setReadTimeout(timeout, TimeUnit.MILLISECONDS);
-            client.setWriteTimeout(timeout, TimeUnit.MILLISECONDS);
+            OkHttpClient client = getClient(serverEndpoint, timeout);
+            _logger.logInfo("Connecting to " + serverEndpoint.getBaseUrl());
 
             Stopwatch callDuration = Stopwatch.createStarted();
-            // build request
-            final String toSend = getPostBody(request);
-            Request rq = new Request.Builder()
-                  .addHeader(MYCELIUM_VERSION_HEADER, versionCode)
-                  .post(RequestBody.create(MediaType.parse("application/json"), toSend))
-                  .url(serverEndpoint.getUri(WapiConst.WAPI_BASE_PATH, function).toString())
-                  .build();
-
             // execute request
-            Response response = client.newCall(rq).execute();
-            callDuration.stop();
-            _logger.logInfo(String.format("Wapi %s finished (%dms)", function, callDuration.elapsed(TimeUnit.MILLISECONDS)));
-
-            // Check for status code 2XX
-            if (response.isSuccessful()) {
-               if (serverEndpoint instanceof FeedbackEndpoint){
-                  ((FeedbackEndpoint) serverEndpoint).onSuccess();
-               }
+            Response response = client.newCall(buildRequest(serverEndpoint, function, body)).execute();
+            if (handleResponse(serverEndpoint, function, response, callDuration.elapsed(TimeUnit.MILLISECONDS))) {
                return response;
-            }else{
-               // If the status code is not 200 we cycle to the next server
-               logError(String.format("Http call to %s failed with %d %s", function, response.code(), response.message()));
-               // throw...
             }
          } catch (IOException e) {
-            logError("IOException when sending request " + function, e);
-            if (serverEndpoint instanceof FeedbackEndpoint){
-               _logger.logInfo("Resetting tor");
-               ((FeedbackEndpoint) serverEndpoint).onError();
-            }
+            handleFailure(serverEndpoint, function, e);
          }
          // Try the next server
-         _serverEndpoints.switchToNextEndpoint();
-         if (_serverEndpoints.getCurrentEndpointIndex() == originalConnectionIndex) {
-            // We have tried all URLs
-            return null;
+      }
+      // We have tried all servers
+      return null;
+   }
+
+   /**
+    * Send an idempotent request to the best server, and also to the second best one if the first has not answered
+    * within the usual latency of our calls. Whichever answers first wins, the other call is cancelled.
+    *
+    * @return the response, or null if no server answered within the short timeout, in which case the request has to
+    * be sent the usual way
+    */
+   private Response getHedgedConnectionAndSendRequest(String function, byte[] body) {
+      List<HttpEndpoint> endpoints = _serverEndpoints.getEndpointsByScore();
+      if (endpoints.isEmpty()) {
+         return null;
+      }
+      HedgedCall call = new HedgedCall(function, body);
+      try {
+         call.send(endpoints.get(0));
+         long hedgeDelay = _serverEndpoints.getLatencyPercentile(HEDGE_LATENCY_PERCENTILE, DEFAULT_HEDGE_DELAY_MS);
+         Response response = call.await(hedgeDelay);
+         if (response == null && endpoints.size() > 1) {
+            // The best server is slow or failed, ask the next one as well
+            call.send(endpoints.get(1));
+            response = call.await(SHORT_TIMEOUT_MS);
          }
+         return response;
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         return null;
+      } finally {
+         call.finish();
+      }
+   }
 
+   /**
+    * The calls of a hedged request, the first successful response of which is kept
+    */
+   private class HedgedCall {
+      private final String _function;
+      private final byte[] _body;
+      private final List<Call> _calls = new ArrayList<Call>();
+      // Calls that have neither failed nor answered yet
+      private int _pending;
+      private Response _response;
+      // The call that produced the response, whose body is still to be read
+      private Call _winner;
+      private boolean _delivered;
+      private boolean _finished;
+
+      private HedgedCall(String function, byte[] body) {
+         _function = function;
+         _body = body;
+      }
+
+      private synchronized void send(final HttpEndpoint serverEndpoint) {
+         final Stopwatch callDuration = Stopwatch.createStarted();
+         final Call call;
+         try {
+            _logger.logInfo("Connecting to " + serverEndpoint.getBaseUrl());
+            call = getClient(serverEndpoint, SHORT_TIMEOUT_MS).newCall(buildRequest(serverEndpoint, _function, _body));
+         } catch (IOException e) {
+            handleFailure(serverEndpoint, _function, e);
+            return;
+         }
+         _calls.add(call);
+         _pending++;
+         call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Request request, IOException e) {
+               // Calls we cancelled ourselves say nothing about the server
+               if (!isFinished()) {
+                  handleFailure(serverEndpoint, _function, e);
+               }
+               onDone(call, null);
+            }
+
+            @Override
+            public void onResponse(Response response) throws IOException {
+               boolean successful = false;
+               try {
+                  successful = handleResponse(serverEndpoint, _function, response, callDuration.elapsed(TimeUnit.MILLISECONDS));
+               } finally {
+                  onDone(call, successful ? response : null);
+               }
+            }
+         });
+      }
+
+      private synchronized boolean isFinished() {
+         return _finished;
+      }
+
+      private synchronized void onDone(Call call, Response response) {
+         _pending--;
+         if (response != null) {
+            if (_response == null && !_finished) {
+               _response = response;
+               _winner = call;
+            } else {
+               closeQuietly(response);
+            }
+         }
+         notifyAll();
+      }
+
+      /**
+       * Wait for a response until the timeout passes or all calls sent so far have failed
+       */
+      private synchronized Response await(long timeoutMs) throws InterruptedException {
+         long deadline = System.currentTimeMillis() + timeoutMs;
+         long remaining = timeoutMs;
+         while (_response == null && _pending > 0 && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+         }
+         _delivered = _response != null;
+         return _response;
+      }
+
+      /**
+       * Cancel the calls that did not win. The body of a delivered response is still being read from the connection
+       * of its call, so that call is left to be closed along with the body.
+       */
+      private synchronized void finish() {
+         _finished = true;
+         for (Call call : _calls) {
+            if (!_delivered || call != _winner) {
+               call.cancel();
+            }
+         }
+         if (_response != null && !_delivered) {
+            closeQuietly(_response);
+         }
       }
    }
 
-   private String getPostBody(Object request) {
+   private Request buildRequest(HttpEndpoint serverEndpoint, String function, byte[] body) throws IOException {
+      return new Request.Builder()
+            .addHeader(MYCELIUM_VERSION_HEADER, versionCode)
+            .post(RequestBody.create(JSON, body))
+            .url(serverEndpoint.getUri(WapiConst.WAPI_BASE_PATH, function).toString())
+            .build();
+   }
+
+   /**
+    * Check the status of a response and keep track of the health of the server
+    *
+    * @return true if the response was successful, otherwise it is closed
+    */
+   private boolean handleResponse(HttpEndpoint serverEndpoint, String function, Response response, long durationMs) throws IOException {
+      _logger.logInfo(String.format("Wapi %s finished (%dms)", function, durationMs));
+
+      // Check for status code 2XX
+      if (response.isSuccessful()) {
+         _serverEndpoints.reportSuccess(serverEndpoint, durationMs);
+         if (serverEndpoint instanceof FeedbackEndpoint){
+            ((FeedbackEndpoint) serverEndpoint).onSuccess();
+         }
+         return true;
+      }else{
+         // If the status code is not 200 we cycle to the next server
+         logError(String.format("Http call to %s failed with %d %s", function, response.code(), response.message()));
+         _serverEndpoints.reportError(serverEndpoint);
+         response.body().close();
+         return false;
+      }
+   }
+
+   private void handleFailure(HttpEndpoint serverEndpoint, String function, IOException e) {
+      logError("IOException when sending request " + function, e);
+      _serverEndpoints.reportError(serverEndpoint);
+      // Set the client up again next time, the endpoint may hand out a different one after an error
+      _clients.remove(serverEndpoint);
+      if (serverEndpoint instanceof FeedbackEndpoint){
+         _logger.logInfo("Resetting tor");
+         ((FeedbackEndpoint) serverEndpoint).onError();
+      }
+   }
+
+   private static void closeQuietly(Response response) {
+      try {
+         response.body().close();
+      } catch (IOException e) {
+         // Nothing left to do with it
+      }
+   }
+
+   private byte[] getPostBody(Object request) {
       if (request == null) {
-         return "";
+         return new byte[0];
       }
       try {
-         String postString = _objectMapper.writeValueAsString(request);
-         return postString;
+         return _objectMapper.writeValueAsBytes(request);
       } catch (JsonProcessingException e) {
          logError("Error during JSON serialization", e);
          throw new RuntimeException(e);
@@ -194,7 +390,7 @@ public class WapiClient implements Wapi {
    public WapiResponse<QueryUnspentOutputsResponse> queryUnspentOutputs(QueryUnspentOutputsRequest request) {
       return sendRequest(Function.QUERY_UNSPENT_OUTPUTS, request,
             new TypeReference<WapiResponse<QueryUnspentOutputsResponse>>() {
-            });
+            }, true);
    }
 
    @Override
@@ -209,7 +405,7 @@ public class WapiClient implements Wapi {
    public WapiResponse<GetTransactionsResponse> getTransactions(GetTransactionsRequest request) {
       TypeReference<WapiResponse<GetTransactionsResponse>> typeref = new TypeReference<WapiResponse<GetTransactionsResponse>>() {
       };
-      return sendRequest(Function.GET_TRANSACTIONS, request, typeref);
+      return sendRequest(Function.GET_TRANSACTIONS, request, typeref, true);
    }
 
    @Override
@@ -223,7 +419,7 @@ public class WapiClient implements Wapi {
    public WapiResponse<CheckTransactionsResponse> checkTransactions(CheckTransactionsRequest request) {
       TypeReference<WapiResponse<CheckTransactionsResponse>> typeref = new TypeReference<WapiResponse<CheckTransactionsResponse>>() {
       };
-      return sendRequest(Function.CHECK_TRANSACTIONS, request, typeref);
+      return sendRequest(Function.CHECK_TRANSACTIONS, request, typeref, true);
    }
 
    @Override
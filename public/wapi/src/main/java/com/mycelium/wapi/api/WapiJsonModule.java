@@ -27,11 +27,9 @@ import com.fasterxml.jackson.core.JsonLocation;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.ObjectCodec;
 import com.fasterxml.jackson.core.Version;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.module.SimpleModule;
@@ -71,11 +69,9 @@ public class WapiJsonModule extends SimpleModule {
       @Override
       public Bitcoins deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException,
             JsonProcessingException {
-         ObjectCodec oc = jp.getCodec();
-         JsonNode node = oc.readTree(jp);
-         Bitcoins bitcoins = Bitcoins.valueOf(node.asLong());
+         Bitcoins bitcoins = Bitcoins.valueOf(jp.getValueAsLong());
          if (bitcoins == null) {
-            throw new JsonParseException("Failed to convert string '" + node.asText() + "' into an bitcoin",
+            throw new JsonParseException("Failed to convert string '" + jp.getText() + "' into an bitcoin",
                   JsonLocation.NA);
          }
          return bitcoins;
@@ -87,11 +83,10 @@ public class WapiJsonModule extends SimpleModule {
       @Override
       public Address deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException,
             JsonProcessingException {
-         ObjectCodec oc = jp.getCodec();
-         JsonNode node = oc.readTree(jp);
-         Address address = Address.fromString(node.asText());
+         String text = jp.getText();
+         Address address = Address.fromString(text);
          if (address == null) {
-            throw new JsonParseException("Failed to convert string '" + node.asText() + "' into an address",
+            throw new JsonParseException("Failed to convert string '" + text + "' into an address",
                   JsonLocation.NA);
          }
          return address;
@@ -134,13 +129,12 @@ public class WapiJsonModule extends SimpleModule {
       @Override
       public PublicKey deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException,
             JsonProcessingException {
-         ObjectCodec oc = jp.getCodec();
-         JsonNode node = oc.readTree(jp);
+         String text = jp.getText();
          byte[] pubKeyBytes;
          try {
-            pubKeyBytes = HexUtils.toBytes(node.asText());
+            pubKeyBytes = HexUtils.toBytes(text);
          } catch (RuntimeException e) {
-            throw new JsonParseException("Failed to convert string '" + node.asText() + "' into an public key bytes",
+            throw new JsonParseException("Failed to convert string '" + text + "' into an public key bytes",
                   JsonLocation.NA);
          }
          return new PublicKey(pubKeyBytes);
@@ -168,11 +162,10 @@ public class WapiJsonModule extends SimpleModule {
       @Override
       public Sha256Hash deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException,
             JsonProcessingException {
-         ObjectCodec oc = jp.getCodec();
-         JsonNode node = oc.readTree(jp);
-         Sha256Hash hash = Sha256Hash.fromString(node.asText());
+         String text = jp.getText();
+         Sha256Hash hash = Sha256Hash.fromString(text);
          if (hash == null) {
-            throw new JsonParseException("Failed to convert string '" + node.asText() + "' into a Sha256Hash instance",
+            throw new JsonParseException("Failed to convert string '" + text + "' into a Sha256Hash instance",
                   JsonLocation.NA);
          }
          return hash;
@@ -200,11 +193,10 @@ public class WapiJsonModule extends SimpleModule {
       @Override
       public OutPoint deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException,
             JsonProcessingException {
-         ObjectCodec oc = jp.getCodec();
-         JsonNode node = oc.readTree(jp);
-         OutPoint outPoint = OutPoint.fromString(node.asText());
+         String text = jp.getText();
+         OutPoint outPoint = OutPoint.fromString(text);
          if (outPoint == null) {
-            throw new JsonParseException("Failed to convert string '" + node.asText() + "' into an OutPoint instance",
+            throw new JsonParseException("Failed to convert string '" + text + "' into an OutPoint instance",
                   JsonLocation.NA);
          }
          return outPoint;
@@ -17,7 +17,13 @@
 package com.mycelium.wapi.wallet;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.mrd.bitlib.StandardTransactionBuilder;
+import com.mrd.bitlib.SignatureHashCalculator;
+import com.mrd.bitlib.TransactionUtils;
+import com.mrd.bitlib.UnspentOutputIndex;
 import com.mrd.bitlib.StandardTransactionBuilder.InsufficientFundsException;
 import com.mrd.bitlib.StandardTransactionBuilder.OutputTooSmallException;
 import com.mrd.bitlib.StandardTransactionBuilder.UnsignedTransaction;
@@ -28,6 +34,8 @@ import com.mrd.bitlib.util.BitUtils;
 import com.mrd.bitlib.util.ByteReader;
 import com.mrd.bitlib.util.HashUtils;
 import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.wapi.api.AsyncWapi;
+import com.mycelium.wapi.api.AsyncWapiAdapter;
 import com.mycelium.wapi.api.Wapi;
 import com.mycelium.wapi.api.WapiException;
 import com.mycelium.WapiLogger;
@@ -42,6 +50,7 @@ import com.mycelium.wapi.api.response.GetTransactionsResponse;
 import com.mycelium.wapi.api.response.QueryUnspentOutputsResponse;
 import com.mycelium.wapi.model.*;
 import com.mycelium.wapi.wallet.KeyCipher.InvalidKeyCipher;
+import com.mycelium.wapi.wallet.ParsedTransactionCache.ParsedTransaction;
 import com.mycelium.wapi.wallet.WalletManager.Event;
 import com.mycelium.wapi.wallet.currency.CurrencyBasedBalance;
 import com.mycelium.wapi.wallet.currency.CurrencyValue;
@@ -49,34 +58,87 @@ import com.mycelium.wapi.wallet.currency.ExactBitcoinValue;
 import com.mycelium.wapi.wallet.currency.ExactCurrencyValue;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 public abstract class AbstractAccount implements WalletAccount {
    public static final String USING_ARCHIVED_ACCOUNT = "Using archived account";
    protected static final int COINBASE_MIN_CONFIRMATIONS = 100;
+   private static final int MAX_PARSED_TRANSACTIONS_TO_CACHE = 1000;
+   // Every so many balance updates the running balance is checked against a full calculation
+   private static final int FULL_BALANCE_CHECK_INTERVAL = 50;
    private static final int MAX_TRANSACTIONS_TO_HANDLE_SIMULTANEOUSLY = 100;
 
    public interface EventHandler {
       void onEvent(UUID accountId, Event event);
    }
 
+   /**
+    * Gets told about the addresses an account starts or stops monitoring
+    */
+   public interface AddressListener {
+      void onAddressesAdded(UUID accountId, Collection<? extends Address> addresses);
+
+      void onAddressesCleared(UUID accountId);
+   }
+
    protected NetworkParameters _network;
    protected Wapi _wapi;
+   protected AsyncWapi _asyncWapi;
    protected WapiLogger _logger;
    private AccountBacking _backing;
    protected Balance _cachedBalance;
    private EventHandler _eventHandler;
+   private volatile AddressListener _addressListener;
    protected boolean _allowZeroConfSpending = true;      //on per default, we warn users if they use it
+   private boolean _verifyInputSignatures = false;
+   private Executor _signatureVerificationExecutor;
+   private Executor _signingExecutor;
+   // Maximum spendable amounts by miner fee, valid for the current set of spendable outputs
+   private final Map<Long, Long> _maxSpendableByMinerFee = new HashMap<Long, Long>();
+   private final ParsedTransactionCache _parsedTransactions;
+   private final BalanceLedger _balanceLedger;
+   private boolean _backingTransactionSuccessful;
+   private int _balanceUpdatesSinceFullCheck;
 
    protected AbstractAccount(AccountBacking backing, NetworkParameters network, Wapi wapi) {
       _network = network;
       _logger = wapi.getLogger();
       _wapi = wapi;
+      _asyncWapi = AsyncWapiAdapter.blocking(wapi);
       _backing = backing;
+      _parsedTransactions = new ParsedTransactionCache(network, MAX_PARSED_TRANSACTIONS_TO_CACHE);
+      _balanceLedger = new BalanceLedger(this, backing, _parsedTransactions);
    }
 
    @Override
    public void setAllowZeroConfSpending(boolean allowZeroConfSpending) {
       _allowZeroConfSpending = allowZeroConfSpending;
+      onSpendableOutputsChanged();
+   }
+
+   /**
+    * Enable or disable verification of the P2PKH input signatures of
+    * transactions received from the server. Transactions with an invalid
+    * input signature are logged and dropped.
+    *
+    * @param verifyInputSignatures whether to verify input signatures
+    * @param executor              the executor to spread the verification across, or null to verify on the calling
+    *                              thread
+    */
+   public void setVerifyInputSignatures(boolean verifyInputSignatures, Executor executor) {
+      _verifyInputSignatures = verifyInputSignatures;
+      _signatureVerificationExecutor = executor;
+   }
+
+   /**
+    * Set the executor to make the signatures of transactions on.
+    *
+    * @param executor the executor to spread the signing across, or null to sign on the calling thread
+    */
+   public void setSigningExecutor(Executor executor) {
+      _signingExecutor = executor;
    }
 
    /**
@@ -88,12 +150,93 @@ public abstract class AbstractAccount implements WalletAccount {
       _eventHandler = eventHandler;
    }
 
+   /**
+    * Set the asynchronous Wapi for this account to overlap independent calls with. Until this is set, calls complete
+    * before they return.
+    *
+    * @param asyncWapi the asynchronous Wapi to use
+    */
+   void setAsyncWapi(AsyncWapi asyncWapi) {
+      _asyncWapi = asyncWapi;
+   }
+
+   /**
+    * Wait for the response of an asynchronous call and get its result
+    *
+    * @throws WapiException if the call failed, was cancelled or threw. A WapiException thrown by the call is rethrown
+    *                       as is
+    */
+   protected <T> T getResult(ListenableFuture<WapiResponse<T>> response) throws WapiException {
+      try {
+         return Uninterruptibles.getUninterruptibly(response).getResult();
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof WapiException) {
+            WapiException wapiException = (WapiException) cause;
+            _logger.logError("Asynchronous Wapi call failed with error code: " + wapiException.errorCode, wapiException);
+            throw wapiException;
+         }
+         if (cause instanceof Exception) {
+            _logger.logError("Asynchronous Wapi call failed", (Exception) cause);
+         } else {
+            _logger.logError("Asynchronous Wapi call failed: " + cause);
+         }
+         throw new WapiException(Wapi.ERROR_CODE_INTERNAL_CLIENT_ERROR);
+      } catch (CancellationException e) {
+         throw new WapiException(Wapi.ERROR_CODE_INTERNAL_CLIENT_ERROR);
+      }
+   }
+
    protected void postEvent(Event event) {
       if (_eventHandler != null) {
          _eventHandler.onEvent(this.getId(), event);
       }
    }
 
+   /**
+    * Set the address listener for this account and tell it about all addresses currently monitored
+    *
+    * @param addressListener the address listener for this account
+    */
+   synchronized void setAddressListener(AddressListener addressListener) {
+      _addressListener = addressListener;
+      if (addressListener != null) {
+         addressListener.onAddressesAdded(getId(), getMonitoredAddresses());
+      }
+   }
+
+   /**
+    * Subclasses call this after they start monitoring additional addresses
+    */
+   protected void onAddressesAdded(Collection<? extends Address> addresses) {
+      if (addresses.isEmpty()) {
+         return;
+      }
+      // Which outputs are ours depends on the addresses, the running balance has to be built again
+      _balanceLedger.reset();
+      AddressListener addressListener = _addressListener;
+      if (addressListener != null) {
+         addressListener.onAddressesAdded(getId(), addresses);
+      }
+   }
+
+   /**
+    * Subclasses call this after they stop monitoring all of their addresses
+    */
+   protected void onAddressesCleared() {
+      _balanceLedger.reset();
+      AddressListener addressListener = _addressListener;
+      if (addressListener != null) {
+         addressListener.onAddressesCleared(getId());
+      }
+   }
+
+   /**
+    * Get all addresses this account monitors, which are exactly the addresses for which {@link #isMine(Address)}
+    * returns true
+    */
+   protected abstract Collection<Address> getMonitoredAddresses();
+
    /**
     * Determine whether a transaction was sent from one of our own addresses.
     * <p/>
@@ -105,11 +248,18 @@ public abstract class AbstractAccount implements WalletAccount {
     * addresses
     */
    protected boolean isFromMe(Sha256Hash txid) {
-      Transaction t = TransactionEx.toTransaction(_backing.getTransaction(txid));
-      if (t == null) {
+      ParsedTransaction parsed = _parsedTransactions.get(txid, _backing);
+      if (parsed == null) {
          return false;
       }
-      return isFromMe(t);
+      TransactionView t = parsed.transaction;
+      // Only the outpoints are needed, so the input scripts are never decoded
+      for (int i = 0; i < t.getInputCount(); i++) {
+         if (isFundedByMe(t.getOutPoint(i))) {
+            return true;
+         }
+      }
+      return false;
    }
 
    /**
@@ -124,19 +274,23 @@ public abstract class AbstractAccount implements WalletAccount {
     */
    protected boolean isFromMe(Transaction t) {
       for (TransactionInput input : t.inputs) {
-         TransactionOutputEx funding = _backing.getParentTransactionOutput(input.outPoint);
-         if (funding == null || funding.isCoinBase) {
-            continue;
-         }
-         ScriptOutput fundingScript = ScriptOutput.fromScriptBytes(funding.script);
-         Address fundingAddress = fundingScript.getAddress(_network);
-         if (isMine(fundingAddress)) {
+         if (isFundedByMe(input.outPoint)) {
             return true;
          }
       }
       return false;
    }
 
+   private boolean isFundedByMe(OutPoint outPoint) {
+      TransactionOutputEx funding = _backing.getParentTransactionOutput(outPoint);
+      if (funding == null || funding.isCoinBase) {
+         return false;
+      }
+      ScriptOutput fundingScript = ScriptOutput.fromScriptBytes(funding.script);
+      Address fundingAddress = fundingScript.getAddress(_network);
+      return isMine(fundingAddress);
+   }
+
    /**
     * Determine whether a transaction output was sent from one of our own
     * addresses
@@ -182,6 +336,7 @@ public abstract class AbstractAccount implements WalletAccount {
       Collection<TransactionOutputEx> remoteUnspent = UnspentOutputResponse.unspent;
       // Store the current block height
       setBlockChainHeight(UnspentOutputResponse.height);
+      onSpendableOutputsChanged();
       // Make a map for fast lookup
       Map<OutPoint, TransactionOutputEx> remoteMap = toMap(remoteUnspent);
 
@@ -197,7 +352,7 @@ public abstract class AbstractAccount implements WalletAccount {
             // An output has gone. Maybe it was spent in another wallet, or
             // never confirmed due to missing fees, double spend, or mutated.
             // Either way, we delete it locally
-            _backing.deleteUnspentOutput(l.outPoint);
+            deleteUnspentOutput(l.outPoint);
          }
       }
 
@@ -238,13 +393,63 @@ public abstract class AbstractAccount implements WalletAccount {
          // Finally update out list of unspent outputs with added or updated
          // outputs
          for (TransactionOutputEx output : unspentOutputsToAddOrUpdate) {
-            _backing.putUnspentOutput(output);
+            putUnspentOutput(output);
          }
       }
 
       return true;
    }
 
+   /*
+    * All changes to the unspent outputs and transactions in the backing go
+    * through these, so that the caches and the running balance follow them
+    */
+
+   private void putUnspentOutput(TransactionOutputEx output) {
+      _backing.putUnspentOutput(output);
+      _balanceLedger.onUnspentOutputPut(output);
+   }
+
+   private void deleteUnspentOutput(OutPoint outPoint) {
+      _backing.deleteUnspentOutput(outPoint);
+      _balanceLedger.onUnspentOutputDeleted(outPoint);
+   }
+
+   private void putTransaction(TransactionEx tex) {
+      _backing.putTransaction(tex);
+      _parsedTransactions.invalidate(tex.txid);
+      _balanceLedger.onTransactionPut(tex);
+   }
+
+   private void deleteStoredTransaction(Sha256Hash txid) {
+      _backing.deleteTransaction(txid);
+      _parsedTransactions.invalidate(txid);
+      _balanceLedger.onTransactionDeleted(txid);
+   }
+
+   /*
+    * Changes made within a backing transaction are applied to the running balance right away. If the backing
+    * transaction does not succeed, they are rolled back in the backing only, so the running balance is dropped and
+    * built again from the backing.
+    */
+
+   private void beginBackingTransaction() {
+      _backing.beginTransaction();
+      _backingTransactionSuccessful = false;
+   }
+
+   private void setBackingTransactionSuccessful() {
+      _backing.setTransactionSuccessful();
+      _backingTransactionSuccessful = true;
+   }
+
+   private void endBackingTransaction() {
+      _backing.endTransaction();
+      if (!_backingTransactionSuccessful) {
+         _balanceLedger.reset();
+      }
+   }
+
    protected static Map<OutPoint, TransactionOutputEx> toMap(Collection<TransactionOutputEx> list) {
       Map<OutPoint, TransactionOutputEx> map = new HashMap<OutPoint, TransactionOutputEx>();
       for (TransactionOutputEx t : list) {
@@ -254,48 +459,127 @@ public abstract class AbstractAccount implements WalletAccount {
    }
 
    protected void handleNewExternalTransactions(Collection<TransactionEx> transactions) throws WapiException {
-      if (transactions.size() <= MAX_TRANSACTIONS_TO_HANDLE_SIMULTANEOUSLY) {
-         handleNewExternalTransactionsInt(transactions);
-      } else {
-         // We have quite a list of transactions to handle, do it in batches
-         ArrayList<TransactionEx> all = new ArrayList<TransactionEx>(transactions);
-         for (int i = 0; i < all.size(); i += MAX_TRANSACTIONS_TO_HANDLE_SIMULTANEOUSLY) {
-            int endIndex = Math.min(all.size(), i + MAX_TRANSACTIONS_TO_HANDLE_SIMULTANEOUSLY);
-            List<TransactionEx> sub = all.subList(i, endIndex);
-            handleNewExternalTransactionsInt(sub);
+      // New transactions can make unconfirmed outputs spendable as change
+      onSpendableOutputsChanged();
+      // Transactions we are about to store need not be fetched when they are the parents of others. Their outputs
+      // are trusted as parent outputs just like fetched ones, so only those whose hash matches their ID are used,
+      // the others get fetched and validated.
+      Map<Sha256Hash, TransactionEx> known = new HashMap<Sha256Hash, TransactionEx>();
+      for (TransactionEx tex : transactions) {
+         if (HashUtils.doubleSha256(tex.binary).reverse().equals(tex.txid)) {
+            known.put(tex.txid, tex);
+         }
+      }
+      // We may have quite a list of transactions to handle, do it in batches. The parents of the next batch are
+      // fetched while the current one is handled.
+      ArrayList<TransactionEx> all = new ArrayList<TransactionEx>(transactions);
+      List<TransactionEx> batch = all.subList(0, Math.min(all.size(), MAX_TRANSACTIONS_TO_HANDLE_SIMULTANEOUSLY));
+      ArrayList<Transaction> txArray = parseTransactions(batch);
+      ListenableFuture<WapiResponse<GetTransactionsResponse>> parents = fetchParentTransactions(txArray, known);
+      for (int i = 0; i < all.size(); i += MAX_TRANSACTIONS_TO_HANDLE_SIMULTANEOUSLY) {
+         List<TransactionEx> currentBatch = batch;
+         ArrayList<Transaction> currentTxArray = txArray;
+         ListenableFuture<WapiResponse<GetTransactionsResponse>> currentParents = parents;
+         int nextIndex = i + MAX_TRANSACTIONS_TO_HANDLE_SIMULTANEOUSLY;
+         if (nextIndex < all.size()) {
+            batch = all.subList(nextIndex, Math.min(all.size(), nextIndex + MAX_TRANSACTIONS_TO_HANDLE_SIMULTANEOUSLY));
+            txArray = parseTransactions(batch);
+            parents = fetchParentTransactions(txArray, known);
          }
+         handleNewExternalTransactionsInt(currentBatch, currentTxArray, currentParents, known);
       }
    }
 
-   private void handleNewExternalTransactionsInt(Collection<TransactionEx> transactions) throws WapiException {
-      // Transform and put into two arrays with matching indexes
-      ArrayList<TransactionEx> texArray = new ArrayList<TransactionEx>(transactions.size());
+   /**
+    * Parse transactions, leaving out and logging those that cannot be parsed
+    *
+    * @return the parsed transactions, with null in place of those that cannot be parsed
+    */
+   private ArrayList<Transaction> parseTransactions(Collection<TransactionEx> transactions) {
       ArrayList<Transaction> txArray = new ArrayList<Transaction>(transactions.size());
       for (TransactionEx tex : transactions) {
          try {
             txArray.add(Transaction.fromByteReader(new ByteReader(tex.binary)));
-            texArray.add(tex);
          } catch (TransactionParsingException e) {
             // We hit a transaction that we cannot parse. Log but otherwise ignore it
             _logger.logError("Received transaction that we cannot parse: " + tex.txid.toString());
-            continue;
+            txArray.add(null);
+         }
+      }
+      return txArray;
+   }
+
+   private void handleNewExternalTransactionsInt(Collection<TransactionEx> transactions, ArrayList<Transaction> parsed,
+                                                 ListenableFuture<WapiResponse<GetTransactionsResponse>> parents,
+                                                 Map<Sha256Hash, TransactionEx> known) throws WapiException {
+      // Put into two arrays with matching indexes
+      ArrayList<TransactionEx> texArray = new ArrayList<TransactionEx>(transactions.size());
+      ArrayList<Transaction> txArray = new ArrayList<Transaction>(transactions.size());
+      Iterator<Transaction> it = parsed.iterator();
+      for (TransactionEx tex : transactions) {
+         Transaction t = it.next();
+         if (t != null) {
+            txArray.add(t);
+            texArray.add(tex);
          }
       }
 
       // Grab and handle parent transactions
-      fetchStoreAndValidateParentOutputs(txArray);
+      Map<OutPoint, TransactionOutputEx> parentOutputs = fetchStoreAndValidateParentOutputs(txArray, parents, known);
+
+      if (_verifyInputSignatures) {
+         removeTransactionsWithInvalidSignatures(texArray, txArray, parentOutputs);
+      }
 
       // Store transaction locally
       for (int i = 0; i < txArray.size(); i++) {
-         _backing.putTransaction(texArray.get(i));
+         putTransaction(texArray.get(i));
          onNewTransaction(texArray.get(i), txArray.get(i));
       }
    }
 
-   private void fetchStoreAndValidateParentOutputs(ArrayList<Transaction> transactions) throws WapiException {
+   /**
+    * Start fetching the parent transactions of transactions that are neither stored nor among the transactions about
+    * to be stored
+    *
+    * @param transactions the transactions to fetch the parents of, null entries are skipped
+    * @param known        the transactions about to be stored
+    * @return the response of the fetch, or null if there is nothing to fetch
+    */
+   private ListenableFuture<WapiResponse<GetTransactionsResponse>> fetchParentTransactions(
+         List<Transaction> transactions, Map<Sha256Hash, TransactionEx> known) {
+      Collection<Sha256Hash> toFetch = new HashSet<Sha256Hash>();
+      for (Transaction t : transactions) {
+         if (t == null) {
+            continue;
+         }
+         for (TransactionInput in : t.inputs) {
+            if (in.outPoint.hash.equals(OutPoint.COINBASE_OUTPOINT.hash) || known.containsKey(in.outPoint.hash)) {
+               continue;
+            }
+            if (_backing.getParentTransactionOutput(in.outPoint) == null
+                  && _backing.getTransaction(in.outPoint.hash) == null) {
+               toFetch.add(in.outPoint.hash);
+            }
+         }
+      }
+      if (toFetch.isEmpty()) {
+         return null;
+      }
+      return _asyncWapi.getTransactions(new GetTransactionsRequest(Wapi.VERSION, toFetch));
+   }
+
+   private Map<OutPoint, TransactionOutputEx> fetchStoreAndValidateParentOutputs(ArrayList<Transaction> transactions,
+                                                                                 ListenableFuture<WapiResponse<GetTransactionsResponse>> fetched,
+                                                                                 Map<Sha256Hash, TransactionEx> known) throws WapiException {
       Map<Sha256Hash, TransactionEx> parentTransactions = new HashMap<Sha256Hash, TransactionEx>();
       Map<OutPoint, TransactionOutputEx> parentOutputs = new HashMap<OutPoint, TransactionOutputEx>();
 
+      // Take the parent transactions fetched ahead of time
+      if (fetched != null) {
+         addValidatedTransactions(getResult(fetched).transactions, parentTransactions);
+      }
+
       // Find list of parent outputs to fetch
       Collection<Sha256Hash> toFetch = new HashSet<Sha256Hash>();
       for (Transaction t : transactions) {
@@ -311,7 +595,14 @@ public abstract class AbstractAccount implements WalletAccount {
                parentOutputs.put(parentOutput.outPoint, parentOutput);
                continue;
             }
+            if (parentTransactions.containsKey(in.outPoint.hash)) {
+               // Fetched ahead of time
+               continue;
+            }
             TransactionEx parentTransaction = _backing.getTransaction(in.outPoint.hash);
+            if (parentTransaction == null) {
+               parentTransaction = known.get(in.outPoint.hash);
+            }
             if (parentTransaction != null) {
                // We had the parent transaction in our own transactions, no need to
                // fetch it remotely
@@ -327,22 +618,7 @@ public abstract class AbstractAccount implements WalletAccount {
       if (toFetch.size() > 0) {
          GetTransactionsResponse result = _wapi.getTransactions(new GetTransactionsRequest(Wapi.VERSION, toFetch))
                .getResult();
-         for (TransactionEx tx : result.transactions) {
-            // Verify transaction hash. This is important as we don't want to
-            // have a transaction output associated with an outpoint that
-            // doesn't match.
-            // This is the end users protection against a rogue server that lies
-            // about the value of an output and makes you pay a large fee.
-            Sha256Hash hash = HashUtils.doubleSha256(tx.binary).reverse();
-            if (hash.equals(tx.txid)) {
-               parentTransactions.put(tx.txid, tx);
-            } else {
-               _logger.logError("Failed to validate transaction hash from server. Expected: " + tx.txid
-                     + " Calculated: " + hash);
-               throw new RuntimeException("Failed to validate transaction hash from server. Expected: " + tx.txid
-                     + " Calculated: " + hash);
-            }
-         }
+         addValidatedTransactions(result.transactions, parentTransactions);
       }
 
       // We should now have all parent transactions or parent outputs. There is
@@ -367,6 +643,7 @@ public abstract class AbstractAccount implements WalletAccount {
                // Parent output not found, maybe we already have it
                parentOutput = TransactionEx.getTransactionOutput(parentTex, in.outPoint.index);
                toPersist.add(parentOutput);
+               parentOutputs.put(in.outPoint, parentOutput);
                continue;
             }
             _logger.logError("Parent transaction not found: " + in.outPoint.hash);
@@ -377,6 +654,95 @@ public abstract class AbstractAccount implements WalletAccount {
       for (TransactionOutputEx output : toPersist) {
          _backing.putParentTransactionOutput(output);
       }
+      return parentOutputs;
+   }
+
+   private void addValidatedTransactions(Collection<TransactionEx> transactions, Map<Sha256Hash, TransactionEx> target) {
+      for (TransactionEx tx : transactions) {
+         // Verify transaction hash. This is important as we don't want to
+         // have a transaction output associated with an outpoint that
+         // doesn't match.
+         // This is the end users protection against a rogue server that lies
+         // about the value of an output and makes you pay a large fee.
+         Sha256Hash hash = HashUtils.doubleSha256(tx.binary).reverse();
+         if (hash.equals(tx.txid)) {
+            target.put(tx.txid, tx);
+         } else {
+            _logger.logError("Failed to validate transaction hash from server. Expected: " + tx.txid
+                  + " Calculated: " + hash);
+            throw new RuntimeException("Failed to validate transaction hash from server. Expected: " + tx.txid
+                  + " Calculated: " + hash);
+         }
+      }
+   }
+
+   /**
+    * Verify the signatures of all P2PKH inputs with a known parent output and
+    * remove the transactions that have an invalid one. Inputs of other types
+    * and inputs with other hash types than SIGHASH_ALL are not checked.
+    */
+   private void removeTransactionsWithInvalidSignatures(ArrayList<TransactionEx> texArray,
+                                                        ArrayList<Transaction> txArray,
+                                                        Map<OutPoint, TransactionOutputEx> parentOutputs) {
+      boolean[] invalid = new boolean[txArray.size()];
+      List<VerificationRequest> requests = new ArrayList<VerificationRequest>();
+      // The index of the transaction for every verification request
+      List<Integer> owners = new ArrayList<Integer>();
+      for (int i = 0; i < txArray.size(); i++) {
+         Transaction t = txArray.get(i);
+         SignatureHashCalculator hashCalculator = null;
+         for (int j = 0; j < t.inputs.length; j++) {
+            TransactionInput in = t.inputs[j];
+            if (!(in.script instanceof ScriptInputStandard)) {
+               continue;
+            }
+            ScriptInputStandard inScript = (ScriptInputStandard) in.script;
+            if (inScript.getHashType() != TransactionUtils.SIGHASH_ALL) {
+               continue;
+            }
+            TransactionOutputEx parentOutput = parentOutputs.get(in.outPoint);
+            if (parentOutput == null) {
+               continue;
+            }
+            ScriptOutput parentScript = ScriptOutput.fromScriptBytes(parentOutput.script);
+            if (!(parentScript instanceof ScriptOutputStandard)) {
+               continue;
+            }
+            PublicKey publicKey = new PublicKey(inScript.getPublicKeyBytes());
+            if (!Arrays.equals(publicKey.getPublicKeyHash(), ((ScriptOutputStandard) parentScript).getAddressBytes())) {
+               // The public key does not belong to the address that was paid
+               invalid[i] = true;
+               continue;
+            }
+            if (hashCalculator == null) {
+               hashCalculator = new SignatureHashCalculator(t);
+            }
+            Sha256Hash hash = hashCalculator.getHash(j, parentScript);
+            requests.add(new VerificationRequest(hash, inScript.getSignature(), publicKey));
+            owners.add(i);
+         }
+      }
+
+      boolean[] results;
+      if (_signatureVerificationExecutor == null) {
+         results = Signatures.verifyBatch(requests);
+      } else {
+         results = Signatures.verifyBatch(requests, _signatureVerificationExecutor);
+      }
+      for (int k = 0; k < results.length; k++) {
+         if (!results[k]) {
+            invalid[owners.get(k)] = true;
+         }
+      }
+
+      // Remove from the back so that the indexes stay valid
+      for (int i = invalid.length - 1; i >= 0; i--) {
+         if (invalid[i]) {
+            _logger.logError("Received transaction with an invalid input signature: " + texArray.get(i).txid);
+            texArray.remove(i);
+            txArray.remove(i);
+         }
+      }
    }
 
    protected Balance calculateLocalBalance() {
@@ -410,28 +776,29 @@ public abstract class AbstractAccount implements WalletAccount {
       //
 
       // Get the current set of unconfirmed transactions
-      List<Transaction> unconfirmed = new ArrayList<Transaction>();
+      List<ParsedTransaction> unconfirmed = new ArrayList<ParsedTransaction>();
       for (TransactionEx tex : _backing.getUnconfirmedTransactions()) {
-         try {
-            Transaction t = Transaction.fromByteReader(new ByteReader(tex.binary));
-            unconfirmed.add(t);
-         } catch (TransactionParsingException e) {
-            // never happens, we have parsed it before
+         ParsedTransaction parsed = _parsedTransactions.get(tex);
+         if (parsed != null) {
+            // never null, we have parsed it before
+            unconfirmed.add(parsed);
          }
       }
 
-      for (Transaction t : unconfirmed) {
+      for (ParsedTransaction parsed : unconfirmed) {
+         TransactionView t = parsed.transaction;
          // For each input figure out if WE are sending it by fetching the
          // parent transaction and looking at the address
          boolean weSend = false;
-         for (TransactionInput input : t.inputs) {
+         for (int i = 0; i < t.getInputCount(); i++) {
+            OutPoint inputOutPoint = t.getOutPoint(i);
             // Find the parent transaction
-            if (input.outPoint.hash.equals(Sha256Hash.ZERO_HASH)) {
+            if (inputOutPoint.hash.equals(Sha256Hash.ZERO_HASH)) {
                continue;
             }
-            TransactionOutputEx parent = _backing.getParentTransactionOutput(input.outPoint);
+            TransactionOutputEx parent = _backing.getParentTransactionOutput(inputOutPoint);
             if (parent == null) {
-               _logger.logError("Unable to find parent transaction output: " + input.outPoint);
+               _logger.logError("Unable to find parent transaction output: " + inputOutPoint);
                continue;
             }
             TransactionOutput parentOutput = transform(parent);
@@ -445,9 +812,9 @@ public abstract class AbstractAccount implements WalletAccount {
 
          // Now look at the outputs and if it contains change for us, then subtract that from the sending amount
          // if it is already spent in another transaction
-         for (int i = 0; i < t.outputs.length; i++) {
-            TransactionOutput output = t.outputs[i];
-            Address destination = output.script.getAddress(_network);
+         for (int i = 0; i < parsed.outputs.length; i++) {
+            TransactionOutput output = parsed.outputs[i];
+            Address destination = parsed.outputAddresses[i];
             if (weSend && isMine(destination)) {
                // The funds are sent from us to us
                OutPoint outPoint = new OutPoint(t.getHash(), i);
@@ -494,7 +861,7 @@ public abstract class AbstractAccount implements WalletAccount {
          }else{
             if (result == BroadcastResult.REJECTED) {
                // invalid tx
-               _backing.deleteTransaction(tex.txid);
+               deleteStoredTransaction(tex.txid);
                _backing.removeOutgoingTransaction(tex.txid);
             }else{
                // No connection --> retry next sync
@@ -599,11 +966,31 @@ public abstract class AbstractAccount implements WalletAccount {
       if (!isValidEncryptionKey(cipher)) {
          throw new InvalidKeyCipher();
       }
+      return signTransaction(unsigned, new PrivateKeyRing(cipher));
+   }
+
+   /**
+    * Sign a transaction with the signers of a private key ring
+    *
+    * @param unsigned the transaction to sign
+    * @param keyRing  the key ring holding a signer for every input
+    * @return the signed transaction
+    */
+   protected Transaction signTransaction(UnsignedTransaction unsigned, IPrivateKeyRing keyRing) {
       // Make all signatures, this is the CPU intensive part
-      List<byte[]> signatures = StandardTransactionBuilder.generateSignatures(
-            unsigned.getSignatureInfo(),
-            new PrivateKeyRing(cipher)
-      );
+      List<byte[]> signatures;
+      if (_signingExecutor == null) {
+         signatures = StandardTransactionBuilder.generateSignatures(
+               unsigned.getSignatureInfo(),
+               keyRing
+         );
+      } else {
+         signatures = StandardTransactionBuilder.generateSignatures(
+               unsigned.getSignatureInfo(),
+               keyRing,
+               _signingExecutor
+         );
+      }
 
       // Apply signatures and finalize transaction
       Transaction transaction = StandardTransactionBuilder.finalizeTransaction(unsigned, signatures);
@@ -623,7 +1010,7 @@ public abstract class AbstractAccount implements WalletAccount {
       TransactionEx tex = _backing.getTransaction(transactionId);
       if (tex == null) return false;
       Transaction tx = TransactionEx.toTransaction(tex);
-      _backing.beginTransaction();
+      beginBackingTransaction();
       try {
          // See if any of the outputs are stored locally and remove them
          for (int i = 0; i < tx.outputs.length; i++) {
@@ -631,14 +1018,14 @@ public abstract class AbstractAccount implements WalletAccount {
             OutPoint outPoint = new OutPoint(tx.getHash(), i);
             TransactionOutputEx utxo = _backing.getUnspentOutput(outPoint);
             if (utxo != null) {
-               _backing.deleteUnspentOutput(outPoint);
+               deleteUnspentOutput(outPoint);
             }
          }
          // remove it from the backing
-         _backing.deleteTransaction(transactionId);
-         _backing.setTransactionSuccessful();
+         deleteStoredTransaction(transactionId);
+         setBackingTransactionSuccessful();
       } finally {
-         _backing.endTransaction();
+         endBackingTransaction();
       }
       updateLocalBalance(); //will still need a new sync besides re-calculating
       return true;
@@ -659,7 +1046,7 @@ public abstract class AbstractAccount implements WalletAccount {
          return false;
       }
 
-      _backing.beginTransaction();
+      beginBackingTransaction();
       try {
 
          // See if any of the outputs are stored locally and remove them
@@ -668,7 +1055,7 @@ public abstract class AbstractAccount implements WalletAccount {
             OutPoint outPoint = new OutPoint(tx.getHash(), i);
             TransactionOutputEx utxo = _backing.getUnspentOutput(outPoint);
             if (utxo != null) {
-               _backing.deleteUnspentOutput(outPoint);
+               deleteUnspentOutput(outPoint);
             }
          }
 
@@ -676,10 +1063,10 @@ public abstract class AbstractAccount implements WalletAccount {
          _backing.removeOutgoingTransaction(transaction);
 
          // remove it from the backing
-         _backing.deleteTransaction(transaction);
-         _backing.setTransactionSuccessful();
+         deleteStoredTransaction(transaction);
+         setBackingTransactionSuccessful();
       }finally {
-         _backing.endTransaction();
+         endBackingTransaction();
       }
 
       // calc the new balance to remove the outgoing amount
@@ -692,13 +1079,13 @@ public abstract class AbstractAccount implements WalletAccount {
    }
 
    private void markTransactionAsSpent(Transaction transaction) {
-      _backing.beginTransaction();
+      beginBackingTransaction();
       try {
          // Remove inputs from unspent, marking them as spent
          for (TransactionInput input : transaction.inputs) {
             TransactionOutputEx parentOutput = _backing.getUnspentOutput(input.outPoint);
             if (parentOutput != null) {
-               _backing.deleteUnspentOutput(input.outPoint);
+               deleteUnspentOutput(input.outPoint);
                _backing.putParentTransactionOutput(parentOutput);
             }
          }
@@ -708,17 +1095,17 @@ public abstract class AbstractAccount implements WalletAccount {
          for (int i = 0; i < transaction.outputs.length; i++) {
             TransactionOutput output = transaction.outputs[i];
             if (isMine(output.script)) {
-               _backing.putUnspentOutput(new TransactionOutputEx(new OutPoint(transaction.getHash(), i), -1,
+               putUnspentOutput(new TransactionOutputEx(new OutPoint(transaction.getHash(), i), -1,
                      output.value, output.script.getScriptBytes(), false));
             }
          }
 
          // Store transaction locally, so we have it in our history and don't
          // need to fetch it in a minute
-         _backing.putTransaction(TransactionEx.fromUnconfirmedTransaction(transaction));
-         _backing.setTransactionSuccessful();
+         putTransaction(TransactionEx.fromUnconfirmedTransaction(transaction));
+         setBackingTransactionSuccessful();
       } finally {
-         _backing.endTransaction();
+         endBackingTransaction();
       }
 
       // Tell account that we have a new transaction
@@ -784,42 +1171,40 @@ public abstract class AbstractAccount implements WalletAccount {
    @Override
    public synchronized ExactCurrencyValue calculateMaxSpendableAmount(long minerFeeToUse) {
       checkNotArchived();
-      Collection<UnspentTransactionOutput> spendableOutputs = transform(getSpendableOutputs());
-      long satoshis = 0;
-      for (UnspentTransactionOutput output : spendableOutputs) {
-         satoshis += output.value;
-      }
-      // Iteratively figure out whether we can send everything by subtracting
-      // the miner fee for every iteration
-      while (true) {
-         satoshis -= minerFeeToUse;
-         if (satoshis <= 0) {
-            return ExactBitcoinValue.ZERO;
-         }
+      Long satoshis = _maxSpendableByMinerFee.get(minerFeeToUse);
+      if (satoshis == null) {
+         UnspentOutputIndex spendable = new UnspentOutputIndex(transform(getSpendableOutputs()));
+         satoshis = StandardTransactionBuilder.calculateMaxSpendable(spendable, minerFeeToUse);
+         _maxSpendableByMinerFee.put(minerFeeToUse, satoshis);
+      }
+      if (satoshis == 0) {
+         return ExactBitcoinValue.ZERO;
+      }
+      return ExactBitcoinValue.from(satoshis);
+   }
 
-         // Create transaction builder
-         StandardTransactionBuilder stb = new StandardTransactionBuilder(_network);
+   /**
+    * Drop everything that was derived from the set of spendable outputs. Must be called whenever the unspent outputs,
+    * the block height or the zero confirmation policy may have changed.
+    */
+   protected synchronized void onSpendableOutputsChanged() {
+      _maxSpendableByMinerFee.clear();
+   }
 
-         // Try and add the output
-         try {
-            // Note, null address used here, we just use it for measuring the
-            // transaction size
-            stb.addOutput(Address.getNullAddress(_network), satoshis);
-         } catch (OutputTooSmallException e1) {
-            // The amount we try to send is lower than what the network allows
-            return ExactBitcoinValue.ZERO;
-         }
+   /**
+    * Drop everything that was derived from the account backing. Must be called after the backing has been cleared.
+    */
+   protected void onBackingCleared() {
+      _parsedTransactions.invalidateAll();
+      _balanceLedger.reset();
+      onSpendableOutputsChanged();
+   }
 
-         // Try to create an unsigned transaction
-         try {
-            stb.createUnsignedTransaction(spendableOutputs, getChangeAddress(), new PublicKeyRing(), _network, minerFeeToUse);
-            // We have enough to pay the fees, return the amount as the maximum
-            return ExactBitcoinValue.from(satoshis);
-         } catch (InsufficientFundsException e) {
-            // We cannot send this amount, try again with a little higher fee
-            continue;
-         }
-      }
+   /**
+    * Get the statistics of the cache of parsed transactions, including its hit rate
+    */
+   public CacheStats getParsedTransactionCacheStats() {
+      return _parsedTransactions.getStats();
    }
 
    protected abstract InMemoryPrivateKey getPrivateKeyForAddress(Address address, KeyCipher cipher)
@@ -888,7 +1273,21 @@ public abstract class AbstractAccount implements WalletAccount {
     * @return true if the balance changed, false otherwise
     */
    protected boolean updateLocalBalance() {
-      Balance balance = calculateLocalBalance();
+      onSpendableOutputsChanged();
+      Balance balance = _balanceLedger.getBalance(getBlockChainHeight(), _allowZeroConfSpending);
+      if (++_balanceUpdatesSinceFullCheck >= FULL_BALANCE_CHECK_INTERVAL) {
+         _balanceUpdatesSinceFullCheck = 0;
+         Balance calculated = calculateLocalBalance();
+         if (calculated.confirmed != balance.confirmed || calculated.pendingReceiving != balance.pendingReceiving
+               || calculated.pendingSending != balance.pendingSending
+               || calculated.pendingChange != balance.pendingChange) {
+            // Should not happen, the ledger is kept in step with the backing and the addresses. This is only a
+            // safety net against a running total drifting away unnoticed
+            _logger.logInfo("Running balance differs from the calculated balance, rebuilding it");
+            _balanceLedger.rebuild();
+            balance = calculated;
+         }
+      }
       if (!balance.equals(_cachedBalance)) {
          _cachedBalance = balance;
          postEvent(Event.BALANCE_CHANGED);
@@ -898,36 +1297,36 @@ public abstract class AbstractAccount implements WalletAccount {
    }
 
    protected TransactionSummary transform(TransactionEx tex, int blockChainHeight) {
-      Transaction tx;
-      try {
-         tx = Transaction.fromByteReader(new ByteReader(tex.binary));
-      } catch (TransactionParsingException e) {
+      ParsedTransaction parsed = _parsedTransactions.get(tex);
+      if (parsed == null) {
          // Should not happen as we have parsed the transaction earlier
          _logger.logError("Unable to parse ");
          return null;
       }
-      return transform(tx, tex.time, tex.height, blockChainHeight);
+      return transform(parsed, tex.time, tex.height, blockChainHeight);
    }
 
-   protected TransactionSummary transform(Transaction tx, int time, int height, int blockChainHeight) {
+   protected TransactionSummary transform(ParsedTransaction parsed, int time, int height, int blockChainHeight) {
+      TransactionView tx = parsed.transaction;
       long value = 0;
       Address destAddress = null;
-      for (TransactionOutput output : tx.outputs) {
-         if (isMine(output.script)) {
-            value += output.value;
+      for (int i = 0; i < parsed.outputs.length; i++) {
+         if (isMine(parsed.outputAddresses[i])) {
+            value += parsed.outputs[i].value;
          }else{
-            destAddress = output.script.getAddress(_network);
+            destAddress = parsed.outputAddresses[i];
          }
       }
 
       if (tx.isCoinbase()) {
          // For coinbase transactions there is nothing to subtract
       } else {
-         for (TransactionInput input : tx.inputs) {
+         for (int i = 0; i < tx.getInputCount(); i++) {
+            OutPoint inputOutPoint = tx.getOutPoint(i);
             // find parent output
-            TransactionOutputEx funding = _backing.getParentTransactionOutput(input.outPoint);
+            TransactionOutputEx funding = _backing.getParentTransactionOutput(inputOutPoint);
             if (funding == null) {
-               _logger.logError("Unable to find parent output for: " + input.outPoint);
+               _logger.logError("Unable to find parent output for: " + inputOutPoint);
                continue;
             }
             if (isMine(funding)) {
@@ -1020,11 +1419,11 @@ public abstract class AbstractAccount implements WalletAccount {
                   queueTransaction(transaction);
                } catch (TransactionParsingException ignore) {
                   // ignore this tx and just delete it
-                  _backing.deleteTransaction(t.txid);
+                  deleteStoredTransaction(t.txid);
                }
             } else {
                // we haven't found it locally (shouldn't happen here) - so delete it to be sure
-               _backing.deleteTransaction(t.txid);
+               deleteStoredTransaction(t.txid);
             }
             continue;
          }
@@ -1036,8 +1435,8 @@ public abstract class AbstractAccount implements WalletAccount {
             TransactionEx newTex = new TransactionEx(tex.txid, t.height, t.time, tex.binary);
             _logger.logInfo(String.format("Replacing: %s With: %s", tex.toString(), newTex.toString()));
             postEvent(Event.TRANSACTION_HISTORY_CHANGED);
-            _backing.deleteTransaction(tex.txid);
-            _backing.putTransaction(newTex);
+            deleteStoredTransaction(tex.txid);
+            putTransaction(newTex);
          }
       }
       return true;
@@ -1105,26 +1504,29 @@ public abstract class AbstractAccount implements WalletAccount {
       // accounts. That should be ok as we write to the DB in a sane order.
 
       TransactionEx tex = _backing.getTransaction(txid);
-      Transaction tx = TransactionEx.toTransaction(tex);
-      if (tx == null) {
+      if (tex == null) {
          throw new RuntimeException();
       }
+      ParsedTransaction parsed = _parsedTransactions.get(tex);
+      if (parsed == null) {
+         throw new RuntimeException("Unable to parse transaction " + txid);
+      }
+      TransactionView tx = parsed.transaction;
 
-      List<TransactionDetails.Item> inputs = new ArrayList<TransactionDetails.Item>(tx.inputs.length);
+      List<TransactionDetails.Item> inputs = new ArrayList<TransactionDetails.Item>(tx.getInputCount());
       if (tx.isCoinbase()) {
          // We have a coinbase transaction. Create one input with the sum of the outputs as its value,
          // and make the address the null address
          long value = 0;
-         for (TransactionOutput out : tx.outputs) {
-            value += out.value;
+         for (int i = 0; i < tx.getOutputCount(); i++) {
+            value += tx.getOutputValue(i);
          }
          inputs.add(new TransactionDetails.Item(Address.getNullAddress(_network), value, true));
       } else {
          // Populate the inputs
-         for (TransactionInput input : tx.inputs) {
-            Sha256Hash parentHash = input.outPoint.hash;
+         for (int i = 0; i < tx.getInputCount(); i++) {
             // Get the parent transaction
-            TransactionOutputEx parentOutput = _backing.getParentTransactionOutput(input.outPoint);
+            TransactionOutputEx parentOutput = _backing.getParentTransactionOutput(tx.getOutPoint(i));
             if (parentOutput == null) {
                // We never heard about the parent, skip
                continue;
@@ -1142,10 +1544,9 @@ public abstract class AbstractAccount implements WalletAccount {
          }
       }
       // Populate the outputs
-      TransactionDetails.Item[] outputs = new TransactionDetails.Item[tx.outputs.length];
-      for (int i = 0; i < tx.outputs.length; i++) {
-         Address address = tx.outputs[i].script.getAddress(_network);
-         outputs[i] = new TransactionDetails.Item(address, tx.outputs[i].value, false);
+      TransactionDetails.Item[] outputs = new TransactionDetails.Item[parsed.outputs.length];
+      for (int i = 0; i < parsed.outputs.length; i++) {
+         outputs[i] = new TransactionDetails.Item(parsed.outputAddresses[i], parsed.outputs[i].value, false);
       }
 
       return new TransactionDetails(txid, tex.height, tex.time, inputs.toArray(new TransactionDetails.Item[]{}), outputs);
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mycelium.wapi.wallet;
+
+import com.google.common.collect.ImmutableList;
+import com.mrd.bitlib.model.Address;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An index from the addresses monitored by accounts to the IDs of the accounts monitoring them.
+ * <p/>
+ * Lookups take no lock. Accounts keep the index up to date through {@link AbstractAccount.AddressListener} as they
+ * add look-ahead addresses or are cleared, while the wallet manager removes accounts it deletes. An address usually
+ * belongs to one account, but may be monitored by several, for instance by an HD account and a single address account
+ * of one of its keys.
+ */
+class AccountAddressIndex implements AbstractAccount.AddressListener {
+
+   // The lists are never modified, only replaced, so that readers always see a consistent list
+   private final ConcurrentMap<Address, List<UUID>> _accountsByAddress = new ConcurrentHashMap<Address, List<UUID>>();
+   // Guarded by this
+   private final Map<UUID, Set<Address>> _addressesByAccount = new HashMap<UUID, Set<Address>>();
+
+   /**
+    * Get the IDs of the accounts monitoring an address
+    *
+    * @param address the address to look up
+    * @return the IDs of the accounts monitoring the address, empty if there are none
+    */
+   List<UUID> getAccountIds(Address address) {
+      List<UUID> accountIds = _accountsByAddress.get(address);
+      return accountIds == null ? ImmutableList.<UUID>of() : accountIds;
+   }
+
+   @Override
+   public synchronized void onAddressesAdded(UUID accountId, Collection<? extends Address> addresses) {
+      Set<Address> accountAddresses = _addressesByAccount.get(accountId);
+      if (accountAddresses == null) {
+         accountAddresses = new HashSet<Address>();
+         _addressesByAccount.put(accountId, accountAddresses);
+      }
+      for (Address address : addresses) {
+         if (!accountAddresses.add(address)) {
+            continue;
+         }
+         List<UUID> accountIds = _accountsByAddress.get(address);
+         if (accountIds == null) {
+            _accountsByAddress.put(address, ImmutableList.of(accountId));
+         } else {
+            _accountsByAddress.put(address, ImmutableList.<UUID>builder().addAll(accountIds).add(accountId).build());
+         }
+      }
+   }
+
+   @Override
+   public synchronized void onAddressesCleared(UUID accountId) {
+      remove(accountId);
+   }
+
+   /**
+    * Remove all addresses of an account from the index
+    *
+    * @param accountId the ID of the account to remove
+    */
+   synchronized void remove(UUID accountId) {
+      Set<Address> accountAddresses = _addressesByAccount.remove(accountId);
+      if (accountAddresses == null) {
+         return;
+      }
+      for (Address address : accountAddresses) {
+         List<UUID> accountIds = _accountsByAddress.get(address);
+         if (accountIds.size() == 1) {
+            _accountsByAddress.remove(address);
+         } else {
+            ImmutableList.Builder<UUID> remaining = ImmutableList.builder();
+            for (UUID id : accountIds) {
+               if (!id.equals(accountId)) {
+                  remaining.add(id);
+               }
+            }
+            _accountsByAddress.put(address, remaining.build());
+         }
+      }
+   }
+
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mycelium.wapi.wallet;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.mrd.bitlib.model.Address;
+import com.mrd.bitlib.model.OutPoint;
+import com.mrd.bitlib.model.ScriptOutput;
+import com.mrd.bitlib.model.TransactionView;
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.wapi.model.Balance;
+import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.model.TransactionOutputEx;
+import com.mycelium.wapi.wallet.ParsedTransactionCache.ParsedTransaction;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Running totals of the balance of an account, updated as unspent outputs and transactions are put into and deleted
+ * from the account backing.
+ * <p/>
+ * The totals are the same as those of a full balance calculation over the backing, as long as the addresses of the
+ * account do not change in between. Accounts should therefore compare them with a full calculation now and then,
+ * and rebuild the ledger if they differ.
+ * <p/>
+ * The ledger is not thread safe. The account calls it while holding its own lock.
+ */
+class BalanceLedger {
+
+   private static final int CONFIRMED = 0;
+   private static final int PENDING_RECEIVING = 1;
+   private static final int PENDING_CHANGE = 2;
+
+   /**
+    * What an unconfirmed transaction that we send contributes to the amount we are sending
+    */
+   private static class Sending {
+      private final long value;
+      // Our own outputs of the transaction with their values
+      private final Map<OutPoint, Long> selfOutputs;
+
+      private Sending(long value, Map<OutPoint, Long> selfOutputs) {
+         this.value = value;
+         this.selfOutputs = selfOutputs;
+      }
+   }
+
+   private static class Unspent {
+      private final long value;
+      private final int category;
+
+      private Unspent(long value, int category) {
+         this.value = value;
+         this.category = category;
+      }
+   }
+
+   private final AbstractAccount _account;
+   private final AccountBacking _backing;
+   private final ParsedTransactionCache _parsedTransactions;
+   private boolean _initialized;
+
+   private final Map<OutPoint, Unspent> _unspent = new HashMap<OutPoint, Unspent>();
+   // Unconfirmed unspent outputs by the ID of their transaction, whose category depends on that transaction
+   private final SetMultimap<Sha256Hash, OutPoint> _unconfirmedUnspent = HashMultimap.create();
+   private final Map<Sha256Hash, Sending> _sending = new HashMap<Sha256Hash, Sending>();
+   private final Map<OutPoint, Long> _selfOutputs = new HashMap<OutPoint, Long>();
+   private final long[] _unspentTotals = new long[3];
+   private long _sendingTotal;
+   private long _selfOutputTotal;
+   private long _selfOutputUnspentTotal;
+
+   BalanceLedger(AbstractAccount account, AccountBacking backing, ParsedTransactionCache parsedTransactions) {
+      _account = account;
+      _backing = backing;
+      _parsedTransactions = parsedTransactions;
+   }
+
+   /**
+    * Get the balance from the running totals, building them from the backing first if needed
+    */
+   Balance getBalance(int blockHeight, boolean allowZeroConfSpending) {
+      if (!_initialized) {
+         rebuild();
+      }
+      long pendingSending = _sendingTotal - _selfOutputTotal + _selfOutputUnspentTotal;
+      return new Balance(_unspentTotals[CONFIRMED], _unspentTotals[PENDING_RECEIVING], pendingSending,
+            _unspentTotals[PENDING_CHANGE], System.currentTimeMillis(), blockHeight, true, allowZeroConfSpending);
+   }
+
+   /**
+    * Drop the running totals and build them again from everything in the backing
+    */
+   void rebuild() {
+      reset();
+      _initialized = true;
+      for (TransactionEx tex : _backing.getUnconfirmedTransactions()) {
+         addTransaction(tex);
+      }
+      for (TransactionOutputEx output : _backing.getAllUnspentOutputs()) {
+         addUnspentOutput(output);
+      }
+   }
+
+   /**
+    * Drop the running totals. They are built again from the backing the next time the balance is needed.
+    */
+   void reset() {
+      _initialized = false;
+      _unspent.clear();
+      _unconfirmedUnspent.clear();
+      _sending.clear();
+      _selfOutputs.clear();
+      _unspentTotals[CONFIRMED] = 0;
+      _unspentTotals[PENDING_RECEIVING] = 0;
+      _unspentTotals[PENDING_CHANGE] = 0;
+      _sendingTotal = 0;
+      _selfOutputTotal = 0;
+      _selfOutputUnspentTotal = 0;
+   }
+
+   void onUnspentOutputPut(TransactionOutputEx output) {
+      if (!_initialized) {
+         return;
+      }
+      removeUnspentOutput(output.outPoint);
+      addUnspentOutput(output);
+   }
+
+   void onUnspentOutputDeleted(OutPoint outPoint) {
+      if (!_initialized) {
+         return;
+      }
+      removeUnspentOutput(outPoint);
+   }
+
+   void onTransactionPut(TransactionEx tex) {
+      if (!_initialized) {
+         return;
+      }
+      removeTransaction(tex.txid);
+      addTransaction(tex);
+      reclassifyUnspentOutputs(tex.txid);
+   }
+
+   void onTransactionDeleted(Sha256Hash txid) {
+      if (!_initialized) {
+         return;
+      }
+      removeTransaction(txid);
+      reclassifyUnspentOutputs(txid);
+   }
+
+   private void addUnspentOutput(TransactionOutputEx output) {
+      int category;
+      if (output.height == -1) {
+         category = _account.isFromMe(output.outPoint.hash) ? PENDING_CHANGE : PENDING_RECEIVING;
+         _unconfirmedUnspent.put(output.outPoint.hash, output.outPoint);
+      } else {
+         category = CONFIRMED;
+      }
+      _unspent.put(output.outPoint, new Unspent(output.value, category));
+      _unspentTotals[category] += output.value;
+      Long selfOutputValue = _selfOutputs.get(output.outPoint);
+      if (selfOutputValue != null) {
+         _selfOutputUnspentTotal += selfOutputValue;
+      }
+   }
+
+   private void removeUnspentOutput(OutPoint outPoint) {
+      Unspent unspent = _unspent.remove(outPoint);
+      if (unspent == null) {
+         return;
+      }
+      _unspentTotals[unspent.category] -= unspent.value;
+      _unconfirmedUnspent.remove(outPoint.hash, outPoint);
+      Long selfOutputValue = _selfOutputs.get(outPoint);
+      if (selfOutputValue != null) {
+         _selfOutputUnspentTotal -= selfOutputValue;
+      }
+   }
+
+   /**
+    * Whether unconfirmed outputs are change depends on the transaction they belong to
+    */
+   private void reclassifyUnspentOutputs(Sha256Hash txid) {
+      if (!_unconfirmedUnspent.containsKey(txid)) {
+         return;
+      }
+      int category = _account.isFromMe(txid) ? PENDING_CHANGE : PENDING_RECEIVING;
+      for (OutPoint outPoint : _unconfirmedUnspent.get(txid)) {
+         Unspent unspent = _unspent.get(outPoint);
+         if (unspent.category != category) {
+            _unspentTotals[unspent.category] -= unspent.value;
+            _unspentTotals[category] += unspent.value;
+            _unspent.put(outPoint, new Unspent(unspent.value, category));
+         }
+      }
+   }
+
+   private void addTransaction(TransactionEx tex) {
+      if (tex.height != -1) {
+         // Only unconfirmed transactions count as sending
+         return;
+      }
+      ParsedTransaction parsed = _parsedTransactions.get(tex);
+      if (parsed == null) {
+         return;
+      }
+      TransactionView t = parsed.transaction;
+      // Figure out if WE are sending by looking at the addresses of the funding outputs
+      long value = 0;
+      boolean weSend = false;
+      for (int i = 0; i < t.getInputCount(); i++) {
+         OutPoint inputOutPoint = t.getOutPoint(i);
+         if (inputOutPoint.hash.equals(Sha256Hash.ZERO_HASH)) {
+            continue;
+         }
+         TransactionOutputEx parent = _backing.getParentTransactionOutput(inputOutPoint);
+         if (parent == null) {
+            continue;
+         }
+         Address fundingAddress = ScriptOutput.fromScriptBytes(parent.script).getAddress(_account.getNetwork());
+         if (_account.isMine(fundingAddress)) {
+            value += parent.value;
+            weSend = true;
+         }
+      }
+      if (!weSend) {
+         return;
+      }
+      // Funds we send to ourselves only count as sent once they are spent again
+      Map<OutPoint, Long> selfOutputs = new HashMap<OutPoint, Long>();
+      for (int i = 0; i < parsed.outputs.length; i++) {
+         if (_account.isMine(parsed.outputAddresses[i])) {
+            OutPoint outPoint = new OutPoint(t.getHash(), i);
+            long outputValue = parsed.outputs[i].value;
+            selfOutputs.put(outPoint, outputValue);
+            _selfOutputs.put(outPoint, outputValue);
+            _selfOutputTotal += outputValue;
+            if (_unspent.containsKey(outPoint)) {
+               _selfOutputUnspentTotal += outputValue;
+            }
+         }
+      }
+      _sending.put(tex.txid, new Sending(value, selfOutputs));
+      _sendingTotal += value;
+   }
+
+   private void removeTransaction(Sha256Hash txid) {
+      Sending sending = _sending.remove(txid);
+      if (sending == null) {
+         return;
+      }
+      _sendingTotal -= sending.value;
+      for (Map.Entry<OutPoint, Long> selfOutput : sending.selfOutputs.entrySet()) {
+         _selfOutputs.remove(selfOutput.getKey());
+         _selfOutputTotal -= selfOutput.getValue();
+         if (_unspent.containsKey(selfOutput.getKey())) {
+            _selfOutputUnspentTotal -= selfOutput.getValue();
+         }
+      }
+   }
+
+}
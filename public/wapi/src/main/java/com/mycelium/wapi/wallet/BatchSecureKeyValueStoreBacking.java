@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mycelium.wapi.wallet;
+
+import java.util.List;
+
+/**
+ * A {@link SecureKeyValueStoreBacking} that can read and write many values in one go, for instance in a single
+ * database transaction.
+ * <p/>
+ * Backings that do not implement this get the values one by one from {@link SecureKeyValueStore}.
+ */
+public interface BatchSecureKeyValueStoreBacking extends SecureKeyValueStoreBacking {
+
+   /**
+    * Get the values of a number of IDs.
+    *
+    * @param ids The IDs to get the values for
+    * @return The values in the same order as the IDs, with null for IDs that have no value
+    */
+   List<byte[]> getValues(List<byte[]> ids);
+
+   List<byte[]> getValues(List<byte[]> ids, int subId);
+
+   /**
+    * Store the values for a number of IDs, overwriting any values stored under the same IDs.
+    *
+    * @param ids    The IDs to store values under
+    * @param values The values to store, in the same order as the IDs
+    */
+   void setValues(List<byte[]> ids, List<byte[]> values);
+
+   void setValues(List<byte[]> ids, int subId, List<byte[]> values);
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mycelium.wapi.wallet;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.mrd.bitlib.crypto.HdKeyNode;
+import com.mycelium.wapi.wallet.AccountScanManager.AccountCallback;
+import com.mycelium.wapi.wallet.AccountScanManager.HdKeyNodeWrapper;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Scans HD accounts for activity when restoring a seed or a hardware wallet, probing a window of account indexes at
+ * the same time instead of one account after the other.
+ * <p/>
+ * The account keys are fetched one after the other on the scanning thread, as hardware wallets cannot be asked from
+ * several threads. Only checking the accounts for transactions is done on the executor. Found accounts are reported
+ * in the order of their indexes, and the scan stops once as many accounts in a row as the account gap limit have had
+ * no activity. Accounts beyond that may have been probed, but are not reported.
+ */
+public class ConcurrentAccountScanner {
+
+   /**
+    * Gets called on the scanning thread for every account found
+    */
+   public interface Listener {
+      void onAccountFound(HdKeyNodeWrapper account);
+   }
+
+   private static class Probe {
+      private final int accountIndex;
+      private final HdKeyNode accountRoot;
+      private final Future<UUID> result;
+
+      private Probe(int accountIndex, HdKeyNode accountRoot, Future<UUID> result) {
+         this.accountIndex = accountIndex;
+         this.accountRoot = accountRoot;
+         this.result = result;
+      }
+   }
+
+   private final ExecutorService _executor;
+   private final int _parallelism;
+   private final int _accountGapLimit;
+
+   /**
+    * @param executor        the executor to check accounts for transactions on
+    * @param parallelism     the number of accounts to check at the same time
+    * @param accountGapLimit the number of accounts in a row without activity after which the scan stops
+    */
+   public ConcurrentAccountScanner(ExecutorService executor, int parallelism, int accountGapLimit) {
+      Preconditions.checkArgument(parallelism > 0);
+      Preconditions.checkArgument(accountGapLimit > 0);
+      _executor = executor;
+      _parallelism = parallelism;
+      _accountGapLimit = accountGapLimit;
+   }
+
+   /**
+    * Scan the accounts of a scan manager, starting with account index 0
+    *
+    * @param scanManager the scan manager to get the account keys from
+    * @param callback    the callback checking an account for transactions
+    * @param listener    the listener to report found accounts to
+    * @return the index just above the last account found
+    * @throws InterruptedException if the scanning thread got interrupted, accounts being checked are not interrupted
+    */
+   public int scan(AccountScanManager scanManager, AccountCallback callback, Listener listener)
+         throws InterruptedException {
+      Queue<Probe> probes = new LinkedList<Probe>();
+      int nextIndex = 0;
+      // The index just above the last account found, and the index at which the gap limit is reached
+      int scanned = 0;
+      int end = _accountGapLimit;
+      boolean moreAccounts = true;
+      try {
+         while (true) {
+            // Keep the window of probed accounts full. Accounts may be probed beyond the end we know of, as finding
+            // an account moves the end.
+            while (moreAccounts && probes.size() < _parallelism) {
+               Optional<HdKeyNode> accountRoot = scanManager.getAccountPubKeyNode(nextIndex);
+               if (!accountRoot.isPresent()) {
+                  moreAccounts = false;
+                  break;
+               }
+               probes.add(probe(nextIndex, accountRoot.get(), callback));
+               nextIndex++;
+            }
+            Probe probe = probes.poll();
+            if (probe == null || probe.accountIndex >= end) {
+               return scanned;
+            }
+            UUID accountId = getResult(probe);
+            if (accountId != null) {
+               listener.onAccountFound(new HdKeyNodeWrapper(probe.accountIndex, probe.accountRoot, accountId));
+               scanned = probe.accountIndex + 1;
+               end = scanned + _accountGapLimit;
+            }
+         }
+      } finally {
+         // Let checks in progress finish, but drop those not started yet
+         for (Probe probe : probes) {
+            probe.result.cancel(false);
+         }
+      }
+   }
+
+   private Probe probe(int accountIndex, HdKeyNode accountRoot, final AccountCallback callback) {
+      // leave accountID empty for now - set it later if it is a already used account
+      final HdKeyNodeWrapper account = new HdKeyNodeWrapper(accountIndex, accountRoot, null);
+      Future<UUID> result = _executor.submit(new Callable<UUID>() {
+         @Override
+         public UUID call() {
+            return callback.checkForTransactions(account);
+         }
+      });
+      return new Probe(accountIndex, accountRoot, result);
+   }
+
+   private static UUID getResult(Probe probe) throws InterruptedException {
+      try {
+         return probe.result.get();
+      } catch (ExecutionException e) {
+         throw Throwables.propagate(e.getCause());
+      }
+   }
+
+}
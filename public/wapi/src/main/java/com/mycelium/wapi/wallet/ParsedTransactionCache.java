@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mycelium.wapi.wallet;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.mrd.bitlib.model.Address;
+import com.mrd.bitlib.model.NetworkParameters;
+import com.mrd.bitlib.model.Transaction.TransactionParsingException;
+import com.mrd.bitlib.model.TransactionOutput;
+import com.mrd.bitlib.model.TransactionView;
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.wapi.model.TransactionEx;
+
+/**
+ * A bounded cache of the stored transactions of an account, parsed and with the addresses of their outputs decoded.
+ * <p/>
+ * The same transactions get parsed on every balance update and every time the history is shown. Entries must be
+ * invalidated whenever the transaction is put into or deleted from the account backing. The cache is safe to use
+ * from several threads and evicts the least recently used transactions when it is full.
+ */
+public class ParsedTransactionCache {
+
+   public static class ParsedTransaction {
+      public final TransactionView transaction;
+      public final TransactionOutput[] outputs;
+      /**
+       * The address of each output, or null if it cannot be determined from the output script
+       */
+      public final Address[] outputAddresses;
+
+      private ParsedTransaction(TransactionView transaction, NetworkParameters network) {
+         this.transaction = transaction;
+         outputs = new TransactionOutput[transaction.getOutputCount()];
+         outputAddresses = new Address[outputs.length];
+         for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = transaction.getOutput(i);
+            outputAddresses[i] = outputs[i].script.getAddress(network);
+         }
+      }
+   }
+
+   private final NetworkParameters _network;
+   private final Cache<Sha256Hash, ParsedTransaction> _cache;
+
+   public ParsedTransactionCache(NetworkParameters network, int maxSize) {
+      _network = network;
+      _cache = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().build();
+   }
+
+   /**
+    * Get a parsed stored transaction, parsing it if it is not cached
+    *
+    * @param tex the transaction as stored in the account backing
+    * @return the parsed transaction, or null if it cannot be parsed, in which case nothing is cached
+    */
+   public ParsedTransaction get(TransactionEx tex) {
+      ParsedTransaction parsed = _cache.getIfPresent(tex.txid);
+      if (parsed == null) {
+         parsed = parse(tex);
+      }
+      return parsed;
+   }
+
+   /**
+    * Get a parsed stored transaction, reading and parsing it if it is not cached
+    *
+    * @param txid    the ID of the transaction
+    * @param backing the account backing the transaction is stored in
+    * @return the parsed transaction, or null if it is not stored or cannot be parsed
+    */
+   public ParsedTransaction get(Sha256Hash txid, AccountBacking backing) {
+      ParsedTransaction parsed = _cache.getIfPresent(txid);
+      if (parsed == null) {
+         TransactionEx tex = backing.getTransaction(txid);
+         if (tex == null) {
+            return null;
+         }
+         parsed = parse(tex);
+      }
+      return parsed;
+   }
+
+   private ParsedTransaction parse(TransactionEx tex) {
+      ParsedTransaction parsed;
+      try {
+         parsed = new ParsedTransaction(TransactionView.fromBytes(tex.binary), _network);
+      } catch (TransactionParsingException e) {
+         return null;
+      }
+      _cache.put(tex.txid, parsed);
+      return parsed;
+   }
+
+   public void invalidate(Sha256Hash txid) {
+      _cache.invalidate(txid);
+   }
+
+   public void invalidateAll() {
+      _cache.invalidateAll();
+   }
+
+   /**
+    * Get the statistics of the cache, including its hit rate and evictions
+    */
+   public CacheStats getStats() {
+      return _cache.stats();
+   }
+
+}
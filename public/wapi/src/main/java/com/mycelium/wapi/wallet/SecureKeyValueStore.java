@@ -22,6 +22,12 @@ import com.mrd.bitlib.util.ByteReader;
 import com.mrd.bitlib.util.ByteWriter;
 import com.mycelium.wapi.wallet.KeyCipher.InvalidKeyCipher;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 /**
  * Secure encrypted storage and plaintext storage for arbitrary binary values using a user defined encryption key.
  * <p/>
@@ -32,6 +38,7 @@ import com.mycelium.wapi.wallet.KeyCipher.InvalidKeyCipher;
  * <p/>Note that the same user defined encryption key is used for all values inserted. The encryption key can be
  * replaced by calling {@link #replaceEncryptionKey(KeyCipher, KeyCipher)}
  * <p/>Note that for every ID an encrypted and a plaintext component can be stored.
+ * <p/>Reads, including the decryption of values, can run concurrently. Writes are exclusive.
  */
 public class SecureKeyValueStore {
 
@@ -41,11 +48,16 @@ public class SecureKeyValueStore {
 
    protected final SecureKeyValueStoreBacking _backing;
    private final RandomSource _randomSource;
+   private final Lock _readLock;
+   private final Lock _writeLock;
    public static final byte[] SUB_STORAGE_ID_BASE = new byte[]{0x73, 0x75, 0x62, 0x69, 0x64};
 
    public SecureKeyValueStore(SecureKeyValueStoreBacking backing, RandomSource randomSource) {
       _backing = backing;
       this._randomSource = randomSource;
+      ReadWriteLock lock = new ReentrantReadWriteLock();
+      _readLock = lock.readLock();
+      _writeLock = lock.writeLock();
       // Initialize key encryption key if necessary
       if (getEncryptedKeyEncryptionKey() == null) {
          byte[] kek = new byte[AesKeyCipher.AES_KEY_BYTE_LENGTH];
@@ -62,11 +74,16 @@ public class SecureKeyValueStore {
     * @param id The ID to get the value for
     * @return The plaintext value associated with the ID or null if no plaintext value was associated
     */
-   public synchronized byte[] getPlaintextValue(byte[] id) {
+   public byte[] getPlaintextValue(byte[] id) {
       if (id.length == 0) {
          throw new RuntimeException("IDs cannot have zero length");
       }
-      return getValue(getRealId(id, false));
+      _readLock.lock();
+      try {
+         return getValue(getRealId(id, false));
+      } finally {
+         _readLock.unlock();
+      }
    }
 
    /**
@@ -77,11 +94,51 @@ public class SecureKeyValueStore {
     * @param id             The id to store a value under
     * @param plaintextValue The value to store
     */
-   public synchronized void storePlaintextValue(byte[] id, byte[] plaintextValue) {
+   public void storePlaintextValue(byte[] id, byte[] plaintextValue) {
       if (id.length == 0) {
          throw new RuntimeException("IDs cannot have zero length");
       }
-      setValue(getRealId(id, false), plaintextValue);
+      _writeLock.lock();
+      try {
+         setValue(getRealId(id, false), plaintextValue);
+      } finally {
+         _writeLock.unlock();
+      }
+   }
+
+   /**
+    * Get the plaintext values of a number of IDs in one go.
+    *
+    * @param ids The IDs to get the values for
+    * @return The plaintext values in the same order as the IDs, with null for IDs that have no plaintext value
+    */
+   public List<byte[]> getPlaintextValues(List<byte[]> ids) {
+      List<byte[]> realIds = getRealIds(ids, false);
+      _readLock.lock();
+      try {
+         return getValues(realIds);
+      } finally {
+         _readLock.unlock();
+      }
+   }
+
+   /**
+    * Store the plaintext values for a number of IDs in one go.
+    * <p/>
+    * Plaintext values already stored under the same IDs are overwritten
+    *
+    * @param ids             The IDs to store values under
+    * @param plaintextValues The values to store, in the same order as the IDs
+    */
+   public void storePlaintextValues(List<byte[]> ids, List<byte[]> plaintextValues) {
+      Preconditions.checkArgument(ids.size() == plaintextValues.size());
+      List<byte[]> realIds = getRealIds(ids, false);
+      _writeLock.lock();
+      try {
+         setValues(realIds, plaintextValues);
+      } finally {
+         _writeLock.unlock();
+      }
    }
 
    /**
@@ -90,7 +147,12 @@ public class SecureKeyValueStore {
     * @param id the ID of the plain text value to delete
     */
    public void deletePlaintextValue(byte[] id) {
-      _backing.deleteValue(getRealId(id, false));
+      _writeLock.lock();
+      try {
+         _backing.deleteValue(getRealId(id, false));
+      } finally {
+         _writeLock.unlock();
+      }
    }
 
    /**
@@ -114,14 +176,19 @@ public class SecureKeyValueStore {
     * @throws com.mycelium.wapi.wallet.KeyCipher.InvalidKeyCipher if the key cipher specified as the current user
     *                                                             encryption key cipher is invalid.
     */
-   public synchronized void replaceEncryptionKey(KeyCipher currentUserCipher, KeyCipher newUserCipher)
+   public void replaceEncryptionKey(KeyCipher currentUserCipher, KeyCipher newUserCipher)
          throws InvalidKeyCipher {
-      // Decrypt the key encryption key using the current user key. If the current user cipher is invalid, this will 
-      // throw
-      AesKeyCipher kekCipher = getKeyEncryptionKey(currentUserCipher);
-      // Encrypt the key encryption key using the new user key
-      byte[] newEncryptedKek = newUserCipher.encrypt(kekCipher.getKeyBytes());
-      storeEncryptedKeyEncryptionKey(newEncryptedKek);
+      _writeLock.lock();
+      try {
+         // Decrypt the key encryption key using the current user key. If the current user cipher is invalid, this will
+         // throw
+         AesKeyCipher kekCipher = getKeyEncryptionKey(currentUserCipher);
+         // Encrypt the key encryption key using the new user key
+         byte[] newEncryptedKek = newUserCipher.encrypt(kekCipher.getKeyBytes());
+         storeEncryptedKeyEncryptionKey(newEncryptedKek);
+      } finally {
+         _writeLock.unlock();
+      }
    }
 
    /**
@@ -131,7 +198,12 @@ public class SecureKeyValueStore {
     * @return true iff a value is defined for the specified ID
     */
    public boolean hasCiphertextValue(byte[] id) {
-      return getValue(getRealId(id, true)) != null;
+      _readLock.lock();
+      try {
+         return getValue(getRealId(id, true)) != null;
+      } finally {
+         _readLock.unlock();
+      }
    }
 
    /**
@@ -142,16 +214,46 @@ public class SecureKeyValueStore {
     * @return The value associated with the specified ID, or null of no value was found
     * @throws InvalidKeyCipher if the specified encryption key is invalid
     */
-   public synchronized byte[] getEncryptedValue(byte[] id, KeyCipher userCipher) throws InvalidKeyCipher {
+   public byte[] getEncryptedValue(byte[] id, KeyCipher userCipher) throws InvalidKeyCipher {
       if (id.length == 0) {
          throw new RuntimeException("IDs cannot have zero length");
       }
-      AesKeyCipher kekCipher = getKeyEncryptionKey(userCipher); // may throw InvalidKeyCipher
-      byte[] encryptedValue = getValue(getRealId(id, true));
-      if (encryptedValue == null) {
-         return null;
+      _readLock.lock();
+      try {
+         AesKeyCipher kekCipher = getKeyEncryptionKey(userCipher); // may throw InvalidKeyCipher
+         byte[] encryptedValue = getValue(getRealId(id, true));
+         if (encryptedValue == null) {
+            return null;
+         }
+         return kekCipher.decrypt(encryptedValue);
+      } finally {
+         _readLock.unlock();
+      }
+   }
+
+   /**
+    * Get the decrypted ciphertext values of a number of IDs, decrypting the key encryption key only once.
+    *
+    * @param ids        The IDs of the values to get
+    * @param userCipher The user defined encryption key
+    * @return The values in the same order as the IDs, with null for IDs that have no value
+    * @throws InvalidKeyCipher if the specified encryption key is invalid
+    */
+   public List<byte[]> getEncryptedValues(List<byte[]> ids, KeyCipher userCipher) throws InvalidKeyCipher {
+      List<byte[]> realIds = getRealIds(ids, true);
+      _readLock.lock();
+      try {
+         AesKeyCipher kekCipher = getKeyEncryptionKey(userCipher); // may throw InvalidKeyCipher
+         List<byte[]> values = new ArrayList<byte[]>(getValues(realIds));
+         for (int i = 0; i < values.size(); i++) {
+            if (values.get(i) != null) {
+               values.set(i, kekCipher.decrypt(values.get(i)));
+            }
+         }
+         return values;
+      } finally {
+         _readLock.unlock();
       }
-      return kekCipher.decrypt(encryptedValue);
    }
 
    /**
@@ -162,23 +264,38 @@ public class SecureKeyValueStore {
     * @param userCipher     the user defined encryption key
     * @throws InvalidKeyCipher if the user defined encryption key is invalid
     */
-   public synchronized void encryptAndStoreValue(byte[] id, byte[] plaintextValue, KeyCipher userCipher) throws InvalidKeyCipher {
+   public void encryptAndStoreValue(byte[] id, byte[] plaintextValue, KeyCipher userCipher) throws InvalidKeyCipher {
       if (id.length == 0) {
          throw new RuntimeException("IDs cannot have zero length");
       }
-      AesKeyCipher kekCipher = getKeyEncryptionKey(userCipher); // may throw InvalidKeyCipher
-      byte[] encryptedValue = kekCipher.encrypt(plaintextValue);
-      setValue(getRealId(id, true), encryptedValue);
+      _writeLock.lock();
+      try {
+         AesKeyCipher kekCipher = getKeyEncryptionKey(userCipher); // may throw InvalidKeyCipher
+         byte[] encryptedValue = kekCipher.encrypt(plaintextValue);
+         setValue(getRealId(id, true), encryptedValue);
+      } finally {
+         _writeLock.unlock();
+      }
    }
 
    public void deleteEncryptedValue(byte[] id, KeyCipher userCipher) throws InvalidKeyCipher {
-      AesKeyCipher kekCipher = getKeyEncryptionKey(userCipher); // may throw InvalidKeyCipher
-      _backing.deleteValue(getRealId(id, true));
+      _writeLock.lock();
+      try {
+         AesKeyCipher kekCipher = getKeyEncryptionKey(userCipher); // may throw InvalidKeyCipher
+         _backing.deleteValue(getRealId(id, true));
+      } finally {
+         _writeLock.unlock();
+      }
    }
 
-   private synchronized AesKeyCipher getKeyEncryptionKey(KeyCipher userCipher) throws InvalidKeyCipher {
-      byte[] rawKek = userCipher.decrypt(getEncryptedKeyEncryptionKey());
-      return new AesKeyCipher(rawKek);
+   private AesKeyCipher getKeyEncryptionKey(KeyCipher userCipher) throws InvalidKeyCipher {
+      _readLock.lock();
+      try {
+         byte[] rawKek = userCipher.decrypt(getEncryptedKeyEncryptionKey());
+         return new AesKeyCipher(rawKek);
+      } finally {
+         _readLock.unlock();
+      }
    }
 
    private byte[] getEncryptedKeyEncryptionKey() {
@@ -201,28 +318,67 @@ public class SecureKeyValueStore {
       return realId;
    }
 
+   private List<byte[]> getRealIds(List<byte[]> ids, boolean isEncrypted) {
+      List<byte[]> realIds = new ArrayList<byte[]>(ids.size());
+      for (byte[] id : ids) {
+         if (id.length == 0) {
+            throw new RuntimeException("IDs cannot have zero length");
+         }
+         realIds.add(getRealId(id, isEncrypted));
+      }
+      return realIds;
+   }
+
    public SecureSubKeyValueStore getSubKeyStore(int forSubId){
       return new SecureSubKeyValueStore(_backing, _randomSource, forSubId);
    }
 
-   public synchronized SecureSubKeyValueStore createNewSubKeyStore(){
-      int maxSubId = _backing.getMaxSubId();
+   public SecureSubKeyValueStore createNewSubKeyStore(){
+      _writeLock.lock();
+      try {
+         int maxSubId = _backing.getMaxSubId();
 
-      SecureSubKeyValueStore subKeyValueStore = new SecureSubKeyValueStore(_backing, _randomSource, maxSubId + 1);
+         SecureSubKeyValueStore subKeyValueStore = new SecureSubKeyValueStore(_backing, _randomSource, maxSubId + 1);
 
-      // make a default entry to reserve this subId - this constant id does not start with 1 or 2 - so it is safe
-      // that it wont collide with any other entry
-      subKeyValueStore.setValue(SUB_STORAGE_ID_BASE,new byte[]{1});
+         // make a default entry to reserve this subId - this constant id does not start with 1 or 2 - so it is safe
+         // that it wont collide with any other entry
+         subKeyValueStore.setValue(SUB_STORAGE_ID_BASE,new byte[]{1});
 
-      return subKeyValueStore;
+         return subKeyValueStore;
+      } finally {
+         _writeLock.unlock();
+      }
    }
 
-   protected synchronized byte[] getValue(byte[] realId){
+   // The methods below access the backing, callers hold the read or write lock
+
+   protected byte[] getValue(byte[] realId){
       return _backing.getValue(realId);
    }
 
-   protected synchronized void setValue(byte[] realId, byte[] value){
+   protected void setValue(byte[] realId, byte[] value){
       _backing.setValue(realId, value);
    }
 
+   protected List<byte[]> getValues(List<byte[]> realIds) {
+      if (_backing instanceof BatchSecureKeyValueStoreBacking) {
+         return ((BatchSecureKeyValueStoreBacking) _backing).getValues(realIds);
+      }
+      List<byte[]> values = new ArrayList<byte[]>(realIds.size());
+      for (byte[] realId : realIds) {
+         values.add(getValue(realId));
+      }
+      return values;
+   }
+
+   protected void setValues(List<byte[]> realIds, List<byte[]> values) {
+      if (_backing instanceof BatchSecureKeyValueStoreBacking) {
+         ((BatchSecureKeyValueStoreBacking) _backing).setValues(realIds, values);
+         return;
+      }
+      for (int i = 0; i < realIds.size(); i++) {
+         setValue(realIds.get(i), values.get(i));
+      }
+   }
+
 }
@@ -3,6 +3,8 @@ package com.mycelium.wapi.wallet;
 import com.mrd.bitlib.crypto.RandomSource;
 import com.mrd.bitlib.util.ByteWriter;
 
+import java.util.List;
+
 // SubKeystore - stores data in its backing but prefixes all Ids with its own subId
 // Use it to store unrelated HD-Accounts in one backing
 public class SecureSubKeyValueStore extends SecureKeyValueStore {
@@ -14,15 +16,32 @@ public class SecureSubKeyValueStore extends SecureKeyValueStore {
    }
 
    @Override
-   protected synchronized byte[] getValue(byte[] realId){
+   protected byte[] getValue(byte[] realId){
       return _backing.getValue(realId, subId);
    }
 
    @Override
-   protected synchronized void setValue(byte[] realId, byte[] value){
+   protected void setValue(byte[] realId, byte[] value){
       _backing.setValue(realId, subId, value);
    }
 
+   @Override
+   protected List<byte[]> getValues(List<byte[]> realIds) {
+      if (_backing instanceof BatchSecureKeyValueStoreBacking) {
+         return ((BatchSecureKeyValueStoreBacking) _backing).getValues(realIds, subId);
+      }
+      return super.getValues(realIds);
+   }
+
+   @Override
+   protected void setValues(List<byte[]> realIds, List<byte[]> values) {
+      if (_backing instanceof BatchSecureKeyValueStoreBacking) {
+         ((BatchSecureKeyValueStoreBacking) _backing).setValues(realIds, subId, values);
+         return;
+      }
+      super.setValues(realIds, values);
+   }
+
    public int getSubId() {
       return subId;
    }
@@ -20,6 +20,7 @@ import com.google.common.base.*;
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mrd.bitlib.crypto.Bip39;
 import com.mrd.bitlib.crypto.HdKeyNode;
 import com.mrd.bitlib.crypto.InMemoryPrivateKey;
@@ -27,6 +28,9 @@ import com.mrd.bitlib.crypto.PublicKey;
 import com.mrd.bitlib.model.Address;
 import com.mrd.bitlib.model.NetworkParameters;
 import com.mrd.bitlib.util.HexUtils;
+import com.mycelium.wapi.api.AsyncWapi;
+import com.mycelium.wapi.api.AsyncWapiAdapter;
+import com.mycelium.wapi.api.CoalescingWapi;
 import com.mycelium.wapi.api.Wapi;
 import com.mycelium.wapi.api.WapiException;
 import com.mycelium.WapiLogger;
@@ -40,6 +44,7 @@ import com.mycelium.wapi.wallet.single.SingleAddressAccount;
 import com.mycelium.wapi.wallet.single.SingleAddressAccountContext;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Allows you to manage a wallet that contains multiple HD accounts and
@@ -52,6 +57,8 @@ public class WalletManager {
    private static final byte[] MASTER_SEED_ID = HexUtils.toBytes("D64CA2B680D8C8909A367F28EB47F990");
    // maximum age where we say a fetched fee estimation is valid
    private static final long MAX_AGE_FEE_ESTIMATION = 2 * 60 * 60 * 1000;
+   // maximum number of asynchronous Wapi calls in flight at the same time
+   private static final int MAX_ASYNC_WAPI_CALLS = 4;
 
    //if there are more external account types, expand this to a list
    private Optional<? extends WalletAccount> extraAccount;
@@ -62,6 +69,7 @@ public class WalletManager {
          WalletAccount key = extraAccount.get();
          if (!_allAccounts.containsKey(key.getId())) {
             _allAccounts.put(key.getId(), key);
+            indexAddresses(key);
          }
       }
    }
@@ -136,6 +144,9 @@ public class WalletManager {
    private final SecureKeyValueStore _secureKeyValueStore;
    private WalletManagerBacking _backing;
    private final Map<UUID, WalletAccount> _allAccounts;
+   private final AccountAddressIndex _addressIndex;
+   // Accounts that do not report their addresses to the address index and have to be asked one by one
+   private final List<WalletAccount> _unindexedAccounts;
    private final List<Bip44Account> _bip44Accounts;
    private final Collection<Observer> _observers;
    private State _state;
@@ -143,8 +154,13 @@ public class WalletManager {
    private AccountEventManager _accountEventManager;
    private NetworkParameters _network;
    private Wapi _wapi;
+   private final AsyncWapi _asyncWapi;
    private WapiLogger _logger;
    private boolean _synchronizeTransactionHistory;
+   private ExecutorService _synchronizationExecutor;
+   // The executor of the synchronization cycle in progress, which that cycle shuts down if it got replaced meanwhile
+   private ExecutorService _synchronizationExecutorInUse;
+   private volatile boolean _pipelinedDiscovery;
    private final ExternalSignatureProviderProxy _signatureProviders;
    private IdentityAccountKeyManager _identityAccountKeyManager;
    private volatile UUID _activeAccountId;
@@ -166,10 +182,17 @@ public class WalletManager {
       _secureKeyValueStore = secureKeyValueStore;
       _backing = backing;
       _network = network;
-      _wapi = wapi;
+      // Accounts synchronizing at the same time share their unspent output queries and transaction lookups
+      _wapi = new CoalescingWapi(wapi, network);
+      // Lets accounts overlap independent calls, such as fetching parent transactions while handling others. Calls
+      // beyond the number of threads wait for their turn.
+      _asyncWapi = new AsyncWapiAdapter(_wapi, Executors.newFixedThreadPool(MAX_ASYNC_WAPI_CALLS, new ThreadFactoryBuilder()
+            .setDaemon(true).setNameFormat("AsyncWapi-%d").build()));
       _signatureProviders = signatureProviders;
       _logger = _wapi.getLogger();
-      _allAccounts = Maps.newHashMap();
+      _allAccounts = new ConcurrentHashMap<UUID, WalletAccount>();
+      _addressIndex = new AccountAddressIndex();
+      _unindexedAccounts = new CopyOnWriteArrayList<WalletAccount>();
       _bip44Accounts = new ArrayList<Bip44Account>();
       _state = State.READY;
       _accountEventManager = new AccountEventManager();
@@ -386,6 +409,7 @@ public class WalletManager {
             singleAddressAccount.forgetPrivateKey(cipher);
             _backing.deleteSingleAddressAccountContext(id);
             _allAccounts.remove(id);
+            unindexAddresses(account);
          } else if (account instanceof Bip44Account) {
             Bip44Account hdAccount = (Bip44Account) account;
             if (hdAccount.isDerivedFromInternalMasterseed()) {
@@ -395,6 +419,7 @@ public class WalletManager {
             _bip44Accounts.remove(hdAccount);
             _backing.deleteBip44AccountContext(id);
             _allAccounts.remove(id);
+            unindexAddresses(account);
          }
       }
    }
@@ -410,6 +435,69 @@ public class WalletManager {
       _synchronizeTransactionHistory = false;
    }
 
+   /**
+    * Set how many accounts to synchronize at the same time.
+    * <p/>
+    * With a parallelism above one, independent accounts are synchronized on a bounded pool of threads, each account
+    * holding only its own lock, so that a full synchronization takes about as long as the slowest accounts instead of
+    * all of them. The default is to synchronize one account after the other on the synchronization thread.
+    * <p/>
+    * Either way the wallet manager holds the lock on its accounts for the whole synchronization, so adding and
+    * removing accounts waits until all accounts are synchronized.
+    * <p/>
+    * A change applies from the next synchronization on, the one in progress finishes with the threads it started
+    * with.
+    *
+    * @param parallelism the maximum number of accounts to synchronize at the same time
+    */
+   public synchronized void setSynchronizationParallelism(int parallelism) {
+      Preconditions.checkArgument(parallelism > 0);
+      ExecutorService previous = _synchronizationExecutor;
+      _synchronizationExecutor = null;
+      if (parallelism > 1) {
+         _synchronizationExecutor = Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder()
+               .setDaemon(true).setNameFormat("AccountSynchronizer-%d").build());
+      }
+      if (previous != null && previous != _synchronizationExecutorInUse) {
+         previous.shutdown();
+      }
+   }
+
+   /**
+    * Set whether HD accounts query the next look ahead windows while handling what they found in the current ones
+    * when discovering their addresses, see {@link Bip44Account#setPipelinedDiscovery(boolean)}. This speeds up
+    * restoring heavily used accounts. The default is to query one window after the other.
+    *
+    * @param pipelinedDiscovery true to pipeline discovery
+    */
+   public void setPipelinedDiscovery(boolean pipelinedDiscovery) {
+      synchronized (_allAccounts) {
+         _pipelinedDiscovery = pipelinedDiscovery;
+         for (WalletAccount account : _allAccounts.values()) {
+            if (account instanceof Bip44Account) {
+               ((Bip44Account) account).setPipelinedDiscovery(pipelinedDiscovery);
+            }
+         }
+      }
+   }
+
+   /**
+    * Get the executor for a synchronization cycle, which must hand it back through
+    * {@link #releaseSynchronizationExecutor(ExecutorService)} when it is done
+    */
+   private synchronized ExecutorService acquireSynchronizationExecutor() {
+      _synchronizationExecutorInUse = _synchronizationExecutor;
+      return _synchronizationExecutorInUse;
+   }
+
+   private synchronized void releaseSynchronizationExecutor(ExecutorService executor) {
+      _synchronizationExecutorInUse = null;
+      if (executor != null && executor != _synchronizationExecutor) {
+         // It got replaced while we were using it
+         executor.shutdown();
+      }
+   }
+
    /**
     * Get the IDs of the accounts managed by the wallet manager
     *
@@ -557,8 +645,12 @@ public class WalletManager {
     * @param address the address to query for
     * @return the account UUID if found.
     */
-   public synchronized Optional<UUID> getAccountByAddress(Address address) {
-      for (WalletAccount account : _allAccounts.values()) {
+   public Optional<UUID> getAccountByAddress(Address address) {
+      List<UUID> accountIds = _addressIndex.getAccountIds(address);
+      if (!accountIds.isEmpty()) {
+         return Optional.of(accountIds.get(0));
+      }
+      for (WalletAccount account : _unindexedAccounts) {
          if (account.isMine(address)) {
             return Optional.of(account.getId());
          }
@@ -572,8 +664,14 @@ public class WalletManager {
     * @param address the address to query for
     * @return true if any account in the wallet manager has the private key for the specified address
     */
-   public synchronized boolean hasPrivateKeyForAddress(Address address) {
-      for (WalletAccount account : _allAccounts.values()) {
+   public boolean hasPrivateKeyForAddress(Address address) {
+      for (UUID id : _addressIndex.getAccountIds(address)) {
+         WalletAccount account = _allAccounts.get(id);
+         if (account != null && account.canSpend()) {
+            return true;
+         }
+      }
+      for (WalletAccount account : _unindexedAccounts) {
          if (account.isMine(address) && account.canSpend()) {
             return true;
          }
@@ -581,6 +679,23 @@ public class WalletManager {
       return false;
    }
 
+   private void indexAddresses(WalletAccount account) {
+      if (account instanceof AbstractAccount) {
+         ((AbstractAccount) account).setAddressListener(_addressIndex);
+      } else {
+         _unindexedAccounts.add(account);
+      }
+   }
+
+   private void unindexAddresses(WalletAccount account) {
+      if (account instanceof AbstractAccount) {
+         ((AbstractAccount) account).setAddressListener(null);
+         _addressIndex.remove(account.getId());
+      } else {
+         _unindexedAccounts.remove(account);
+      }
+   }
+
    private void setStateAndNotify(State state) {
       _state = state;
       synchronized (_observers) {
@@ -670,8 +785,13 @@ public class WalletManager {
          if (account instanceof AbstractAccount) {
             AbstractAccount abstractAccount = (AbstractAccount) account;
             abstractAccount.setEventHandler(_accountEventManager);
+            abstractAccount.setAsyncWapi(_asyncWapi);
+         }
+         if (account instanceof Bip44Account) {
+            ((Bip44Account) account).setPipelinedDiscovery(_pipelinedDiscovery);
          }
          _allAccounts.put(account.getId(), account);
+         indexAddresses(account);
          _logger.logInfo("Account Added: " + account.getId());
       }
    }
@@ -734,6 +854,7 @@ public class WalletManager {
 
       private boolean synchronize() {
          try {
+            List<WalletAccount> accounts = new ArrayList<WalletAccount>();
             for (WalletAccount account : _allAccounts.values()) {
                if (account.isArchived()) {
                   continue;
@@ -747,7 +868,18 @@ public class WalletManager {
                      continue;
                   }
                }
+               accounts.add(account);
+            }
 
+            ExecutorService executor = acquireSynchronizationExecutor();
+            try {
+               if (executor != null && accounts.size() > 1) {
+                  return synchronizeConcurrently(accounts, executor);
+               }
+            } finally {
+               releaseSynchronizationExecutor(executor);
+            }
+            for (WalletAccount account : accounts) {
                if (!account.synchronize(_synchronizeTransactionHistory)) {
                   // We failed to broadcast due to API error, we will have to try
                   // again later
@@ -760,6 +892,38 @@ public class WalletManager {
          }
       }
 
+      private boolean synchronizeConcurrently(List<WalletAccount> accounts, ExecutorService executor) {
+         CompletionService<Boolean> completionService = new ExecutorCompletionService<Boolean>(executor);
+         List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(accounts.size());
+         try {
+            for (final WalletAccount account : accounts) {
+               futures.add(completionService.submit(new Callable<Boolean>() {
+                  @Override
+                  public Boolean call() {
+                     return account.synchronize(_synchronizeTransactionHistory);
+                  }
+               }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+               if (!completionService.take().get()) {
+                  // We failed to synchronize due to API error, the accounts not yet started are
+                  // skipped and we will have to try again later
+                  return false;
+               }
+            }
+            return true;
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+         } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+         } finally {
+            for (Future<Boolean> future : futures) {
+               future.cancel(false);
+            }
+         }
+      }
+
    }
 
    private class AccountEventManager implements AbstractAccount.EventHandler {
@@ -877,6 +1041,7 @@ public class WalletManager {
       synchronized (_allAccounts) {
          _bip44Accounts.remove(last);
          _allAccounts.remove(last.getId());
+         unindexAddresses(last);
          _backing.deleteBip44AccountContext(last.getId());
          return true;
       }
@@ -19,14 +19,20 @@ package com.mycelium.wapi.wallet.bip44;
 import com.google.common.base.Optional;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mrd.bitlib.StandardTransactionBuilder;
+import com.mrd.bitlib.crypto.BitcoinSigner;
+import com.mrd.bitlib.crypto.IPrivateKeyRing;
 import com.mrd.bitlib.crypto.InMemoryPrivateKey;
 import com.mrd.bitlib.crypto.PublicKey;
 import com.mrd.bitlib.model.*;
 import com.mrd.bitlib.util.Sha256Hash;
 import com.mycelium.wapi.api.Wapi;
 import com.mycelium.wapi.api.WapiException;
+import com.mycelium.wapi.api.WapiResponse;
 import com.mycelium.wapi.api.request.GetTransactionsRequest;
 import com.mycelium.wapi.api.request.QueryTransactionInventoryRequest;
+import com.mycelium.wapi.api.response.QueryTransactionInventoryResponse;
 import com.mycelium.wapi.model.TransactionEx;
 import com.mycelium.wapi.model.TransactionOutputEx;
 import com.mycelium.wapi.wallet.AbstractAccount;
@@ -38,7 +44,10 @@ import com.mycelium.wapi.wallet.WalletManager.Event;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 public class Bip44Account extends AbstractAccount implements ExportableAccount {
@@ -48,6 +57,7 @@ public class Bip44Account extends AbstractAccount implements ExportableAccount {
    private static final int EXTERNAL_MINIMAL_ADDRESS_LOOK_AHEAD_LENGTH = 1;
    private static final int INTERNAL_MINIMAL_ADDRESS_LOOK_AHEAD_LENGTH = 1;
    private static final long FORCED_DISCOVERY_INTERVAL_MS = 1000 * 60 * 60 * 24;
+   private static final long SIGNING_SESSION_DURATION_MS = 1000 * 60;
 
    protected Bip44AccountBacking _backing;
    protected Bip44AccountContext _context;
@@ -56,6 +66,37 @@ public class Bip44Account extends AbstractAccount implements ExportableAccount {
    protected BiMap<Address, Integer> _internalAddresses;
    private Address _currentReceivingAddress;
    protected volatile boolean _isSynchronizing;
+   private volatile boolean _pipelinedDiscovery;
+
+   /**
+    * The look ahead window of one address chain, together with the inventory query for its addresses
+    */
+   private class LookAheadWindow {
+      private final int fromIndex;
+      private final int toIndex;
+      // null if the window is known to have no transactions we have not handled yet
+      private final ListenableFuture<WapiResponse<QueryTransactionInventoryResponse>> inventory;
+
+      private LookAheadWindow(int fromIndex, int toIndex,
+                              ListenableFuture<WapiResponse<QueryTransactionInventoryResponse>> inventory) {
+         this.fromIndex = fromIndex;
+         this.toIndex = toIndex;
+         this.inventory = inventory;
+      }
+
+      private List<Sha256Hash> getTxIds() throws WapiException {
+         if (inventory == null) {
+            return Collections.emptyList();
+         }
+         return getResult(inventory).txIds;
+      }
+
+      private void cancel() {
+         if (inventory != null) {
+            inventory.cancel(true);
+         }
+      }
+   }
 
    public Bip44Account(Bip44AccountContext context, Bip44AccountKeyManager keyManager,
                        NetworkParameters network, Bip44AccountBacking backing, Wapi wapi) {
@@ -133,9 +174,11 @@ public class Bip44Account extends AbstractAccount implements ExportableAccount {
 
    private void clearInternalStateInt(boolean isArchived) {
       _backing.clear();
+      onBackingCleared();
       initContext(isArchived);
       _externalAddresses.clear();
       _internalAddresses.clear();
+      onAddressesCleared();
       _currentReceivingAddress = null;
       _cachedBalance = null;
       if (isActive()) {
@@ -163,6 +206,17 @@ public class Bip44Account extends AbstractAccount implements ExportableAccount {
       return _context.getLastExternalIndexWithActivity() != -1;
    }
 
+   /**
+    * Set whether discovery queries the look ahead windows just above the current ones while the transactions found in
+    * the current ones are fetched and handled. For densely used accounts this takes a round trip off every window.
+    * Whenever the activity found does not move a window by its full length the speculative query is thrown away.
+    *
+    * @param pipelinedDiscovery true to pipeline discovery, false to query one window after the other
+    */
+   public void setPipelinedDiscovery(boolean pipelinedDiscovery) {
+      _pipelinedDiscovery = pipelinedDiscovery;
+   }
+
    public int getAccountIndex() {
       // public method that needs no synchronization
       return _context.getAccountIndex();
@@ -201,13 +255,21 @@ public class Bip44Account extends AbstractAccount implements ExportableAccount {
          }
          addressMap = _externalAddresses;
       }
-      while (index >= 0) {
-         if (addressMap.inverse().containsKey(index)) {
-            return;
-         }
-         addressMap.put(_keyManager.getAddress(isChangeChain, index), index);
-         index--;
+      // Find the lowest index below which all addresses are known
+      int lowest = index;
+      while (lowest >= 0 && !addressMap.inverse().containsKey(lowest)) {
+         lowest--;
       }
+      if (lowest == index) {
+         return;
+      }
+      // Get the missing addresses in one go
+      int fromIndex = lowest + 1;
+      List<HdDerivedAddress> addresses = _keyManager.getAddresses(isChangeChain, fromIndex, index + 1);
+      for (int i = 0; i < addresses.size(); i++) {
+         addressMap.put(addresses.get(i), fromIndex + i);
+      }
+      onAddressesAdded(addresses);
    }
 
    @Override
@@ -242,8 +304,12 @@ public class Bip44Account extends AbstractAccount implements ExportableAccount {
 
    private synchronized boolean discovery() {
       try {
-         while (doDiscovery()) {
-            // Nothing
+         if (_pipelinedDiscovery) {
+            doPipelinedDiscovery();
+         } else {
+            while (doDiscovery()) {
+               // Nothing
+            }
          }
       } catch (WapiException e) {
          _logger.logError("Server connection failed with error code: " + e.errorCode, e);
@@ -293,6 +359,90 @@ public class Bip44Account extends AbstractAccount implements ExportableAccount {
       return lastExternalIndex != _context.getLastExternalIndexWithActivity() || lastInternalIndex != _context.getLastInternalIndexWithActivity();
    }
 
+   /**
+    * Do the same as calling {@link #doDiscovery()} until nothing more is found, but query the look ahead windows of
+    * the next round while the transactions of the current round are fetched and handled.
+    *
+    * @throws com.mycelium.wapi.api.WapiException
+    */
+   private void doPipelinedDiscovery() throws WapiException {
+      ensureAddressIndexes(true);
+      LookAheadWindow external = queryLookAheadWindow(false, _context.getLastExternalIndexWithActivity() + 1);
+      LookAheadWindow internal = queryLookAheadWindow(true, _context.getLastInternalIndexWithActivity() + 1);
+      while (true) {
+         List<Sha256Hash> externalIds = external.getTxIds();
+         List<Sha256Hash> internalIds = internal.getTxIds();
+         Set<Sha256Hash> ids = new LinkedHashSet<Sha256Hash>(externalIds);
+         ids.addAll(internalIds);
+         if (ids.isEmpty()) {
+            // nothing found
+            return;
+         }
+         // An inventory at its limit may leave out transactions, which we then only learn about in the next round
+         boolean complete = externalIds.size() < Wapi.MAX_TRANSACTION_INVENTORY_LIMIT
+               && internalIds.size() < Wapi.MAX_TRANSACTION_INVENTORY_LIMIT;
+
+         // Speculate that the windows move by their full length and query the windows just above them
+         LookAheadWindow nextExternal = queryLookAheadWindow(false, external.toIndex);
+         LookAheadWindow nextInternal = queryLookAheadWindow(true, internal.toIndex);
+
+         int lastExternalIndex = _context.getLastExternalIndexWithActivity();
+         int lastInternalIndex = _context.getLastInternalIndexWithActivity();
+         Collection<TransactionEx> transactions = _wapi.getTransactions(new GetTransactionsRequest(Wapi.VERSION, ids))
+               .getResult().transactions;
+         handleNewExternalTransactions(transactions);
+         if (lastExternalIndex == _context.getLastExternalIndexWithActivity()
+               && lastInternalIndex == _context.getLastInternalIndexWithActivity()) {
+            // The windows did not move, we are done
+            nextExternal.cancel();
+            nextInternal.cancel();
+            return;
+         }
+         ensureAddressIndexes(true);
+         external = getNextLookAheadWindow(false, external, nextExternal, complete);
+         internal = getNextLookAheadWindow(true, internal, nextInternal, complete);
+      }
+   }
+
+   /**
+    * Start the inventory query for the look ahead window of a chain starting at an index. The addresses of the window
+    * are derived, but only become part of the account once activity moves the window.
+    */
+   private LookAheadWindow queryLookAheadWindow(boolean isChangeChain, int fromIndex) {
+      int toIndex = fromIndex + (isChangeChain ? INTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH : EXTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH);
+      List<Address> addresses = new ArrayList<Address>(_keyManager.getAddresses(isChangeChain, fromIndex, toIndex));
+      return new LookAheadWindow(fromIndex, toIndex, _asyncWapi.queryTransactionInventory(
+            new QueryTransactionInventoryRequest(Wapi.VERSION, addresses, Wapi.MAX_TRANSACTION_INVENTORY_LIMIT)));
+   }
+
+   /**
+    * Get the look ahead window of a chain once the transactions of its current window have been handled. The
+    * speculative query of the window above the current one is used where it tells what a query of the new window
+    * would, and is thrown away otherwise.
+    *
+    * @param current     the window whose transactions have been handled
+    * @param speculative the window just above the current one
+    * @param complete    whether all transactions of the current window have been handled
+    */
+   private LookAheadWindow getNextLookAheadWindow(boolean isChangeChain, LookAheadWindow current,
+                                                  LookAheadWindow speculative, boolean complete) throws WapiException {
+      int fromIndex = (isChangeChain ? _context.getLastInternalIndexWithActivity()
+            : _context.getLastExternalIndexWithActivity()) + 1;
+      if (complete && fromIndex == speculative.fromIndex) {
+         // The window moved by its full length, just as we speculated
+         return speculative;
+      }
+      if (complete && fromIndex >= current.fromIndex && fromIndex < speculative.fromIndex
+            && speculative.getTxIds().isEmpty()) {
+         // The new window lies within the current and the speculative one. We have handled everything in the current
+         // one and there is nothing in the speculative one.
+         return new LookAheadWindow(fromIndex, fromIndex + (current.toIndex - current.fromIndex), null);
+      }
+      // Roll back the speculation
+      speculative.cancel();
+      return queryLookAheadWindow(isChangeChain, fromIndex);
+   }
+
    private boolean updateUnspentOutputs() {
       // Get the list of addresses to monitor
       Collection<Address> combined = new ArrayList<Address>(_externalAddresses.keySet().size()
@@ -387,6 +537,14 @@ public class Bip44Account extends AbstractAccount implements ExportableAccount {
       return _internalAddresses.containsKey(address) || _externalAddresses.containsKey(address);
    }
 
+   @Override
+   protected synchronized Collection<Address> getMonitoredAddresses() {
+      List<Address> addresses = new ArrayList<Address>(_externalAddresses.size() + _internalAddresses.size());
+      addresses.addAll(_externalAddresses.keySet());
+      addresses.addAll(_internalAddresses.keySet());
+      return addresses;
+   }
+
    @Override
    protected void onNewTransaction(TransactionEx tex, Transaction t) {
       // check whether we need to update our last index for activity
@@ -432,6 +590,32 @@ public class Bip44Account extends AbstractAccount implements ExportableAccount {
       }
    }
 
+   @Override
+   public Transaction signTransaction(StandardTransactionBuilder.UnsignedTransaction unsigned, KeyCipher cipher)
+         throws InvalidKeyCipher {
+      checkNotArchived();
+      // Decrypt the chain nodes once for all inputs
+      final Bip44AccountKeyManager.SigningSession session = _keyManager.openSigningSession(cipher,
+            SIGNING_SESSION_DURATION_MS);
+      try {
+         // Check the expiry up front only, a transaction must never end up half signed
+         session.checkNotExpired();
+         return signTransaction(unsigned, new IPrivateKeyRing() {
+            @Override
+            public BitcoinSigner findSignerByPublicKey(PublicKey publicKey) {
+               Address address = publicKey.toAddress(_network);
+               Optional<Integer[]> addressId = getAddressId(address);
+               if (!addressId.isPresent()) {
+                  throw new RuntimeException("Unable to find private key for address " + address.toString());
+               }
+               return session.getPrivateKey(addressId.get()[0] == 1, addressId.get()[1]);
+            }
+         });
+      } finally {
+         session.close();
+      }
+   }
+
    @Override
    public InMemoryPrivateKey getPrivateKeyForAddress(Address address, KeyCipher cipher) throws InvalidKeyCipher {
       boolean isChange = false;
@@ -17,6 +17,7 @@
 package com.mycelium.wapi.wallet.bip44;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mrd.bitlib.crypto.HdKeyNode;
 import com.mrd.bitlib.crypto.InMemoryPrivateKey;
 import com.mrd.bitlib.crypto.PublicKey;
@@ -30,7 +31,13 @@ import com.mycelium.wapi.wallet.KeyCipher;
 import com.mycelium.wapi.wallet.SecureKeyValueStore;
 import com.mycelium.wapi.wallet.SecureSubKeyValueStore;
 
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * Management functions for keys associated with a BIP44 account.
@@ -50,6 +57,8 @@ public class Bip44AccountKeyManager {
    protected static final int BIP44_PURPOSE = 0x8000002c;
    protected static final int BIP44_PRODNET_COIN_TYPE = 0x80000000;
    protected static final int BIP44_TESTNET_COIN_TYPE = 0x80000001;
+   // Ranges with more missing addresses than this are derived in parallel
+   private static final int PARALLEL_DERIVATION_THRESHOLD = 32;
    protected int _accountIndex;
    protected final SecureKeyValueStore _secureKeyValueStore;
 
@@ -92,6 +101,14 @@ public class Bip44AccountKeyManager {
       _secureKeyValueStore = secureKeyValueStore;
    }
 
+   /**
+    * The threads shared by all accounts for deriving large address ranges, created on first use
+    */
+   private static class DerivationExecutorHolder {
+      private static final Executor EXECUTOR = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("bip44-derivation-%d").build());
+   }
+
    public Bip44AccountKeyManager(int accountIndex, NetworkParameters network, SecureKeyValueStore secureKeyValueStore) {
       _accountIndex = accountIndex;
       _secureKeyValueStore = secureKeyValueStore;
@@ -137,6 +154,93 @@ public class Bip44AccountKeyManager {
       return chainNode.createChildPrivateKey(index);
    }
 
+   /**
+    * Open a signing session that keeps both private chain nodes of this account decrypted in memory, so that many
+    * private keys can be derived without decrypting and parsing the chain nodes for every key.
+    * <p/>
+    * The session must be closed when the signing is done, and it stops handing out keys once the maximum duration
+    * has passed.
+    *
+    * @param cipher            the user cipher to decrypt the chain nodes with
+    * @param maxDurationMillis the number of milliseconds after which the session expires
+    * @return the open signing session
+    * @throws KeyCipher.InvalidKeyCipher if the cipher is invalid
+    */
+   public SigningSession openSigningSession(KeyCipher cipher, long maxDurationMillis) throws KeyCipher.InvalidKeyCipher {
+      List<byte[]> ids = Arrays.asList(getChainNodeId(_network, _accountIndex, false),
+            getChainNodeId(_network, _accountIndex, true));
+      List<byte[]> chainNodeBytes = _secureKeyValueStore.getEncryptedValues(ids, cipher);
+      try {
+         Preconditions.checkState(chainNodeBytes.get(0) != null && chainNodeBytes.get(1) != null,
+               "No private chain nodes for this account");
+         HdKeyNode externalChainRoot = HdKeyNode.fromCustomByteformat(chainNodeBytes.get(0));
+         HdKeyNode changeChainRoot = HdKeyNode.fromCustomByteformat(chainNodeBytes.get(1));
+         return new SigningSession(externalChainRoot, changeChainRoot, System.currentTimeMillis() + maxDurationMillis);
+      } catch (ByteReader.InsufficientBytesException e) {
+         throw new RuntimeException(e);
+      } finally {
+         // Wipe the decrypted bytes, the parsed nodes are all we need
+         for (byte[] bytes : chainNodeBytes) {
+            if (bytes != null) {
+               Arrays.fill(bytes, (byte) 0);
+            }
+         }
+      }
+   }
+
+   /**
+    * Derives private keys from decrypted chain nodes for a limited time.
+    * <p/>
+    * The expiry is checked once with {@link #checkNotExpired()} before signing starts, so that a signing run is never
+    * aborted half way. Closing the session wipes the chain codes of the chain nodes and drops them. The private keys
+    * of the chain nodes and of the derived keys are held in immutable BigIntegers and cannot be wiped, they stay in
+    * memory until they are garbage collected.
+    */
+   public static class SigningSession implements Closeable {
+      private HdKeyNode _externalChainRoot;
+      private HdKeyNode _changeChainRoot;
+      private final long _expiryTime;
+
+      private SigningSession(HdKeyNode externalChainRoot, HdKeyNode changeChainRoot, long expiryTime) {
+         _externalChainRoot = externalChainRoot;
+         _changeChainRoot = changeChainRoot;
+         _expiryTime = expiryTime;
+      }
+
+      /**
+       * Check that the session has not expired before signing starts, and close it if it has.
+       *
+       * @throws IllegalStateException if the session is closed or has expired
+       */
+      public synchronized void checkNotExpired() {
+         if (System.currentTimeMillis() > _expiryTime) {
+            close();
+         }
+         Preconditions.checkState(isOpen(), "Signing session is closed");
+      }
+
+      public synchronized InMemoryPrivateKey getPrivateKey(boolean isChangeChain, int index) {
+         Preconditions.checkState(isOpen(), "Signing session is closed");
+         HdKeyNode chainNode = isChangeChain ? _changeChainRoot : _externalChainRoot;
+         return chainNode.createChildPrivateKey(index);
+      }
+
+      public synchronized boolean isOpen() {
+         return _externalChainRoot != null;
+      }
+
+      @Override
+      public synchronized void close() {
+         if (!isOpen()) {
+            return;
+         }
+         _externalChainRoot.wipe();
+         _changeChainRoot.wipe();
+         _externalChainRoot = null;
+         _changeChainRoot = null;
+      }
+   }
+
    public PublicKey getPublicKey(boolean isChangeChain, int index) {
       // See if we have it in the store
       byte[] id = getLeafNodeId(_network, _accountIndex, isChangeChain, index, true);
@@ -179,6 +283,76 @@ public class Bip44AccountKeyManager {
       return address;
    }
 
+   /**
+    * Get the addresses for a range of indexes.
+    * <p/>
+    * Addresses that are already known are read from the store in one go. The missing ones are derived together, in
+    * parallel for large ranges, and stored with a single batched write. Unlike {@link #getAddress(boolean, int)} this
+    * does not store the public leaf nodes, {@link #getPublicKey(boolean, int)} derives them when they are needed.
+    *
+    * @param isChangeChain whether to use the change chain or the external chain
+    * @param fromIndex     the first index (inclusive)
+    * @param toIndex       the last index (exclusive)
+    * @return the addresses for the indexes fromIndex to toIndex - 1
+    */
+   public List<HdDerivedAddress> getAddresses(boolean isChangeChain, int fromIndex, int toIndex) {
+      Preconditions.checkArgument(0 <= fromIndex && fromIndex <= toIndex);
+      int count = toIndex - fromIndex;
+      List<byte[]> ids = new ArrayList<byte[]>(count);
+      for (int index = fromIndex; index < toIndex; index++) {
+         ids.add(getLeafNodeId(_network, _accountIndex, isChangeChain, index, false));
+      }
+
+      // See which ones we have in the store
+      List<byte[]> stored = _secureKeyValueStore.getPlaintextValues(ids);
+      HdDerivedAddress[] addresses = new HdDerivedAddress[count];
+      int missing = 0;
+      for (int i = 0; i < count; i++) {
+         if (stored.get(i) != null) {
+            addresses[i] = bytesToAddress(stored.get(i), ids.get(i));
+         } else {
+            missing++;
+         }
+      }
+      if (missing == 0) {
+         return Arrays.asList(addresses);
+      }
+
+      // Calculate the missing ones from the chain node, one run of consecutive indexes at a time
+      HdKeyNode chainNode = isChangeChain ? _publicChangeChainRoot : _publicExternalChainRoot;
+      boolean parallel = missing > PARALLEL_DERIVATION_THRESHOLD;
+      List<byte[]> newIds = new ArrayList<byte[]>(missing);
+      List<byte[]> newValues = new ArrayList<byte[]>(missing);
+      int i = 0;
+      while (i < count) {
+         if (addresses[i] != null) {
+            i++;
+            continue;
+         }
+         int runStart = i;
+         while (i < count && addresses[i] == null) {
+            i++;
+         }
+         List<PublicKey> keys;
+         if (parallel) {
+            keys = chainNode.createChildPublicKeys(fromIndex + runStart, i - runStart, DerivationExecutorHolder.EXECUTOR);
+         } else {
+            keys = chainNode.createChildPublicKeys(fromIndex + runStart, i - runStart);
+         }
+         for (int k = 0; k < keys.size(); k++) {
+            int position = runStart + k;
+            HdDerivedAddress address = new HdDerivedAddress(keys.get(k).toAddress(_network), ids.get(position));
+            addresses[position] = address;
+            newIds.add(ids.get(position));
+            newValues.add(addressToBytes(address));
+         }
+      }
+
+      // Store them for next time
+      _secureKeyValueStore.storePlaintextValues(newIds, newValues);
+      return Arrays.asList(addresses);
+   }
+
    protected static byte[] getAccountNodeId(NetworkParameters network, int accountIndex) {
       // Create a compact unique account ID
       byte[] id = new byte[1 + 1 + 4];
@@ -35,6 +35,7 @@ import com.mycelium.wapi.wallet.KeyCipher.InvalidKeyCipher;
 import com.mycelium.wapi.wallet.WalletManager.Event;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
@@ -101,6 +102,7 @@ public class SingleAddressAccount extends AbstractAccount implements ExportableA
 
    private void clearInternalStateInt(boolean isArchived) {
       _backing.clear();
+      onBackingCleared();
       _context = new SingleAddressAccountContext(_context.getId(), _context.getAddress(), isArchived, 0);
       _context.persist(_backing);
       _cachedBalance = null;
@@ -195,6 +197,11 @@ public class SingleAddressAccount extends AbstractAccount implements ExportableA
       return getAddress().equals(address);
    }
 
+   @Override
+   protected Collection<Address> getMonitoredAddresses() {
+      return new ArrayList<Address>(_addressList);
+   }
+
    @Override
    public int getBlockChainHeight() {
       checkNotArchived();
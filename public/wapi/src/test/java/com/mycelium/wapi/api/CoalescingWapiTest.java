@@ -0,0 +1,154 @@
+package com.mycelium.wapi.api;
+
+import com.mrd.bitlib.model.NetworkParameters;
+import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.WapiLogger;
+import com.mycelium.wapi.api.request.*;
+import com.mycelium.wapi.api.response.*;
+import com.mycelium.wapi.model.TransactionEx;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+public class CoalescingWapiTest {
+
+   private static final Sha256Hash A = HashUtils.doubleSha256(new byte[]{1});
+   private static final Sha256Hash B = HashUtils.doubleSha256(new byte[]{2});
+   private static final Sha256Hash C = HashUtils.doubleSha256(new byte[]{3});
+
+   /**
+    * A fake Wapi that knows every transaction and holds back its first response until released
+    */
+   private static class FakeWapi implements Wapi {
+      private final CountDownLatch _release = new CountDownLatch(1);
+      private final List<List<Sha256Hash>> _requests = Collections.synchronizedList(new ArrayList<List<Sha256Hash>>());
+
+      @Override
+      public WapiLogger getLogger() {
+         return WapiLogger.NULL_LOGGER;
+      }
+
+      @Override
+      public WapiResponse<GetTransactionsResponse> getTransactions(GetTransactionsRequest request) {
+         _requests.add(new ArrayList<Sha256Hash>(request.txIds));
+         try {
+            _release.await();
+         } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+         }
+         List<TransactionEx> result = new ArrayList<TransactionEx>();
+         for (Sha256Hash txid : request.txIds) {
+            result.add(new TransactionEx(txid, 1, 0, new byte[0]));
+         }
+         return new WapiResponse<GetTransactionsResponse>(new GetTransactionsResponse(result));
+      }
+
+      @Override
+      public WapiResponse<QueryUnspentOutputsResponse> queryUnspentOutputs(QueryUnspentOutputsRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<QueryTransactionInventoryResponse> queryTransactionInventory(QueryTransactionInventoryRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<BroadcastTransactionResponse> broadcastTransaction(BroadcastTransactionRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<CheckTransactionsResponse> checkTransactions(CheckTransactionsRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<QueryExchangeRatesResponse> queryExchangeRates(QueryExchangeRatesRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<PingResponse> ping() {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<ErrorCollectorResponse> collectError(ErrorCollectorRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<VersionInfoResponse> getVersionInfo(VersionInfoRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<VersionInfoExResponse> getVersionInfoEx(VersionInfoExRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<MinerFeeEstimationResponse> getMinerFeeEstimations() {
+         throw new UnsupportedOperationException();
+      }
+   }
+
+   private static class Lookup extends Thread {
+      private final Wapi _wapi;
+      private final List<Sha256Hash> _txIds;
+      private final Set<Sha256Hash> _result = new HashSet<Sha256Hash>();
+
+      private Lookup(Wapi wapi, Sha256Hash... txIds) {
+         _wapi = wapi;
+         _txIds = Arrays.asList(txIds);
+         start();
+      }
+
+      @Override
+      public void run() {
+         try {
+            for (TransactionEx tex : _wapi.getTransactions(new GetTransactionsRequest(Wapi.VERSION, _txIds)).getResult().transactions) {
+               _result.add(tex.txid);
+            }
+         } catch (WapiException e) {
+            throw new RuntimeException(e);
+         }
+      }
+   }
+
+   private static void awaitBlocked(Thread thread) throws InterruptedException {
+      while (thread.getState() != Thread.State.WAITING) {
+         Thread.sleep(1);
+      }
+   }
+
+   @Test
+   public void mergesQueuedLookups() throws InterruptedException {
+      FakeWapi fake = new FakeWapi();
+      Wapi wapi = new CoalescingWapi(fake, NetworkParameters.productionNetwork, 500, 100, 1);
+
+      Lookup first = new Lookup(wapi, A);
+      awaitBlocked(first);
+      Lookup second = new Lookup(wapi, A, B);
+      Lookup third = new Lookup(wapi, C);
+      awaitBlocked(second);
+      awaitBlocked(third);
+      fake._release.countDown();
+      first.join();
+      second.join();
+      third.join();
+
+      assertEquals(2, fake._requests.size());
+      assertEquals(new HashSet<Sha256Hash>(Arrays.asList(A, B, C)), new HashSet<Sha256Hash>(fake._requests.get(1)));
+      assertEquals(3, fake._requests.get(1).size());
+      assertEquals(new HashSet<Sha256Hash>(Arrays.asList(A)), first._result);
+      assertEquals(new HashSet<Sha256Hash>(Arrays.asList(A, B)), second._result);
+      assertEquals(new HashSet<Sha256Hash>(Arrays.asList(C)), third._result);
+   }
+
+}
@@ -0,0 +1,98 @@
+package com.mycelium.wapi.api;
+
+import com.google.common.base.Strings;
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.WapiLogger;
+import com.mycelium.net.HttpEndpoint;
+import com.mycelium.net.ServerEndpointType;
+import com.mycelium.net.ServerEndpoints;
+import com.mycelium.wapi.api.request.CheckTransactionsRequest;
+import com.mycelium.wapi.api.response.CheckTransactionsResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+public class WapiClientTest {
+
+   // Large enough not to be buffered before the client starts parsing it
+   private static final byte[] LARGE_RESPONSE = ("{\"padding\":\"" + Strings.repeat("x", 4 * 1024 * 1024)
+         + "\",\"errorCode\":0,\"r\":{\"transactions\":[]}}").getBytes();
+
+   /**
+    * Answers every request with a large response after a delay
+    */
+   private static class DelayedHandler implements HttpHandler {
+      private final long _delayMs;
+
+      private DelayedHandler(long delayMs) {
+         _delayMs = delayMs;
+      }
+
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+         try {
+            Thread.sleep(_delayMs);
+            exchange.sendResponseHeaders(200, LARGE_RESPONSE.length);
+            OutputStream body = exchange.getResponseBody();
+            // Write in pieces, so that the client reads while we are still sending
+            for (int i = 0; i < LARGE_RESPONSE.length; i += 64 * 1024) {
+               body.write(LARGE_RESPONSE, i, Math.min(64 * 1024, LARGE_RESPONSE.length - i));
+               body.flush();
+            }
+            body.close();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         } catch (IOException e) {
+            // The client hung up
+         } finally {
+            exchange.close();
+         }
+      }
+   }
+
+   private static HttpServer startServer(long delayMs) throws IOException {
+      HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/", new DelayedHandler(delayMs));
+      server.start();
+      return server;
+   }
+
+   private static HttpEndpoint endpoint(HttpServer server) {
+      return new HttpEndpoint("http://127.0.0.1:" + server.getAddress().getPort());
+   }
+
+   /**
+    * Test that the response of the second server asked by a hedged call is read completely once the call to the
+    * first, slow, server has been cancelled
+    */
+   @Test
+   public void hedgedCallKeepsWinningResponse() throws Exception {
+      HttpServer slow = startServer(2000);
+      HttpServer fast = startServer(0);
+      try {
+         HttpEndpoint slowEndpoint = endpoint(slow);
+         HttpEndpoint fastEndpoint = endpoint(fast);
+         ServerEndpoints endpoints = new ServerEndpoints(new HttpEndpoint[]{slowEndpoint, fastEndpoint}, 1);
+         // Allowing plain http switches to the slow endpoint, and untried endpoints are asked in order from there
+         endpoints.setAllowedEndpointTypes(new ServerEndpointType(new Class[]{HttpEndpoint.class}));
+         WapiClient client = new WapiClient(endpoints, WapiLogger.NULL_LOGGER, "junit");
+         WapiResponse<CheckTransactionsResponse> response = client.checkTransactions(
+               new CheckTransactionsRequest(new ArrayList<Sha256Hash>()));
+         assertEquals(Wapi.ERROR_CODE_SUCCESS, response.getErrorCode());
+         assertEquals(0, response.getResult().transactions.size());
+         assertEquals(fastEndpoint, endpoints.getCurrentEndpoint());
+      } finally {
+         slow.stop(0);
+         fast.stop(0);
+      }
+   }
+
+}
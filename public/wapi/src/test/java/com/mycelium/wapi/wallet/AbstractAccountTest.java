@@ -0,0 +1,78 @@
+package com.mycelium.wapi.wallet;
+
+import com.google.common.util.concurrent.Futures;
+import com.mrd.bitlib.model.*;
+import com.mycelium.wapi.api.Wapi;
+import com.mycelium.wapi.api.WapiException;
+import com.mycelium.wapi.api.WapiResponse;
+import com.mycelium.wapi.api.response.*;
+import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.model.TransactionOutputEx;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.mycelium.wapi.wallet.WalletTestFixture.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AbstractAccountTest {
+
+   /**
+    * Test that a parent handled along with its child only provides the parent output if its hash matches its ID, and
+    * is fetched and validated otherwise
+    */
+   @Test
+   public void parentOutputsComeFromValidatedTransactions() throws WapiException {
+      FakeWapi wapi = new FakeWapi();
+      InMemoryWalletManagerBacking backing = new InMemoryWalletManagerBacking();
+      WalletManager walletManager = new WalletManager(
+            new SecureKeyValueStore(new InMemoryWalletManagerBacking(), new MyRandomSource()), backing, NETWORK, wapi, null);
+      AbstractAccount account = (AbstractAccount) walletManager.getAccount(walletManager.createSingleAddressAccount(MINE));
+
+      TransactionInput coinbase = new TransactionInput(OutPoint.COINBASE_OUTPOINT, new ScriptInputCoinbase(new byte[]{1}));
+      Transaction parent = new Transaction(1, new TransactionInput[]{coinbase},
+            new TransactionOutput[]{output(FOREIGN, 100000)}, 0);
+      wapi._transactions.put(parent.getHash(), new TransactionEx(parent.getHash(), 100, 0, parent.toBytes()));
+      TransactionInput input = new TransactionInput(new OutPoint(parent.getHash(), 0), ScriptInput.EMPTY);
+      Transaction child = new Transaction(1, new TransactionInput[]{input},
+            new TransactionOutput[]{output(MINE, 90000)}, 0);
+
+      // A server lying about the value of the parent output
+      Transaction forged = new Transaction(1, new TransactionInput[]{coinbase},
+            new TransactionOutput[]{output(FOREIGN, 5000000)}, 0);
+      account.handleNewExternalTransactions(Arrays.asList(
+            new TransactionEx(parent.getHash(), 100, 0, forged.toBytes()),
+            new TransactionEx(child.getHash(), 101, 0, child.toBytes())));
+
+      TransactionOutputEx parentOutput = backing.getSingleAddressAccountBacking(account.getId())
+            .getParentTransactionOutput(new OutPoint(parent.getHash(), 0));
+      assertEquals(100000, parentOutput.value);
+   }
+
+   /**
+    * Test that a failed asynchronous call keeps the error code of the Wapi exception it failed with
+    */
+   @Test
+   public void failedAsyncCallsKeepTheirErrorCode() {
+      WalletManager walletManager = new WalletManager(
+            new SecureKeyValueStore(new InMemoryWalletManagerBacking(), new MyRandomSource()),
+            new InMemoryWalletManagerBacking(), NETWORK, new FakeWapi(), null);
+      AbstractAccount account = (AbstractAccount) walletManager.getAccount(walletManager.createSingleAddressAccount(MINE));
+
+      try {
+         account.getResult(Futures.<WapiResponse<PingResponse>>immediateFailedFuture(
+               new WapiException(Wapi.ERROR_CODE_NO_SERVER_CONNECTION)));
+         fail("Failed call did not throw");
+      } catch (WapiException e) {
+         assertEquals(Wapi.ERROR_CODE_NO_SERVER_CONNECTION, e.errorCode);
+      }
+      try {
+         account.getResult(Futures.<WapiResponse<PingResponse>>immediateFailedFuture(new RuntimeException()));
+         fail("Failed call did not throw");
+      } catch (WapiException e) {
+         assertEquals(Wapi.ERROR_CODE_INTERNAL_CLIENT_ERROR, e.errorCode);
+      }
+   }
+
+}
@@ -0,0 +1,41 @@
+package com.mycelium.wapi.wallet;
+
+import com.mrd.bitlib.model.Address;
+import com.mrd.bitlib.model.NetworkParameters;
+import com.mrd.bitlib.util.HashUtils;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AccountAddressIndexTest {
+
+   private static final NetworkParameters NETWORK = NetworkParameters.productionNetwork;
+   private static final Address FIRST = Address.fromStandardBytes(HashUtils.addressHash(new byte[]{1}), NETWORK);
+   private static final Address SECOND = Address.fromStandardBytes(HashUtils.addressHash(new byte[]{2}), NETWORK);
+
+   @Test
+   public void tracksAddressesPerAccount() {
+      AccountAddressIndex index = new AccountAddressIndex();
+      UUID hd = UUID.randomUUID();
+      UUID single = UUID.randomUUID();
+
+      index.onAddressesAdded(hd, Arrays.asList(FIRST));
+      index.onAddressesAdded(hd, Arrays.asList(FIRST, SECOND));
+      index.onAddressesAdded(single, Arrays.asList(SECOND));
+      assertEquals(Arrays.asList(hd), index.getAccountIds(FIRST));
+      assertEquals(Arrays.asList(hd, single), index.getAccountIds(SECOND));
+
+      index.onAddressesCleared(hd);
+      assertTrue(index.getAccountIds(FIRST).isEmpty());
+      assertEquals(Arrays.asList(single), index.getAccountIds(SECOND));
+
+      index.remove(single);
+      assertEquals(Collections.<UUID>emptyList(), index.getAccountIds(SECOND));
+   }
+
+}
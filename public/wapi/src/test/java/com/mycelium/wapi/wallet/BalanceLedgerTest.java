@@ -0,0 +1,60 @@
+package com.mycelium.wapi.wallet;
+
+import com.mrd.bitlib.model.*;
+import com.mycelium.wapi.model.Balance;
+import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.model.TransactionOutputEx;
+import org.junit.Test;
+
+import static com.mycelium.wapi.wallet.WalletTestFixture.*;
+import static org.junit.Assert.assertEquals;
+
+public class BalanceLedgerTest {
+
+   private static void assertMatchesFullCalculation(AbstractAccount account) {
+      Balance running = account.getBalance();
+      Balance calculated = account.calculateLocalBalance();
+      assertEquals(calculated.confirmed, running.confirmed);
+      assertEquals(calculated.pendingReceiving, running.pendingReceiving);
+      assertEquals(calculated.pendingSending, running.pendingSending);
+      assertEquals(calculated.pendingChange, running.pendingChange);
+   }
+
+   @Test
+   public void runningBalanceFollowsChanges() {
+      FakeWapi wapi = new FakeWapi();
+      WalletManager walletManager = new WalletManager(
+            new SecureKeyValueStore(new InMemoryWalletManagerBacking(), new MyRandomSource()),
+            new InMemoryWalletManagerBacking(), NETWORK, wapi, null);
+      AbstractAccount account = (AbstractAccount) walletManager.getAccount(walletManager.createSingleAddressAccount(MINE));
+
+      // Receive a confirmed output
+      TransactionInput coinbase = new TransactionInput(OutPoint.COINBASE_OUTPOINT, new ScriptInputCoinbase(new byte[]{1}));
+      Transaction funding = new Transaction(1, new TransactionInput[]{coinbase},
+            new TransactionOutput[]{output(MINE, 100000), output(FOREIGN, 5000)}, 0);
+      wapi._transactions.put(funding.getHash(), new TransactionEx(funding.getHash(), 100, 0, funding.toBytes()));
+      wapi._unspent.add(new TransactionOutputEx(new OutPoint(funding.getHash(), 0), 100, 100000,
+            funding.outputs[0].script.getScriptBytes(), false));
+      account.synchronizeUnspentOutputs(account.getReceivingAddress().asSet());
+      account.updateLocalBalance();
+      assertEquals(100000, account.getBalance().confirmed);
+      assertMatchesFullCalculation(account);
+
+      // Spend it with change back to us
+      TransactionInput input = new TransactionInput(new OutPoint(funding.getHash(), 0), ScriptInput.EMPTY);
+      Transaction spending = new Transaction(1, new TransactionInput[]{input},
+            new TransactionOutput[]{output(FOREIGN, 30000), output(MINE, 60000)}, 0);
+      account.queueTransaction(spending);
+      assertEquals(0, account.getBalance().confirmed);
+      assertEquals(60000, account.getBalance().pendingChange);
+      assertEquals(100000, account.getBalance().pendingSending);
+      assertMatchesFullCalculation(account);
+
+      // And drop the spending transaction again
+      account.cancelQueuedTransaction(spending.getHash());
+      assertEquals(0, account.getBalance().pendingChange);
+      assertEquals(0, account.getBalance().pendingSending);
+      assertMatchesFullCalculation(account);
+   }
+
+}
@@ -0,0 +1,120 @@
+package com.mycelium.wapi.wallet;
+
+import com.google.common.base.Optional;
+import com.mrd.bitlib.crypto.HdKeyNode;
+import com.mycelium.wapi.wallet.AccountScanManager.AccountCallback;
+import com.mycelium.wapi.wallet.AccountScanManager.HdKeyNodeWrapper;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConcurrentAccountScannerTest {
+
+   private static final HdKeyNode ROOT = HdKeyNode.fromSeed(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+
+   /**
+    * A scan manager with a limited number of accounts
+    */
+   private static class FakeScanManager implements AccountScanManager {
+      private final int _accounts;
+
+      private FakeScanManager(int accounts) {
+         _accounts = accounts;
+      }
+
+      @Override
+      public void startBackgroundAccountScan(AccountCallback scanningCallback) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void stopBackgroundAccountScan() {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void forgetAccounts() {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public Optional<HdKeyNode> getAccountPubKeyNode(int accountIndex) {
+         if (accountIndex >= _accounts) {
+            return Optional.absent();
+         }
+         return Optional.of(ROOT.createChildNode(accountIndex).getPublicNode());
+      }
+
+      @Override
+      public void setPassphrase(String passphrase) {
+         throw new UnsupportedOperationException();
+      }
+   }
+
+   /**
+    * Finds the accounts with the given indexes, the lower indexes taking longer
+    */
+   private static class FakeCallback implements AccountCallback {
+      private final Set<Integer> _used;
+
+      private FakeCallback(Integer... used) {
+         _used = new HashSet<Integer>(Arrays.asList(used));
+      }
+
+      @Override
+      public UUID checkForTransactions(HdKeyNodeWrapper account) {
+         try {
+            Thread.sleep(Math.max(0, 40 - 5 * account.accountIndex));
+         } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+         }
+         return _used.contains(account.accountIndex) ? account.accountRoot.getUuid() : null;
+      }
+   }
+
+   private static List<Integer> scan(int parallelism, int accountGapLimit, AccountScanManager scanManager,
+                                     AccountCallback callback) throws InterruptedException {
+      ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+      final List<Integer> found = new ArrayList<Integer>();
+      try {
+         int scanned = new ConcurrentAccountScanner(executor, parallelism, accountGapLimit).scan(scanManager, callback,
+               new ConcurrentAccountScanner.Listener() {
+                  @Override
+                  public void onAccountFound(HdKeyNodeWrapper account) {
+                     found.add(account.accountIndex);
+                  }
+               });
+         assertEquals(found.isEmpty() ? 0 : found.get(found.size() - 1) + 1, scanned);
+      } finally {
+         executor.shutdown();
+      }
+      return found;
+   }
+
+   @Test
+   public void reportsAccountsInIndexOrder() throws InterruptedException {
+      FakeCallback callback = new FakeCallback(0, 1, 2, 3, 4, 5);
+      assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), scan(4, 1, new FakeScanManager(100), callback));
+      assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), scan(1, 1, new FakeScanManager(100), callback));
+   }
+
+   @Test
+   public void stopsAtAccountGapLimit() throws InterruptedException {
+      FakeCallback callback = new FakeCallback(0, 1, 3, 6, 10);
+      assertEquals(Arrays.asList(0, 1), scan(4, 1, new FakeScanManager(100), callback));
+      assertEquals(Arrays.asList(0, 1, 3, 6), scan(4, 3, new FakeScanManager(100), callback));
+      assertEquals(Arrays.asList(0, 1, 3, 6, 10), scan(8, 4, new FakeScanManager(100), callback));
+   }
+
+   @Test
+   public void stopsAtLastAccount() throws InterruptedException {
+      FakeCallback callback = new FakeCallback(0, 1, 2, 3, 4, 5);
+      assertEquals(Arrays.asList(0, 1, 2), scan(4, 1, new FakeScanManager(3), callback));
+      assertEquals(Collections.<Integer>emptyList(), scan(4, 1, new FakeScanManager(0), callback));
+   }
+
+}
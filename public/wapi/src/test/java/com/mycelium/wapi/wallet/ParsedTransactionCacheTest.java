@@ -0,0 +1,52 @@
+package com.mycelium.wapi.wallet;
+
+import com.mrd.bitlib.model.NetworkParameters;
+import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.HexUtils;
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.wallet.ParsedTransactionCache.ParsedTransaction;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ParsedTransactionCacheTest {
+
+   private static final byte[] TRANSACTION = HexUtils.toBytes("0100000001990d1b71e3b572926982fa2419144aaccbc14ba2e918496052d26a4da3777132000000006a4730440220387b5e2d0005ff13f9a02df718fb85a67133484adc8e2571379aed1fccc0692b02204cc4555d33244e2abffcf362dcd4b71b5f373578c3a39da90bf120c2d3d80f9601210254df56fd5663610ce8370a8af0aa9e3e8bc1befd176554f35575769aec249d16ffffffff0280380100000000001976a914f679b8239ffdf39987d7c5ca8e5fd44475a795e188aca08601000000000017a9147e76c2468a8d453bfbc130e0ca86b6821b24c7b38700000000");
+
+   private static TransactionEx tex(byte[] binary) {
+      Sha256Hash txid = HashUtils.doubleSha256(binary).reverse();
+      return new TransactionEx(txid, 1000, 0, binary);
+   }
+
+   @Test
+   public void parsesOnceUntilInvalidated() {
+      ParsedTransactionCache cache = new ParsedTransactionCache(NetworkParameters.productionNetwork, 10);
+      TransactionEx tex = tex(TRANSACTION);
+
+      ParsedTransaction parsed = cache.get(tex);
+      assertEquals(tex.txid, parsed.transaction.getHash());
+      assertEquals(2, parsed.outputs.length);
+      assertEquals(parsed.outputs[1].script.getAddress(NetworkParameters.productionNetwork), parsed.outputAddresses[1]);
+      assertSame(parsed, cache.get(tex));
+      assertEquals(1, cache.getStats().hitCount());
+      assertEquals(1, cache.getStats().missCount());
+
+      cache.invalidate(tex.txid);
+      cache.get(tex);
+      assertEquals(1, cache.getStats().hitCount());
+      assertEquals(2, cache.getStats().missCount());
+   }
+
+   @Test
+   public void doesNotCacheUnparsableTransactions() {
+      ParsedTransactionCache cache = new ParsedTransactionCache(NetworkParameters.productionNetwork, 10);
+      TransactionEx tex = tex(new byte[]{1, 2, 3});
+      assertNull(cache.get(tex));
+      assertNull(cache.get(tex));
+      assertEquals(0, cache.getStats().hitCount());
+   }
+
+}
@@ -6,13 +6,18 @@ import com.mrd.bitlib.util.HexUtils;
 import org.junit.Test;
 
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
 
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class SecureKeyValueStoreTest {
 
    private static final byte[] ID_1 = HexUtils.toBytes("000102030405060708090a0b0c0d0e0f");
    private static final byte[] VALUE_1 = HexUtils.toBytes("0123456789abcdef");
+   private static final byte[] ID_2 = HexUtils.toBytes("0f0e0d0c0b0a09080706050403020100");
+   private static final byte[] VALUE_2 = HexUtils.toBytes("fedcba9876543210");
 
    private static class MyRandomSource implements RandomSource {
       SecureRandom _rnd;
@@ -45,4 +50,30 @@ public class SecureKeyValueStoreTest {
       assertTrue(BitUtils.areEqual(result, VALUE_1));
    }
 
+   @Test
+   public void storeAndRetrievePlaintextBatch() {
+      SecureKeyValueStore store = new SecureKeyValueStore(new InMemoryWalletManagerBacking(), new MyRandomSource());
+      store.storePlaintextValues(Arrays.asList(ID_1, ID_2), Arrays.asList(VALUE_1, VALUE_2));
+      List<byte[]> result = store.getPlaintextValues(Arrays.asList(ID_2, VALUE_1, ID_1));
+      assertTrue(BitUtils.areEqual(result.get(0), VALUE_2));
+      assertNull(result.get(1));
+      assertTrue(BitUtils.areEqual(result.get(2), VALUE_1));
+   }
+
+   @Test
+   public void storeAndRetrieveBatchInSubStore() throws KeyCipher.InvalidKeyCipher {
+      SecureKeyValueStore store = new SecureKeyValueStore(new InMemoryWalletManagerBacking(), new MyRandomSource());
+      KeyCipher cipher = AesKeyCipher.defaultKeyCipher();
+      SecureSubKeyValueStore subStore = store.createNewSubKeyStore();
+      subStore.storePlaintextValues(Arrays.asList(ID_1, ID_2), Arrays.asList(VALUE_1, VALUE_2));
+      subStore.encryptAndStoreValue(ID_1, VALUE_2, cipher);
+      assertNull(store.getPlaintextValue(ID_1));
+      List<byte[]> plaintext = subStore.getPlaintextValues(Arrays.asList(ID_1, ID_2));
+      assertTrue(BitUtils.areEqual(plaintext.get(0), VALUE_1));
+      assertTrue(BitUtils.areEqual(plaintext.get(1), VALUE_2));
+      List<byte[]> decrypted = subStore.getEncryptedValues(Arrays.asList(ID_1, ID_2), cipher);
+      assertTrue(BitUtils.areEqual(decrypted.get(0), VALUE_2));
+      assertNull(decrypted.get(1));
+   }
+
 }
@@ -0,0 +1,118 @@
+package com.mycelium.wapi.wallet;
+
+import com.mrd.bitlib.crypto.RandomSource;
+import com.mrd.bitlib.model.*;
+import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.WapiLogger;
+import com.mycelium.wapi.api.Wapi;
+import com.mycelium.wapi.api.WapiResponse;
+import com.mycelium.wapi.api.request.*;
+import com.mycelium.wapi.api.response.*;
+import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.model.TransactionOutputEx;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Addresses, a fake Wapi and helpers shared by the account tests
+ */
+final class WalletTestFixture {
+
+   static final NetworkParameters NETWORK = NetworkParameters.productionNetwork;
+   static final Address MINE = Address.fromStandardBytes(HashUtils.addressHash(new byte[]{1}), NETWORK);
+   static final Address FOREIGN = Address.fromStandardBytes(HashUtils.addressHash(new byte[]{2}), NETWORK);
+
+   static class MyRandomSource implements RandomSource {
+      SecureRandom _rnd = new SecureRandom(new byte[]{42});
+
+      @Override
+      public void nextBytes(byte[] bytes) {
+         _rnd.nextBytes(bytes);
+      }
+   }
+
+   /**
+    * A fake Wapi that knows a fixed set of unspent outputs and transactions
+    */
+   static class FakeWapi implements Wapi {
+      final List<TransactionOutputEx> _unspent = new ArrayList<TransactionOutputEx>();
+      final Map<Sha256Hash, TransactionEx> _transactions = new HashMap<Sha256Hash, TransactionEx>();
+
+      @Override
+      public WapiLogger getLogger() {
+         return WapiLogger.NULL_LOGGER;
+      }
+
+      @Override
+      public WapiResponse<QueryUnspentOutputsResponse> queryUnspentOutputs(QueryUnspentOutputsRequest request) {
+         return new WapiResponse<QueryUnspentOutputsResponse>(new QueryUnspentOutputsResponse(200, _unspent));
+      }
+
+      @Override
+      public WapiResponse<QueryTransactionInventoryResponse> queryTransactionInventory(QueryTransactionInventoryRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<GetTransactionsResponse> getTransactions(GetTransactionsRequest request) {
+         List<TransactionEx> result = new ArrayList<TransactionEx>();
+         for (Sha256Hash txid : request.txIds) {
+            result.add(_transactions.get(txid));
+         }
+         return new WapiResponse<GetTransactionsResponse>(new GetTransactionsResponse(result));
+      }
+
+      @Override
+      public WapiResponse<BroadcastTransactionResponse> broadcastTransaction(BroadcastTransactionRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<CheckTransactionsResponse> checkTransactions(CheckTransactionsRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<QueryExchangeRatesResponse> queryExchangeRates(QueryExchangeRatesRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<PingResponse> ping() {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<ErrorCollectorResponse> collectError(ErrorCollectorRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<VersionInfoResponse> getVersionInfo(VersionInfoRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<VersionInfoExResponse> getVersionInfoEx(VersionInfoExRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<MinerFeeEstimationResponse> getMinerFeeEstimations() {
+         throw new UnsupportedOperationException();
+      }
+   }
+
+   static TransactionOutput output(Address address, long value) {
+      return new TransactionOutput(value, new ScriptOutputStandard(address.getTypeSpecificBytes()));
+   }
+
+   private WalletTestFixture() {
+   }
+
+}
@@ -1,9 +1,17 @@
 package com.mycelium.wapi.wallet.bip44;
 
 import com.mrd.bitlib.crypto.Bip39;
+import com.mrd.bitlib.crypto.HdKeyNode;
 import com.mrd.bitlib.crypto.RandomSource;
 import com.mrd.bitlib.model.Address;
+import com.mrd.bitlib.model.HdDerivedAddress;
 import com.mrd.bitlib.model.NetworkParameters;
+import com.mrd.bitlib.model.OutPoint;
+import com.mrd.bitlib.model.ScriptInputCoinbase;
+import com.mrd.bitlib.model.ScriptOutputStandard;
+import com.mrd.bitlib.model.Transaction;
+import com.mrd.bitlib.model.TransactionInput;
+import com.mrd.bitlib.model.TransactionOutput;
 import com.mrd.bitlib.util.Sha256Hash;
 import com.mycelium.wapi.api.Wapi;
 import com.mycelium.WapiLogger;
@@ -21,9 +29,15 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class Bip44AccountTest {
 
@@ -143,6 +157,44 @@ public class Bip44AccountTest {
       }
    }
 
+   /**
+    * A fake Wapi that knows one transaction paying to each of a number of addresses
+    */
+   private static class HistoryWapi extends FakeWapi {
+      private final Map<Address, TransactionEx> _history = new HashMap<Address, TransactionEx>();
+      private final Map<Sha256Hash, TransactionEx> _transactions = new HashMap<Sha256Hash, TransactionEx>();
+
+      private void addPayment(Address address) {
+         TransactionInput coinbase = new TransactionInput(OutPoint.COINBASE_OUTPOINT,
+               new ScriptInputCoinbase(address.getTypeSpecificBytes()));
+         TransactionOutput output = new TransactionOutput(100000, new ScriptOutputStandard(address.getTypeSpecificBytes()));
+         Transaction t = new Transaction(1, new TransactionInput[]{coinbase}, new TransactionOutput[]{output}, 0);
+         TransactionEx tex = new TransactionEx(t.getHash(), 100, 0, t.toBytes());
+         _history.put(address, tex);
+         _transactions.put(tex.txid, tex);
+      }
+
+      @Override
+      public WapiResponse<QueryTransactionInventoryResponse> queryTransactionInventory(QueryTransactionInventoryRequest request) {
+         List<Sha256Hash> ids = new ArrayList<Sha256Hash>();
+         for (Address address : request.addresses) {
+            if (_history.containsKey(address)) {
+               ids.add(_history.get(address).txid);
+            }
+         }
+         return new WapiResponse<QueryTransactionInventoryResponse>(new QueryTransactionInventoryResponse(100, ids));
+      }
+
+      @Override
+      public WapiResponse<GetTransactionsResponse> getTransactions(GetTransactionsRequest request) {
+         List<TransactionEx> transactions = new ArrayList<TransactionEx>();
+         for (Sha256Hash txid : request.txIds) {
+            transactions.add(_transactions.get(txid));
+         }
+         return new WapiResponse<GetTransactionsResponse>(new GetTransactionsResponse(transactions));
+      }
+   }
+
    /**
     * Test that the first two addresses we generate agree with a specific seed agree with Wallet32
     */
@@ -170,5 +222,135 @@ public class Bip44AccountTest {
       assertEquals(Address.fromString(MASTER_SEED_512_A0_C0_ADDRESS), account1.getChangeAddress());
    }
 
+   /**
+    * Test that addresses materialized as a range agree with the ones derived one by one
+    */
+   @Test
+   public void addressRangeTest() throws KeyCipher.InvalidKeyCipher {
+      SecureKeyValueStore store = new SecureKeyValueStore(new InMemoryWalletManagerBacking(), new MyRandomSource());
+      KeyCipher cipher = AesKeyCipher.defaultKeyCipher();
+      Bip39.MasterSeed masterSeed = Bip39.generateSeedFromWordList(MASTER_SEED_WORDS.split(" "), "");
+      HdKeyNode root = HdKeyNode.fromSeed(masterSeed.getBip32Seed());
+      Bip44AccountKeyManager keyManager = Bip44AccountKeyManager.createNew(root, NetworkParameters.productionNetwork, 0, store, cipher);
+
+      // Have some of the addresses in the store already
+      HdDerivedAddress known = keyManager.getAddress(false, 3);
+      List<HdDerivedAddress> addresses = keyManager.getAddresses(false, 0, 40);
+      assertEquals(40, addresses.size());
+      assertEquals(Address.fromString(MASTER_SEED_512_A0_R0_ADDRESS), addresses.get(0));
+      assertEquals(known, addresses.get(3));
+
+      Bip44AccountKeyManager otherKeyManager = Bip44AccountKeyManager.createNew(root, NetworkParameters.productionNetwork, 0,
+            new SecureKeyValueStore(new InMemoryWalletManagerBacking(), new MyRandomSource()), cipher);
+      for (int i = 0; i < 40; i++) {
+         assertEquals(otherKeyManager.getAddress(false, i), addresses.get(i));
+      }
+      assertEquals(Address.fromString(MASTER_SEED_512_A0_C0_ADDRESS), keyManager.getAddresses(true, 0, 1).get(0));
+   }
+
+   /**
+    * Test that a signing session derives the same private keys as the key manager and stops after being closed
+    */
+   @Test
+   public void signingSessionTest() throws KeyCipher.InvalidKeyCipher {
+      SecureKeyValueStore store = new SecureKeyValueStore(new InMemoryWalletManagerBacking(), new MyRandomSource());
+      KeyCipher cipher = AesKeyCipher.defaultKeyCipher();
+      Bip39.MasterSeed masterSeed = Bip39.generateSeedFromWordList(MASTER_SEED_WORDS.split(" "), "");
+      HdKeyNode root = HdKeyNode.fromSeed(masterSeed.getBip32Seed());
+      Bip44AccountKeyManager keyManager = Bip44AccountKeyManager.createNew(root, NetworkParameters.productionNetwork, 0, store, cipher);
+
+      Bip44AccountKeyManager.SigningSession session = keyManager.openSigningSession(cipher, 60000);
+      assertTrue(session.isOpen());
+      for (int i = 0; i < 3; i++) {
+         assertEquals(keyManager.getPrivateKey(false, i, cipher).getPublicKey(), session.getPrivateKey(false, i).getPublicKey());
+         assertEquals(keyManager.getPrivateKey(true, i, cipher).getPublicKey(), session.getPrivateKey(true, i).getPublicKey());
+      }
+      assertEquals(Address.fromString(MASTER_SEED_512_A0_R0_ADDRESS),
+            session.getPrivateKey(false, 0).getPublicKey().toAddress(NetworkParameters.productionNetwork));
+      session.close();
+      assertFalse(session.isOpen());
+      try {
+         session.getPrivateKey(false, 0);
+         fail("Closed session handed out a key");
+      } catch (IllegalStateException e) {
+         // expected
+      }
+   }
+
+   /**
+    * Test that pipelined discovery finds the same addresses as discovering one window after the other, both when the
+    * windows move by their full length and when the speculative queries have to be thrown away
+    */
+   @Test
+   public void pipelinedDiscoveryTest() throws KeyCipher.InvalidKeyCipher {
+      // Densely used
+      int[] dense = new int[50];
+      for (int i = 0; i < dense.length; i++) {
+         dense[i] = i;
+      }
+      assertEquals(49, discover(dense, false));
+      assertEquals(49, discover(dense, true));
+      // The last address is within the look ahead window, but beyond the window we speculated on
+      assertEquals(35, discover(new int[]{0, 15, 35}, false));
+      assertEquals(35, discover(new int[]{0, 15, 35}, true));
+      // The last address is beyond the gap limit
+      assertEquals(15, discover(new int[]{0, 15, 40}, false));
+      assertEquals(15, discover(new int[]{0, 15, 40}, true));
+   }
+
+   /**
+    * Restore an account whose external addresses with the given indexes have been used
+    *
+    * @return the last external index with activity found
+    */
+   private static int discover(int[] usedIndexes, boolean pipelined) throws KeyCipher.InvalidKeyCipher {
+      SecureKeyValueStore store = new SecureKeyValueStore(new InMemoryWalletManagerBacking(), new MyRandomSource());
+      KeyCipher cipher = AesKeyCipher.defaultKeyCipher();
+      Bip39.MasterSeed masterSeed = Bip39.generateSeedFromWordList(MASTER_SEED_WORDS.split(" "), "");
+      HdKeyNode root = HdKeyNode.fromSeed(masterSeed.getBip32Seed());
+      List<HdDerivedAddress> addresses = Bip44AccountKeyManager.createNew(root, NetworkParameters.productionNetwork, 0,
+            new SecureKeyValueStore(new InMemoryWalletManagerBacking(), new MyRandomSource()), cipher)
+            .getAddresses(false, 0, 100);
+      HistoryWapi wapi = new HistoryWapi();
+      for (int index : usedIndexes) {
+         wapi.addPayment(addresses.get(index));
+      }
+
+      WalletManager walletManager = new WalletManager(store, new InMemoryWalletManagerBacking(),
+            NetworkParameters.productionNetwork, wapi, null);
+      walletManager.setPipelinedDiscovery(pipelined);
+      walletManager.configureBip32MasterSeed(masterSeed, cipher);
+      Bip44Account account = (Bip44Account) walletManager.getAccount(walletManager.createAdditionalBip44Account(cipher));
+      assertTrue(account.synchronize(true));
+      return account._context.getLastExternalIndexWithActivity();
+   }
+
+   @Test
+   public void expiredSigningSessionTest() throws KeyCipher.InvalidKeyCipher {
+      SecureKeyValueStore store = new SecureKeyValueStore(new InMemoryWalletManagerBacking(), new MyRandomSource());
+      KeyCipher cipher = AesKeyCipher.defaultKeyCipher();
+      Bip39.MasterSeed masterSeed = Bip39.generateSeedFromWordList(MASTER_SEED_WORDS.split(" "), "");
+      HdKeyNode root = HdKeyNode.fromSeed(masterSeed.getBip32Seed());
+      Bip44AccountKeyManager keyManager = Bip44AccountKeyManager.createNew(root, NetworkParameters.productionNetwork, 0, store, cipher);
+
+      // A session that expires once signing has started keeps handing out keys until it is closed
+      Bip44AccountKeyManager.SigningSession session = keyManager.openSigningSession(cipher, -1);
+      assertEquals(keyManager.getPrivateKey(false, 0, cipher), session.getPrivateKey(false, 0));
+
+      // A session that has expired before signing starts refuses to sign at all
+      try {
+         session.checkNotExpired();
+         fail("Expired signing session was not refused");
+      } catch (IllegalStateException e) {
+         // expected
+      }
+      assertFalse(session.isOpen());
+      try {
+         session.getPrivateKey(false, 0);
+         fail("Closed signing session handed out a key");
+      } catch (IllegalStateException e) {
+         // expected
+      }
+   }
 
 }